@@ -0,0 +1,71 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Points jeeves at a throw away configuration directory unless JEEVES_CONFIG is set.
+ * Every benchmark queue has its own configuration, benchmarks select the configuration
+ * they measure through the queue name. Queues of the redis backend expect Redis on
+ * REDIS_HOST:REDIS_PORT of the environment, localhost:6379 otherwise, queues of the
+ * memory backend run without Redis.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+final class BenchmarkEnvironment {
+
+    static final String QUEUE_PREFIX = "jeeves-bench-";
+
+    static {
+        if(System.getProperty("JEEVES_CONFIG") == null && System.getenv("JEEVES_CONFIG") == null) {
+            try {
+                Path configDir = Files.createTempDirectory("jeeves-bench");
+                write(configDir, "default", "NUM_RETRIES=0");
+                for(String backend : new String[] { "redis", "memory" }) {
+                    for(int batchSize : new int[] { 1, 10, 100 }) {
+                        write(configDir, queue(backend, batchSize), "NUM_RETRIES=0", "BACKEND=" + backend,
+                                "BATCH_SIZE=" + batchSize, "ACK_BATCH_SIZE=" + Math.max(100, batchSize));
+                    }
+                }
+                System.setProperty("JEEVES_CONFIG", configDir.toString());
+            } catch(IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    private BenchmarkEnvironment() {
+
+    }
+
+    /**
+     * @return benchmark queue stored in backend, configured to claim batchSize jobs at once
+     */
+    static String queue(String backend, int batchSize) {
+        return QUEUE_PREFIX + backend + "-batch-" + batchSize;
+    }
+
+    private static void write(Path configDir, String name, String... lines) throws IOException {
+        Files.write(configDir.resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning a claimed job into a model object: parsing with a Gson built per job,
+ * as QueueProcessor once did, with the cached EntityMapper and decoding with each codec,
+ * envelope included. Needs no Redis. Run with -prof gc for allocation rates.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    private String json;
+
+    private byte[] jsonJob;
+
+    private byte[] binaryJob;
+
+    private JsonCodec<CrawlJob> jsonCodec;
+
+    private BinaryCodec<CrawlJob> binaryCodec;
+
+    @Setup
+    public void setup() {
+        jsonCodec = new JsonCodec<>(CrawlJob.class);
+        binaryCodec = new BinaryCodec<>(CrawlJob.class);
+
+        CrawlJob job = CrawlJob.sample(42);
+        json = new String(jsonCodec.encode(job), StandardCharsets.UTF_8);
+        jsonJob = JobEnvelope.of("42", JsonCodec.NAME, null, jsonCodec.encode(job)).encode();
+        binaryJob = JobEnvelope.of("42", BinaryCodec.NAME, null, binaryCodec.encode(job)).encode();
+    }
+
+    @Benchmark
+    public CrawlJob gsonPerJob() {
+        return new Gson().fromJson(json, CrawlJob.class);
+    }
+
+    @Benchmark
+    public CrawlJob entityMapper() {
+        return EntityMapper.forModel(CrawlJob.class).parse(json);
+    }
+
+    @Benchmark
+    public CrawlJob jsonCodec() {
+        return jsonCodec.decode(JobEnvelope.parse(jsonJob).getPayload());
+    }
+
+    @Benchmark
+    public CrawlJob binaryCodec() {
+        return binaryCodec.decode(JobEnvelope.parse(binaryJob).getPayload());
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return binaryCodec.encode(CrawlJob.sample(42));
+    }
+}
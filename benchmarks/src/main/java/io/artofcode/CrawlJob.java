@@ -0,0 +1,52 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * A job shaped like the payloads of our crawlers.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class CrawlJob {
+
+    private String url;
+
+    private int numHits;
+
+    private Calendar createdOn;
+
+    private List<String> tags;
+
+    CrawlJob() {
+
+    }
+
+    CrawlJob(String url, int numHits) {
+        this.url = url;
+        this.numHits = numHits;
+        this.createdOn = Calendar.getInstance();
+        this.tags = Arrays.asList("news", "daily");
+    }
+
+    static CrawlJob sample(int i) {
+        return new CrawlJob("https://google.com/search?q=jeeves&page=" + i, i);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead QueueProcessor adds to every job between claiming it and handing it to the
+ * consumer: acquiring a concurrency permit, the hand off to the executor, unwrapping
+ * the envelope and decoding the payload. The per job path of QueueProcessor.start() is
+ * reproduced here without its Redis round trips, which the other benchmarks cover.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+    private static final int JOBS = 1000;
+
+    @Param({ "fixed", "adaptive" })
+    public String limiterType;
+
+    @Param({ "json", "binary" })
+    public String codecName;
+
+    private ConcurrencyLimiter limiter;
+
+    private ExecutorService executor;
+
+    private PayloadCodec<CrawlJob> codec;
+
+    private byte[] job;
+
+    private Phaser completed;
+
+    @Setup
+    public void setup() {
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        limiter = "adaptive".equals(limiterType)
+                ? new AimdConcurrencyLimiter(1, concurrency)
+                : new FixedConcurrencyLimiter(concurrency);
+        executor = Executors.newWorkStealingPool(concurrency);
+        codec = PayloadCodecs.forName(codecName, CrawlJob.class);
+        job = JobEnvelope.of("42", codec.getName(), null, codec.encode(CrawlJob.sample(42))).encode();
+        completed = new Phaser(1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOBS)
+    public void dispatch() throws InterruptedException {
+        for(int i = 0; i < JOBS; i++) {
+            limiter.acquire();
+            completed.register();
+            executor.execute(() -> {
+                long startedAt = System.nanoTime();
+                try {
+                    JobEnvelope envelope = JobEnvelope.parse(job);
+                    codec.decode(PayloadCompression.decompress(envelope.getCompression(), envelope.getPayload()));
+                } finally {
+                    limiter.release(System.nanoTime() - startedAt, true);
+                    completed.arriveAndDeregister();
+                }
+            });
+        }
+        completed.arriveAndAwaitAdvance();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Jobs per second from JobSubmitter.submitAll() to the consumer of a running
+ * QueueProcessor, including claims, acknowledgements and leases, through Redis or
+ * the in-memory backend. Each invocation
+ * submits a batch of jobs and waits until all of them were consumed, the sample time
+ * mode therefore reports the latency of a job within such a batch.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    private static final int JOBS = 1000;
+
+    @Param({ "redis", "memory" })
+    public String backend;
+
+    @Param({ "1", "10", "100" })
+    public int batchSize;
+
+    @Param({ "json", "binary" })
+    public String codecName;
+
+    private String queue;
+
+    private final Semaphore consumed = new Semaphore(0);
+
+    private List<CrawlJob> jobs;
+
+    private JobSubmitter<CrawlJob> submitter;
+
+    private QueueProcessor<CrawlJob> processor;
+
+    private Thread processorThread;
+
+    @Setup
+    public void setup() {
+        queue = BenchmarkEnvironment.queue(backend, batchSize);
+        if("redis".equals(backend)) {
+            try(Jedis jedis = RedisConnectionPool.forQueue(queue).getResource()) {
+                jedis.del(queue);
+            }
+        }
+
+        PayloadCodec<CrawlJob> codec = PayloadCodecs.forName(codecName, CrawlJob.class);
+        jobs = new ArrayList<>(JOBS);
+        for(int i = 0; i < JOBS; i++) {
+            jobs.add(CrawlJob.sample(i));
+        }
+        submitter = new JobSubmitter.Builder<CrawlJob>(queue)
+                .codec(codec)
+                .build();
+        processor = new QueueProcessor.Builder<CrawlJob>(queue)
+                .consumer((job) -> consumed.release())
+                .model(CrawlJob.class)
+                .codec(codec)
+                .retries(0)
+                .build();
+
+        processorThread = new Thread(processor::start, "jeeves-bench-processor");
+        processorThread.start();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOBS)
+    public void submitAndConsume() throws InterruptedException {
+        submitter.submitAll(jobs);
+        consumed.acquire(JOBS);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        processor.close();
+        processorThread.join(TimeUnit.SECONDS.toMillis(30L));
+        submitter.close();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Cost of claiming a job from Redis with QueuedJobRetriever.retrieveNext() for various
+ * BATCH_SIZEs. The retriever uses the queue as its own in-process queue, so every claim
+ * rotates a job from one end of the queue to the other and the queue never runs dry.
+ * The claim path, including leases, is otherwise exactly the one workers take.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueuedJobRetrieverBenchmark {
+
+    private static final int QUEUED_JOBS = 10000;
+
+    @Param({ "1", "10", "100" })
+    public int batchSize;
+
+    private String queue;
+
+    private RedisQueueManager rqm;
+
+    private LeaseKeeper leases;
+
+    private QueuedJobRetriever retriever;
+
+    @Setup
+    public void setup() {
+        queue = BenchmarkEnvironment.queue("redis", batchSize);
+        rqm = new RedisQueueManager(queue);
+        clear();
+
+        JsonCodec<CrawlJob> codec = new JsonCodec<>(CrawlJob.class);
+        List<byte[]> jobs = new ArrayList<>(QUEUED_JOBS);
+        for(int i = 0; i < QUEUED_JOBS; i++) {
+            jobs.add(JobEnvelope.of(Integer.toString(i), codec.getName(), null, codec.encode(CrawlJob.sample(i))).encode());
+        }
+        rqm.enqueue(jobs);
+
+        leases = new LeaseKeeper(queue, queue);
+        retriever = new QueuedJobRetriever(queue, queue, leases, null);
+    }
+
+    @Benchmark
+    public byte[] retrieveNext() {
+        byte[] job = retriever.retrieveNext();
+        leases.release(job);
+        return job;
+    }
+
+    @TearDown
+    public void tearDown() {
+        retriever.stopPolling();
+        leases.close();
+        clear();
+    }
+
+    private void clear() {
+        try(Jedis jedis = RedisConnectionPool.forQueue(queue).getResource()) {
+            jedis.del(queue, rqm.getLeasesName());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+/**
+ * Handle through which the outcome of a job is reported. A job stays in the worker's
+ * in-process queue until it is either acknowledged or rejected. Only the first call
+ * on an Acknowledgement has any effect, subsequent calls are ignored.
+ *
+ * Acknowledgements are buffered and written to Redis in batches, hence a call to
+ * {@code ack()} or {@code nack()} never blocks on a network round trip.
+ *
+ * A job counts against the concurrency limit of its processor until its outcome is
+ * reported, also when the consumer hands the job on and returns before that.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public interface Acknowledgement {
+
+    /**
+     * Reports that the job was processed successfully and removes it from the
+     * in-process queue.
+     */
+    void ack();
+
+    /**
+     * Reports that the job could not be processed. The job is removed from the
+     * in-process queue and attempted again after an exponential backoff. Once it
+     * has failed NUM_RETRIES times it is moved to the failed jobs queue instead.
+     */
+    void nack();
+}
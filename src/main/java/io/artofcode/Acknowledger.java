@@ -0,0 +1,345 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects job acknowledgements of a worker and writes them to Redis in batches. Pending
+ * acknowledgements are flushed on a single pipelined connection ACK_FLUSH_INTERVAL after
+ * the first of them arrived or as soon as ACK_BATCH_SIZE of them are pending, whichever
+ * happens first. Flushes are only scheduled while acknowledgements are pending, so an
+ * idle worker costs nothing.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class Acknowledger implements AutoCloseable {
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final long DEFAULT_FLUSH_INTERVAL = 5L;
+
+    private final String queue;
+
+    private final String inProcessQueue;
+
+    private final QueueBackend backend;
+
+    private final LeaseKeeper leases;
+
+    private final RetryPolicy retryPolicy;
+
+    private final QueueMetrics metrics;
+
+    private final JobHistory history;
+
+    private final int batchSize;
+
+    private final Queue<byte[]> acks = new ConcurrentLinkedQueue<>();
+
+    private final Queue<byte[]> nacks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final ScheduledExecutorService flusher;
+
+    private final boolean ownsFlusher;
+
+    private final long flushInterval;
+
+    private volatile ScheduledFuture<?> scheduledFlush;
+
+    private volatile boolean isClosed = false;
+
+    private final Logger logger = Logger.getLogger(Acknowledger.class.toString());
+
+    Acknowledger(String queue, String inProcessQueue, LeaseKeeper leases, RetryPolicy retryPolicy) {
+        this(queue, inProcessQueue, leases, retryPolicy, null);
+    }
+
+    /**
+     * @param scheduler runs the flushes and is left running on close, null to flush on a
+     *                  thread of its own
+     */
+    Acknowledger(String queue, String inProcessQueue, LeaseKeeper leases, RetryPolicy retryPolicy,
+                 ScheduledExecutorService scheduler) {
+        this.queue = queue;
+        this.inProcessQueue = inProcessQueue;
+        this.leases = leases;
+        this.retryPolicy = retryPolicy;
+        this.backend = QueueBackend.forQueue(queue);
+        this.metrics = QueueMetrics.forQueue(queue);
+        this.history = JobHistory.forQueue(queue);
+
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        this.batchSize = Math.max(1, config.getInt(queue, "ACK_BATCH_SIZE", DEFAULT_BATCH_SIZE));
+        this.flushInterval = Math.max(1L, config.getDuration(queue, "ACK_FLUSH_INTERVAL", DEFAULT_FLUSH_INTERVAL));
+
+        this.ownsFlusher = scheduler == null;
+        this.flusher = scheduler != null ? scheduler : Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, format("jeeves-ack-%s", queue));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records the start of an attempt of job in the history of the queue.
+     *
+     * @return an Acknowledgement which reports the outcome of job to this Acknowledger
+     */
+    Acknowledgement acknowledgement(byte[] job) {
+        return acknowledgement(job, null);
+    }
+
+    /**
+     * Records the start of an attempt of job in the history of the queue.
+     *
+     * @param onOutcome told whether job succeeded once its outcome is reported, null if
+     *                  nobody needs to know
+     * @return an Acknowledgement which reports the outcome of job to this Acknowledger
+     */
+    Acknowledgement acknowledgement(byte[] job, Consumer<Boolean> onOutcome) {
+        history.record(JobEvent.Type.STARTED, job, -1L);
+        return new JobAcknowledgement(job, onOutcome);
+    }
+
+    void ack(byte[] job) {
+        leases.complete(job);
+        if(acceptPending()) {
+            acks.add(job);
+            onPending();
+        }
+    }
+
+    void nack(byte[] job) {
+        leases.release(job);
+        if(acceptPending()) {
+            nacks.add(job);
+            onPending();
+        }
+    }
+
+    private boolean acceptPending() {
+        if(isClosed) {
+            logger.warning(format("Acknowledgement received after %s was closed, job is left in %s",
+                    queue, inProcessQueue));
+        }
+        return !isClosed;
+    }
+
+    private void onPending() {
+        if(pending.incrementAndGet() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch(RejectedExecutionException ree) {
+                // Closing, the final flush in close() picks up whatever is pending
+            }
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Schedules a flush ACK_FLUSH_INTERVAL from now unless one is scheduled already.
+     */
+    private void scheduleFlush() {
+        if(!isClosed && flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduledFlush = flusher.schedule(this::flush, flushInterval, TimeUnit.MILLISECONDS);
+            } catch(RejectedExecutionException ree) {
+                // Closing, the final flush in close() picks up whatever is pending
+            }
+        }
+    }
+
+    /**
+     * Writes all pending acknowledgements to the backend. If the write fails then the
+     * acknowledgements are put back and retried on the next flush.
+     */
+    private synchronized void flush() {
+        flushRequested.set(false);
+        // Acknowledgements arriving from now on are not drained below and need a flush of their own
+        flushScheduled.set(false);
+
+        List<byte[]> acked = drain(acks);
+        List<byte[]> failed = drain(nacks);
+        if(acked.isEmpty() && failed.isEmpty()) {
+            return;
+        }
+
+        try {
+            if(!acked.isEmpty()) {
+                backend.ack(inProcessQueue, acked);
+                metrics.onSucceeded(acked.size());
+                acked.clear();
+            }
+            if(!failed.isEmpty()) {
+                retryOrFail(failed);
+                failed.clear();
+            }
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to flush acknowledgements of %s", inProcessQueue), ex);
+            acks.addAll(acked);
+            nacks.addAll(failed);
+            pending.addAndGet(acked.size() + failed.size());
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Schedules the next attempt of failed jobs which have retries left and moves the
+     * rest to the failed jobs queue. Jobs whose attempt cannot be read from their envelope
+     * are failed right away, retrying them would fail every flush of the batch.
+     */
+    private void retryOrFail(List<byte[]> failed) {
+        List<QueueBackend.Retry> retries = new ArrayList<>();
+        List<byte[]> exhausted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        for(byte[] job : failed) {
+            JobEnvelope envelope = JobEnvelope.parse(job);
+            int attempt;
+            try {
+                attempt = envelope.getAttempt();
+            } catch(NumberFormatException nfe) {
+                logger.warning(format("Job %s of %s has a corrupt attempt header, it is failed without retry",
+                        envelope.getId(), queue));
+                exhausted.add(job);
+                continue;
+            }
+            if(retryPolicy.canRetry(attempt)) {
+                retries.add(new QueueBackend.Retry(job, envelope.nextAttempt().encode(),
+                        now + retryPolicy.backoff(attempt)));
+            } else {
+                exhausted.add(job);
+            }
+        }
+
+        if(!retries.isEmpty()) {
+            backend.retry(inProcessQueue, retries);
+            metrics.onRetried(retries.size());
+        }
+        if(!exhausted.isEmpty()) {
+            logger.warning(format("%d jobs of %s failed after %d retries", exhausted.size(), queue,
+                    retryPolicy.getMaxRetries()));
+            backend.fail(inProcessQueue, exhausted);
+            metrics.onFailed(exhausted.size());
+        }
+    }
+
+    private List<byte[]> drain(Queue<byte[]> source) {
+        List<byte[]> drained = new ArrayList<>();
+        byte[] job;
+        while((job = source.poll()) != null) {
+            drained.add(job);
+        }
+        pending.addAndGet(-drained.size());
+        return drained;
+    }
+
+    /**
+     * Stops scheduling flushes and writes whatever is still pending before releasing
+     * the backend.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        ScheduledFuture<?> scheduled = scheduledFlush;
+        if(scheduled != null) {
+            scheduled.cancel(false);
+        }
+        if(ownsFlusher) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10L, TimeUnit.SECONDS);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        history.flush();
+        backend.close();
+    }
+
+    private class JobAcknowledgement implements Acknowledgement {
+
+        private final byte[] job;
+
+        private final long startedAt = System.currentTimeMillis();
+
+        private final Consumer<Boolean> onOutcome;
+
+        private final AtomicBoolean acknowledged = new AtomicBoolean();
+
+        private JobAcknowledgement(byte[] job, Consumer<Boolean> onOutcome) {
+            this.job = job;
+            this.onOutcome = onOutcome;
+        }
+
+        @Override
+        public void ack() {
+            if(acknowledged.compareAndSet(false, true)) {
+                try {
+                    history.record(JobEvent.Type.FINISHED, job, System.currentTimeMillis() - startedAt);
+                    Acknowledger.this.ack(job);
+                } finally {
+                    reportOutcome(true);
+                }
+            }
+        }
+
+        @Override
+        public void nack() {
+            if(acknowledged.compareAndSet(false, true)) {
+                try {
+                    history.record(JobEvent.Type.FAILED, job, System.currentTimeMillis() - startedAt);
+                    Acknowledger.this.nack(job);
+                } finally {
+                    reportOutcome(false);
+                }
+            }
+        }
+
+        private void reportOutcome(boolean success) {
+            if(onOutcome != null) {
+                onOutcome.accept(success);
+            }
+        }
+    }
+}
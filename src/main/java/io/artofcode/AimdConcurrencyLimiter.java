@@ -0,0 +1,142 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Adapts the number of jobs in flight with additive increase, multiplicative decrease.
+ * While jobs succeed, the consumer latency stays close to the lowest latency seen
+ * recently and at least half of the permits are in use, the limit grows by one for
+ * every limit jobs completed, i.e. once per round of the current concurrency. When a
+ * job fails, or the smoothed latency grows beyond LATENCY_TOLERANCE times the no-load
+ * latency because the consumer or whatever it calls is saturated, the limit is cut by
+ * BACKOFF_RATIO. A cut is followed by a round of the
+ * new concurrency during which no further cut happens, which keeps one burst of slow
+ * jobs from collapsing the limit to its minimum.
+ *
+ * The limit therefore settles around the concurrency at which latency starts to rise,
+ * which is where more concurrency stops buying throughput.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class AimdConcurrencyLimiter implements ConcurrencyLimiter {
+
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private static final double SMOOTHING = 0.2;
+
+    private static final double NO_LOAD_DRIFT = 1.001;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final AdjustableSemaphore semaphore;
+
+    private int limit;
+
+    private int completed;
+
+    private int cooldown;
+
+    private double smoothedLatency;
+
+    private double noLoadLatency;
+
+    AimdConcurrencyLimiter(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = this.minLimit;
+        this.semaphore = new AdjustableSemaphore(this.limit);
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        semaphore.acquire();
+    }
+
+    @Override
+    public void release(long latencyNanos, boolean success) {
+        adjust(latencyNanos, success);
+        semaphore.release();
+    }
+
+    private synchronized void adjust(long latencyNanos, boolean success) {
+        double latency = Math.max(1L, latencyNanos);
+        if(noLoadLatency == 0) {
+            noLoadLatency = latency;
+            smoothedLatency = latency;
+        } else {
+            // The no-load latency slowly drifts up so that it follows a consumer which
+            // became permanently slower instead of throttling it forever
+            noLoadLatency = Math.min(latency, noLoadLatency * NO_LOAD_DRIFT);
+            smoothedLatency += SMOOTHING * (latency - smoothedLatency);
+        }
+
+        if(cooldown > 0) {
+            cooldown--;
+        }
+
+        if(!success || smoothedLatency > LATENCY_TOLERANCE * noLoadLatency) {
+            completed = 0;
+            if(cooldown == 0) {
+                setLimit(Math.max(minLimit, (int) (limit * BACKOFF_RATIO)));
+                cooldown = limit;
+            }
+        } else if(limit - semaphore.availablePermits() >= limit / 2 && ++completed >= limit) {
+            completed = 0;
+            setLimit(Math.min(maxLimit, limit + 1));
+        }
+    }
+
+    private void setLimit(int newLimit) {
+        if(newLimit > limit) {
+            semaphore.release(newLimit - limit);
+        } else if(newLimit < limit) {
+            semaphore.reducePermits(limit - newLimit);
+        }
+        limit = newLimit;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Semaphore whose permits can be taken away while they are in use. A reduction
+     * which exceeds the available permits makes the count negative, jobs in flight then
+     * finish without new ones starting until the count is positive again.
+     */
+    private static class AdjustableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        private AdjustableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
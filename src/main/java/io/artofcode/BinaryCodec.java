@@ -0,0 +1,647 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes jobs in a compact binary form which is a fraction of the size of the same job
+ * in JSON and is decoded without any text parsing. Field names are not written, the
+ * fields of the model are written one after another in a fixed order:
+ * <ul>
+ *     <li>integral numbers as zig-zag varints, floating point numbers as their IEEE 754 bits</li>
+ *     <li>Strings and byte[] as a varint length followed by the UTF-8 or raw bytes</li>
+ *     <li>enums by ordinal, Dates as epoch millis and Calendars as epoch millis and time zone</li>
+ *     <li>Lists, Sets and Maps of the above as a varint size followed by their elements</li>
+ *     <li>other classes field by field, fields which may be null are preceded by a presence flag</li>
+ * </ul>
+ * Every payload starts with a format version and a fingerprint of the model's fields, so
+ * a consumer whose model differs from the producer's rejects the job instead of silently
+ * reading garbage. Models therefore cannot change shape while jobs encoded with the old
+ * shape are still queued, the JSON codec should be used where that matters.
+ *
+ * Static and transient fields are skipped. Models are instantiated through their no-arg
+ * constructor if they have one, or without running any constructor otherwise, the same
+ * way Gson does.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public final class BinaryCodec<T> implements PayloadCodec<T> {
+
+    public static final String NAME = "binary";
+
+    private static final byte VERSION = 1;
+
+    private final Class<T> model;
+
+    private final Format format;
+
+    private final int fingerprint;
+
+    /**
+     * @throws IllegalArgumentException if model has fields of a type this codec cannot encode
+     */
+    public BinaryCodec(Class<T> model) {
+        Map<Class<?>, ObjectFormat> objects = new TreeMap<>(Comparator.comparing(Class::getName));
+        this.model = model;
+        this.format = formatOf(model, objects);
+
+        CRC32 crc = new CRC32();
+        for(ObjectFormat object : objects.values()) {
+            crc.update(object.describeFields().getBytes(StandardCharsets.UTF_8));
+        }
+        this.fingerprint = (int) crc.getValue();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(T job) {
+        Output out = new Output();
+        out.writeByte(VERSION);
+        out.writeFixedInt(fingerprint);
+        format.write(out, job);
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if payload was not encoded by this codec for the same model
+     */
+    @Override
+    public T decode(byte[] payload) {
+        Input in = new Input(payload);
+        if(in.readByte() != VERSION || in.readFixedInt() != fingerprint) {
+            throw new IllegalArgumentException(format("Payload was not encoded for %s by %s codec",
+                    model.getName(), NAME));
+        }
+        T job = model.cast(format.read(in));
+        if(in.hasRemaining()) {
+            throw new IllegalArgumentException(format("Payload of %s was not fully consumed", model.getName()));
+        }
+        return job;
+    }
+
+    private static Format formatOf(Type type, Map<Class<?>, ObjectFormat> objects) {
+        if(type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            Class<?> raw = (Class<?>) parameterized.getRawType();
+            Type[] arguments = parameterized.getActualTypeArguments();
+            if(raw == List.class || raw == Collection.class || raw == ArrayList.class) {
+                return new Nullable(new CollectionFormat(ArrayList::new, formatOf(arguments[0], objects)));
+            } else if(raw == Set.class || raw == LinkedHashSet.class) {
+                return new Nullable(new CollectionFormat(LinkedHashSet::new, formatOf(arguments[0], objects)));
+            } else if(raw == Map.class || raw == LinkedHashMap.class) {
+                return new Nullable(new MapFormat(formatOf(arguments[0], objects), formatOf(arguments[1], objects)));
+            }
+        } else if(type instanceof Class) {
+            Class<?> c = (Class<?>) type;
+            if(c.isPrimitive()) {
+                return primitiveFormat(c);
+            } else if(Primitives.BOXES.containsKey(c)) {
+                return new Nullable(primitiveFormat(Primitives.BOXES.get(c)));
+            } else if(c == String.class) {
+                return new Nullable(Primitives.STRING);
+            } else if(c == byte[].class) {
+                return new Nullable(Primitives.BYTES);
+            } else if(c.isEnum()) {
+                return new Nullable(new EnumFormat(c));
+            } else if(c == Date.class) {
+                return new Nullable(Primitives.DATE);
+            } else if(c == Calendar.class || c == GregorianCalendar.class) {
+                return new Nullable(Primitives.CALENDAR);
+            } else if(!c.isArray() && !c.isInterface() && !Modifier.isAbstract(c.getModifiers())
+                    && !c.getName().startsWith("java")) {
+                ObjectFormat object = objects.get(c);
+                if(object == null) {
+                    object = new ObjectFormat(c);
+                    objects.put(c, object);
+                    object.resolve(objects);
+                }
+                return new Nullable(object);
+            }
+        }
+        throw new IllegalArgumentException(format("%s codec cannot encode %s", NAME, type.getTypeName()));
+    }
+
+    private static Format primitiveFormat(Class<?> primitive) {
+        if(primitive == boolean.class) {
+            return Primitives.BOOLEAN;
+        } else if(primitive == float.class) {
+            return Primitives.FLOAT;
+        } else if(primitive == double.class) {
+            return Primitives.DOUBLE;
+        } else if(primitive == char.class) {
+            return Primitives.CHAR;
+        }
+        return new IntegralFormat(primitive);
+    }
+
+    private interface Format {
+
+        void write(Output out, Object value);
+
+        Object read(Input in);
+
+        String describe();
+    }
+
+    private static final class Nullable implements Format {
+
+        private final Format format;
+
+        private Nullable(Format format) {
+            this.format = format;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            out.writeByte(value == null ? 0 : 1);
+            if(value != null) {
+                format.write(out, value);
+            }
+        }
+
+        @Override
+        public Object read(Input in) {
+            return in.readByte() == 0 ? null : format.read(in);
+        }
+
+        @Override
+        public String describe() {
+            return format.describe() + "?";
+        }
+    }
+
+    private enum Primitives implements Format {
+        BOOLEAN {
+            public void write(Output out, Object value) { out.writeByte((Boolean) value ? 1 : 0); }
+            public Object read(Input in) { return in.readByte() != 0; }
+        },
+        CHAR {
+            public void write(Output out, Object value) { out.writeVarLong((Character) value); }
+            public Object read(Input in) { return (char) in.readVarLong(); }
+        },
+        FLOAT {
+            public void write(Output out, Object value) { out.writeFixedInt(Float.floatToIntBits((Float) value)); }
+            public Object read(Input in) { return Float.intBitsToFloat(in.readFixedInt()); }
+        },
+        DOUBLE {
+            public void write(Output out, Object value) { out.writeFixedLong(Double.doubleToLongBits((Double) value)); }
+            public Object read(Input in) { return Double.longBitsToDouble(in.readFixedLong()); }
+        },
+        STRING {
+            public void write(Output out, Object value) { BYTES.write(out, ((String) value).getBytes(StandardCharsets.UTF_8)); }
+            public Object read(Input in) { return new String((byte[]) BYTES.read(in), StandardCharsets.UTF_8); }
+        },
+        BYTES {
+            public void write(Output out, Object value) {
+                byte[] bytes = (byte[]) value;
+                out.writeVarLong(bytes.length);
+                out.writeBytes(bytes);
+            }
+            public Object read(Input in) { return in.readBytes((int) in.readVarLong()); }
+        },
+        DATE {
+            public void write(Output out, Object value) { out.writeSignedVarLong(((Date) value).getTime()); }
+            public Object read(Input in) { return new Date(in.readSignedVarLong()); }
+        },
+        CALENDAR {
+            public void write(Output out, Object value) {
+                Calendar calendar = (Calendar) value;
+                out.writeSignedVarLong(calendar.getTimeInMillis());
+                STRING.write(out, calendar.getTimeZone().getID());
+            }
+            public Object read(Input in) {
+                long millis = in.readSignedVarLong();
+                Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone((String) STRING.read(in)));
+                calendar.setTimeInMillis(millis);
+                return calendar;
+            }
+        };
+
+        private static final Map<Class<?>, Class<?>> BOXES = new LinkedHashMap<>();
+
+        static {
+            BOXES.put(Boolean.class, boolean.class);
+            BOXES.put(Byte.class, byte.class);
+            BOXES.put(Short.class, short.class);
+            BOXES.put(Character.class, char.class);
+            BOXES.put(Integer.class, int.class);
+            BOXES.put(Long.class, long.class);
+            BOXES.put(Float.class, float.class);
+            BOXES.put(Double.class, double.class);
+        }
+
+        @Override
+        public String describe() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final class IntegralFormat implements Format {
+
+        private final Class<?> type;
+
+        private IntegralFormat(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            out.writeSignedVarLong(((Number) value).longValue());
+        }
+
+        @Override
+        public Object read(Input in) {
+            long value = in.readSignedVarLong();
+            if(type == int.class) {
+                return (int) value;
+            } else if(type == long.class) {
+                return value;
+            } else if(type == short.class) {
+                return (short) value;
+            }
+            return (byte) value;
+        }
+
+        @Override
+        public String describe() {
+            return type.getName();
+        }
+    }
+
+    private static final class EnumFormat implements Format {
+
+        private final Object[] constants;
+
+        private final String description;
+
+        private EnumFormat(Class<?> type) {
+            this.constants = type.getEnumConstants();
+            this.description = type.getName() + Arrays.toString(constants);
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            out.writeVarLong(((Enum<?>) value).ordinal());
+        }
+
+        @Override
+        public Object read(Input in) {
+            int ordinal = (int) in.readVarLong();
+            if(ordinal >= constants.length) {
+                throw new IllegalArgumentException(format("Unknown ordinal %d of %s", ordinal, description));
+            }
+            return constants[ordinal];
+        }
+
+        @Override
+        public String describe() {
+            return description;
+        }
+    }
+
+    private static final class CollectionFormat implements Format {
+
+        private final Supplier<Collection<Object>> factory;
+
+        private final Format element;
+
+        private CollectionFormat(Supplier<Collection<Object>> factory, Format element) {
+            this.factory = factory;
+            this.element = element;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            Collection<?> collection = (Collection<?>) value;
+            out.writeVarLong(collection.size());
+            for(Object item : collection) {
+                element.write(out, item);
+            }
+        }
+
+        @Override
+        public Object read(Input in) {
+            int size = (int) in.readVarLong();
+            Collection<Object> collection = factory.get();
+            for(int i = 0; i < size; i++) {
+                collection.add(element.read(in));
+            }
+            return collection;
+        }
+
+        @Override
+        public String describe() {
+            return "[" + element.describe() + "]";
+        }
+    }
+
+    private static final class MapFormat implements Format {
+
+        private final Format key;
+
+        private final Format value;
+
+        private MapFormat(Format key, Format value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public void write(Output out, Object map) {
+            Map<?, ?> entries = (Map<?, ?>) map;
+            out.writeVarLong(entries.size());
+            for(Map.Entry<?, ?> entry : entries.entrySet()) {
+                key.write(out, entry.getKey());
+                value.write(out, entry.getValue());
+            }
+        }
+
+        @Override
+        public Object read(Input in) {
+            int size = (int) in.readVarLong();
+            Map<Object, Object> map = new LinkedHashMap<>();
+            for(int i = 0; i < size; i++) {
+                map.put(key.read(in), value.read(in));
+            }
+            return map;
+        }
+
+        @Override
+        public String describe() {
+            return "{" + key.describe() + ":" + value.describe() + "}";
+        }
+    }
+
+    /**
+     * Writes the fields of a class, superclass fields first and then by name.
+     */
+    private static final class ObjectFormat implements Format {
+
+        private final Class<?> type;
+
+        private final Supplier<Object> instantiator;
+
+        private final List<Field> fields = new ArrayList<>();
+
+        private final List<Format> formats = new ArrayList<>();
+
+        private ObjectFormat(Class<?> type) {
+            this.type = type;
+            this.instantiator = instantiator(type);
+        }
+
+        /**
+         * Resolves field formats after this format is registered, so that models
+         * referring to themselves are supported.
+         */
+        private void resolve(Map<Class<?>, ObjectFormat> objects) {
+            List<Class<?>> hierarchy = new ArrayList<>();
+            for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                hierarchy.add(0, c);
+            }
+
+            for(Class<?> c : hierarchy) {
+                Field[] declared = c.getDeclaredFields();
+                Arrays.sort(declared, Comparator.comparing(Field::getName));
+                for(Field field : declared) {
+                    int modifiers = field.getModifiers();
+                    if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                    formats.add(formatOf(field.getGenericType(), objects));
+                }
+            }
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            try {
+                for(int i = 0; i < fields.size(); i++) {
+                    formats.get(i).write(out, fields.get(i).get(value));
+                }
+            } catch(IllegalAccessException iae) {
+                throw new RuntimeException(iae);
+            }
+        }
+
+        @Override
+        public Object read(Input in) {
+            Object value = instantiator.get();
+            try {
+                for(int i = 0; i < fields.size(); i++) {
+                    fields.get(i).set(value, formats.get(i).read(in));
+                }
+            } catch(IllegalAccessException iae) {
+                throw new RuntimeException(iae);
+            }
+            return value;
+        }
+
+        @Override
+        public String describe() {
+            return type.getName();
+        }
+
+        private String describeFields() {
+            StringBuilder description = new StringBuilder(type.getName()).append('{');
+            for(int i = 0; i < fields.size(); i++) {
+                description.append(fields.get(i).getName()).append(':').append(formats.get(i).describe()).append(';');
+            }
+            return description.append('}').toString();
+        }
+
+        private static Supplier<Object> instantiator(Class<?> type) {
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return () -> {
+                    try {
+                        return constructor.newInstance();
+                    } catch(ReflectiveOperationException roe) {
+                        throw new RuntimeException(roe);
+                    }
+                };
+            } catch(NoSuchMethodException nsme) {
+                return unsafeInstantiator(type);
+            }
+        }
+
+        private static Supplier<Object> unsafeInstantiator(Class<?> type) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                Object unsafe = theUnsafe.get(null);
+                Method allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+                return () -> {
+                    try {
+                        return allocateInstance.invoke(unsafe, type);
+                    } catch(ReflectiveOperationException roe) {
+                        throw new RuntimeException(roe);
+                    }
+                };
+            } catch(ReflectiveOperationException roe) {
+                throw new IllegalArgumentException(format("%s codec requires a no-arg constructor in %s",
+                        NAME, type.getName()), roe);
+            }
+        }
+    }
+
+    private static final class Output {
+
+        private byte[] buffer = new byte[64];
+
+        private int size;
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarLong(long value) {
+            while((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeFixedInt(int value) {
+            for(int shift = 24; shift >= 0; shift -= 8) {
+                writeByte(value >>> shift);
+            }
+        }
+
+        void writeFixedLong(long value) {
+            writeFixedInt((int) (value >>> 32));
+            writeFixedInt((int) value);
+        }
+
+        private void ensureCapacity(int length) {
+            if(size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] buffer;
+
+        private int position;
+
+        private Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            require(1);
+            return buffer[position++];
+        }
+
+        byte[] readBytes(int length) {
+            require(length);
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in payload");
+        }
+
+        long readSignedVarLong() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readFixedInt() {
+            int value = 0;
+            for(int i = 0; i < 4; i++) {
+                value = (value << 8) | (readByte() & 0xFF);
+            }
+            return value;
+        }
+
+        long readFixedLong() {
+            return ((long) readFixedInt() << 32) | (readFixedInt() & 0xFFFFFFFFL);
+        }
+
+        boolean hasRemaining() {
+            return position < buffer.length;
+        }
+
+        private void require(int length) {
+            if(length < 0 || buffer.length - position < length) {
+                throw new IllegalArgumentException("Payload is truncated");
+            }
+        }
+    }
+}
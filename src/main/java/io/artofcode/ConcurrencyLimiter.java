@@ -0,0 +1,46 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+/**
+ * Bounds the number of jobs a QueueProcessor has in flight. A permit is acquired
+ * before a job is handed to the executor and released once the job is acknowledged
+ * or rejected, along with how long that took and whether it succeeded.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+interface ConcurrencyLimiter {
+
+    /**
+     * Blocks until another job may be started.
+     */
+    void acquire() throws InterruptedException;
+
+    /**
+     * Returns the permit of a finished job.
+     *
+     * @param latencyNanos time from the dispatch of the job to its outcome
+     * @param success false if the job was rejected
+     */
+    void release(long latencyNanos, boolean success);
+
+    /**
+     * @return current maximum number of jobs in flight
+     */
+    int getLimit();
+}
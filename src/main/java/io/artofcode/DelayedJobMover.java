@@ -0,0 +1,152 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Promotes retried and scheduled jobs from the delayed set of a queue to the queue once
+ * they are due. Due jobs are moved in bulk, up to PROMOTE_LIMIT per round trip. A run
+ * makes at most MAX_BATCHES_PER_RUN round trips and leaves the rest of a larger backlog
+ * to the next run, scheduled right away, so it does not hold up the other tasks of a
+ * shared scheduler. Otherwise the mover sleeps until the next delayed job becomes due,
+ * bounded by MIN_DELAY and SCHEDULE_POLL_INTERVAL (50ms unless configured), so it
+ * neither spins against Redis nor keeps due jobs waiting long. The upper bound is what
+ * makes a job scheduled by another process, due sooner than the job the mover is
+ * sleeping for, visible on time. While no job is delayed at all the sleep doubles after
+ * every run up to 1s, so the delayed set of an idle queue costs one command a second.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class DelayedJobMover implements AutoCloseable {
+
+    private static final int PROMOTE_LIMIT = 500;
+
+    private static final long MIN_DELAY = 10L;
+
+    private static final long DEFAULT_MAX_DELAY = 50L;
+
+    private static final long MAX_IDLE_DELAY = 1000L;
+
+    private static final int MAX_BATCHES_PER_RUN = 20;
+
+    private final String queue;
+
+    private final QueueBackend backend;
+
+    private final long maxDelay;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final boolean ownsScheduler;
+
+    private volatile ScheduledFuture<?> next;
+
+    private volatile boolean isClosed = false;
+
+    // Sleep after a run which found no delayed job, only touched by the scheduler
+    private long idleDelay;
+
+    private final Logger logger = Logger.getLogger(DelayedJobMover.class.toString());
+
+    DelayedJobMover(String queue) {
+        this(queue, null);
+    }
+
+    /**
+     * @param scheduler runs the mover and is left running on close, null to run the mover
+     *                  on a thread of its own
+     */
+    DelayedJobMover(String queue, ScheduledExecutorService scheduler) {
+        this.queue = queue;
+        this.backend = QueueBackend.forQueue(queue);
+        this.maxDelay = Math.max(MIN_DELAY, ConfigurationManager.getInstance()
+                .getDuration(queue, "SCHEDULE_POLL_INTERVAL", DEFAULT_MAX_DELAY));
+        this.ownsScheduler = scheduler == null;
+        this.scheduler = scheduler != null ? scheduler : Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, format("jeeves-delayed-%s", queue));
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.idleDelay = maxDelay;
+        this.next = this.scheduler.schedule(this::promote, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    private void promote() {
+        long delay = maxDelay;
+        try {
+            long[] promoted;
+            long moved = 0L;
+            int batches = 0;
+            do {
+                long now = System.currentTimeMillis();
+                promoted = backend.promoteDueJobs(now, PROMOTE_LIMIT);
+                moved += promoted[0];
+                batches++;
+                if(promoted[1] >= 0) {
+                    delay = Math.min(maxDelay, Math.max(MIN_DELAY, promoted[1] - now));
+                }
+            } while(promoted[0] == PROMOTE_LIMIT && batches < MAX_BATCHES_PER_RUN && !isClosed);
+
+            if(promoted[0] == PROMOTE_LIMIT) {
+                // Let other tasks of the scheduler run before carrying on
+                delay = 0L;
+                idleDelay = maxDelay;
+            } else if(moved == 0L && promoted[1] < 0) {
+                delay = idleDelay;
+                idleDelay = Math.min(MAX_IDLE_DELAY, Math.max(maxDelay, idleDelay * 2));
+            } else {
+                idleDelay = maxDelay;
+            }
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to promote delayed jobs of %s", queue), ex);
+        }
+
+        try {
+            if(!isClosed) {
+                next = scheduler.schedule(this::promote, delay, TimeUnit.MILLISECONDS);
+            }
+        } catch(RejectedExecutionException ree) {
+            // Mover is closed
+        }
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        next.cancel(false);
+        if(ownsScheduler) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(10L, TimeUnit.SECONDS);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        backend.close();
+    }
+}
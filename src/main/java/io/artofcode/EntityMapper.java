@@ -17,19 +17,81 @@ limitations under the License.
 package io.artofcode;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parses job payloads into model objects. Reflection and type adapter discovery happen
+ * once per model class, when its mapper is created, and mappers are cached per model
+ * by {@link #forModel(Class)}. Parsing then streams the payload straight through the
+ * prebuilt TypeAdapter without building an intermediate tree.
+ *
+ * Mappers are thread safe.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
 class EntityMapper<T> {
 
-    private final Gson gson;
+    private static final Gson gson = new Gson();
+
+    private static final ConcurrentMap<Class<?>, EntityMapper<?>> mappers = new ConcurrentHashMap<>();
+
+    private final TypeAdapter<T> adapter;
 
     private final Class<T> typeOf;
 
     public EntityMapper(Class<T> typeOf) {
-        gson = new Gson();
+        this.adapter = gson.getAdapter(typeOf);
         this.typeOf = typeOf;
     }
-    
+
+    /**
+     * @return the cached mapper of model, created on first use
+     */
+    @SuppressWarnings("unchecked")
+    static <T> EntityMapper<T> forModel(Class<T> model) {
+        return (EntityMapper<T>) mappers.computeIfAbsent(model, EntityMapper::new);
+    }
+
+    /**
+     * Parses json the way {@code Gson.fromJson(String, Class)} does: leniently, returning
+     * null for empty input and rejecting trailing content.
+     */
     public T parse(String json) {
-        return gson.fromJson(json, typeOf);
+        if(json == null) {
+            return null;
+        }
+
+        boolean isEmpty = true;
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            reader.peek();
+            isEmpty = false;
+
+            T entity = adapter.read(reader);
+            if(reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+            return entity;
+        } catch(EOFException eofe) {
+            if(isEmpty) {
+                return null;
+            }
+            throw new JsonSyntaxException(String.format("Unable to parse %s", typeOf.getName()), eofe);
+        } catch(IOException | IllegalStateException ex) {
+            throw new JsonSyntaxException(String.format("Unable to parse %s", typeOf.getName()), ex);
+        }
+    }
+
+    public String toJson(T entity) {
+        return gson.toJson(entity, typeOf);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Allows a fixed number of jobs in flight.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class FixedConcurrencyLimiter implements ConcurrencyLimiter {
+
+    private final int limit;
+
+    private final Semaphore semaphore;
+
+    FixedConcurrencyLimiter(int limit) {
+        this.limit = Math.max(1, limit);
+        this.semaphore = new Semaphore(this.limit, true);
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        semaphore.acquire();
+    }
+
+    @Override
+    public void release(long latencyNanos, boolean success) {
+        semaphore.release();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,418 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import io.artofcode.state.StatePersistenceManager;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal, in the state directory, of the jobs a worker claimed and of the
+ * ones it finished. Enabled with JOURNAL=true in the queue's configuration.
+ *
+ * When the worker starts again after a crash the journal is reconciled with the queue
+ * before anything is claimed: jobs which were finished, but whose acknowledgement had not
+ * reached the queue yet, are acknowledged instead of being processed a second time, and
+ * jobs which were claimed but not finished are returned to the queue. Only the jobs named
+ * by the journal are touched, the in-process queue is not scanned.
+ *
+ * Records are appended by a writer thread which commits everything recorded since the
+ * last commit with one write and one fsync every JOURNAL_COMMIT_INTERVAL (10ms unless
+ * configured), so recording a job costs the worker no I/O. A crash loses at most the
+ * records of the last interval, whose jobs are then recovered the way they are without a
+ * journal. Once the journal outgrows JOURNAL_SEGMENT_SIZE (64MB unless configured) it is
+ * replaced by one holding the unfinished claims only. Every record carries a CRC32 so a
+ * torn last write is detected and ignored.
+ *
+ * Reconciling passes the jobs read back from the journal to the backend, which must hence
+ * keep in-process jobs across restarts and find them by content, see
+ * {@link QueueBackend#supportsJournal()}. Of the bundled backends only Redis does.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class InFlightJournal implements AutoCloseable {
+
+    private static final byte CLAIMED = 1;
+
+    private static final byte FINISHED = 2;
+
+    private static final long DEFAULT_COMMIT_INTERVAL = 10L;
+
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final int RECONCILE_BATCH = 1000;
+
+    private final String queue;
+
+    private final String inProcessQueue;
+
+    private final Path path;
+
+    private final long segmentSize;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Jobs are tracked by identity, the same array is handed from claim to acknowledgement
+    private final Map<byte[], Long> sequenceOf = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private final Map<Long, byte[]> unfinished = new ConcurrentHashMap<>();
+
+    private final Queue<Record> pending = new ConcurrentLinkedQueue<>();
+
+    // Only touched by the writer thread
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel channel;
+
+    private final ScheduledExecutorService writer;
+
+    private final ScheduledFuture<?> committing;
+
+    private final Logger logger = Logger.getLogger(InFlightJournal.class.toString());
+
+    /**
+     * Reconciles the journal left by the previous run of the worker with backend and
+     * starts a new one.
+     *
+     * @throws RuntimeException if backend does not support a journal
+     */
+    InFlightJournal(String queue, String inProcessQueue, QueueBackend backend) {
+        if(!backend.supportsJournal()) {
+            throw new RuntimeException(format("JOURNAL is not supported by the backend of queue %s, which cannot " +
+                    "acknowledge jobs read back from a journal", queue));
+        }
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        this.queue = queue;
+        this.inProcessQueue = inProcessQueue;
+        this.path = StatePersistenceManager.getInstance()
+                .getStatePath(format("%s.journal", inProcessQueue.replace(':', '_')));
+        this.segmentSize = Math.max(1, config.getInt(queue, "JOURNAL_SEGMENT_SIZE", DEFAULT_SEGMENT_SIZE));
+        long commitInterval = Math.max(1L, config.getDuration(queue, "JOURNAL_COMMIT_INTERVAL", DEFAULT_COMMIT_INTERVAL));
+
+        reconcile(backend);
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch(IOException ioe) {
+            throw new RuntimeException(format("Unable to open journal %s", path), ioe);
+        }
+
+        this.writer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, format("jeeves-journal-%s", queue));
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.committing = writer.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the journal of the worker owning inProcessQueue, or null unless JOURNAL is
+     *         enabled for queue
+     */
+    static InFlightJournal open(String queue, String inProcessQueue, QueueBackend backend) {
+        String enabled = ConfigurationManager.getInstance().get(queue).get("JOURNAL");
+        return "true".equalsIgnoreCase(enabled) ? new InFlightJournal(queue, inProcessQueue, backend) : null;
+    }
+
+    void claimed(Collection<byte[]> jobs) {
+        for(byte[] job : jobs) {
+            long seq = sequence.incrementAndGet();
+            sequenceOf.put(job, seq);
+            unfinished.put(seq, job);
+            pending.add(new Record(CLAIMED, seq, job));
+        }
+    }
+
+    void finished(byte[] job) {
+        Long seq = sequenceOf.remove(job);
+        if(seq != null) {
+            unfinished.remove(seq);
+            pending.add(new Record(FINISHED, seq, null));
+        }
+    }
+
+    /**
+     * Stops tracking a job which left the worker without being finished, e.g. because it
+     * failed. Its claim stays unfinished in the journal, so after a crash it is returned to
+     * the queue unless it already left the in-process queue.
+     */
+    void forget(byte[] job) {
+        Long seq = sequenceOf.remove(job);
+        if(seq != null) {
+            unfinished.remove(seq);
+        }
+    }
+
+    private void commit() {
+        try {
+            Record record;
+            boolean written = false;
+            while((record = pending.poll()) != null) {
+                append(channel, record.type, record.seq, record.job);
+                written = true;
+            }
+            if(written) {
+                drain(channel);
+                channel.force(false);
+            }
+            if(channel.size() > segmentSize) {
+                rotate();
+            }
+        } catch(IOException ioe) {
+            logger.log(Level.SEVERE, format("Unable to write journal %s", path), ioe);
+        }
+    }
+
+    /**
+     * Replaces the journal by one holding the claims which are not finished yet.
+     */
+    private void rotate() throws IOException {
+        Path next = path.resolveSibling(path.getFileName() + ".next");
+        try(FileChannel rotated = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for(Map.Entry<Long, byte[]> claim : unfinished.entrySet()) {
+                append(rotated, CLAIMED, claim.getKey(), claim.getValue());
+            }
+            drain(rotated);
+            rotated.force(false);
+        }
+        Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void append(FileChannel target, byte type, long seq, byte[] job) throws IOException {
+        int size = 1 + 8 + (job != null ? 4 + job.length : 0) + 4;
+        if(buffer.remaining() < size) {
+            drain(target);
+        }
+        ByteBuffer destination = size <= buffer.capacity() ? buffer : ByteBuffer.allocate(size);
+
+        int start = destination.position();
+        destination.put(type).putLong(seq);
+        if(job != null) {
+            destination.putInt(job.length).put(job);
+        }
+        ByteBuffer record = destination.duplicate();
+        record.position(start);
+        record.limit(destination.position());
+        crc.reset();
+        crc.update(record);
+        destination.putInt((int) crc.getValue());
+
+        if(destination != buffer) {
+            destination.flip();
+            while(destination.hasRemaining()) {
+                target.write(destination);
+            }
+        }
+    }
+
+    private void drain(FileChannel target) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void reconcile(QueueBackend backend) {
+        Claims claims;
+        try {
+            claims = read(path);
+        } catch(IOException ioe) {
+            logger.log(Level.SEVERE, format("Unable to read journal %s, its jobs are recovered from %s",
+                    path, inProcessQueue), ioe);
+            return;
+        }
+        if(claims.finished.isEmpty() && claims.unfinished.isEmpty()) {
+            return;
+        }
+
+        try {
+            for(List<byte[]> batch : batches(claims.finished)) {
+                backend.ack(inProcessQueue, batch);
+            }
+            // Unfinished jobs are delivered again as if never claimed, ahead of the queue
+            int returned = 0;
+            for(List<byte[]> batch : batches(claims.unfinished)) {
+                returned += backend.requeue(inProcessQueue, batch);
+            }
+            logger.info(format("Journal of %s acknowledged %d finished jobs and returned %d unfinished jobs to queue %s",
+                    inProcessQueue, claims.finished.size(), returned, queue));
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to reconcile journal %s, its jobs are recovered from %s",
+                    path, inProcessQueue), ex);
+        }
+    }
+
+    private static List<List<byte[]>> batches(List<byte[]> jobs) {
+        List<List<byte[]>> batches = new ArrayList<>();
+        for(int from = 0; from < jobs.size(); from += RECONCILE_BATCH) {
+            batches.add(jobs.subList(from, Math.min(jobs.size(), from + RECONCILE_BATCH)));
+        }
+        return batches;
+    }
+
+    /**
+     * Reads the claims recorded in the journal at path, up to the first record which is
+     * incomplete or corrupt.
+     */
+    static Claims read(Path path) throws IOException {
+        Map<Long, byte[]> claimed = new LinkedHashMap<>();
+        List<byte[]> finished = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while(true) {
+                byte type = in.readByte();
+                long seq = in.readLong();
+                byte[] job = null;
+
+                crc.reset();
+                crc.update(type);
+                crc.update(ByteBuffer.allocate(8).putLong(0, seq).array());
+                if(type == CLAIMED) {
+                    int length = in.readInt();
+                    if(length < 0) {
+                        break;
+                    }
+                    job = new byte[length];
+                    in.readFully(job);
+                    crc.update(ByteBuffer.allocate(4).putInt(0, length).array());
+                    crc.update(job);
+                } else if(type != FINISHED) {
+                    break;
+                }
+                if(in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+
+                if(type == CLAIMED) {
+                    claimed.put(seq, job);
+                } else {
+                    byte[] finishedJob = claimed.remove(seq);
+                    if(finishedJob != null) {
+                        finished.add(finishedJob);
+                    }
+                }
+            }
+        } catch(EOFException | NoSuchFileException ex) {
+            // End of the journal, or no journal
+        }
+        return new Claims(finished, new ArrayList<>(claimed.values()));
+    }
+
+    /**
+     * @return path of the journal
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Commits what was recorded so far and closes the journal, keeping only the claims
+     * which are not finished. Acknowledgements must have been flushed to the queue by then.
+     */
+    @Override
+    public void close() {
+        committing.cancel(false);
+        try {
+            writer.submit(() -> {
+                commit();
+                rotate();
+                return null;
+            }).get();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException ee) {
+            logger.log(Level.SEVERE, format("Unable to write journal %s", path), ee);
+        }
+        writer.shutdown();
+        try {
+            channel.close();
+        } catch(IOException ioe) {
+            logger.log(Level.WARNING, format("Unable to close journal %s", path), ioe);
+        }
+    }
+
+    /**
+     * Jobs of a journal which were finished and the ones which were not, in the order they
+     * were claimed.
+     */
+    static final class Claims {
+
+        final List<byte[]> finished;
+
+        final List<byte[]> unfinished;
+
+        private Claims(List<byte[]> finished, List<byte[]> unfinished) {
+            this.finished = finished;
+            this.unfinished = unfinished;
+        }
+    }
+
+    private static final class Record {
+
+        private final byte type;
+
+        private final long seq;
+
+        private final byte[] job;
+
+        private Record(byte type, long seq, byte[] job) {
+            this.type = type;
+            this.seq = seq;
+            this.job = job;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A backend which keeps queues in the JVM, for single node deployments which need jobs
+ * handed from producer to worker in microseconds and for load tests without Redis.
+ * Enabled with BACKEND=memory in the queue's configuration. Producers and workers of a
+ * queue share its state as long as they run in the same JVM, nothing survives a restart.
+ *
+ * All state is held in lock-free structures: queued jobs in a LinkedTransferQueue, which
+ * hands a job straight to a worker blocked in claim(), in-process jobs in concurrent sets
+ * and leases and delayed jobs in skip lists ordered by deadline. The job history is
+ * kept in a skip list of buckets from which expired buckets are dropped as a whole. Jobs returned to the
+ * queue by the reaper or promoted from the delayed jobs are delivered before queued
+ * jobs, as they are by Redis.
+ *
+ * Jobs are tracked by identity, acknowledgements must pass the very arrays returned by
+ * claim(), as workers do.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public class InMemoryQueueBackend implements QueueBackend {
+
+    private static final long POLL_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50L);
+
+    private static final ConcurrentMap<String, InMemoryQueueBackend> backends = new ConcurrentHashMap<>();
+
+    private final String queue;
+
+    private final LinkedTransferQueue<byte[]> queued = new LinkedTransferQueue<>();
+
+    private final ConcurrentLinkedDeque<byte[]> redelivered = new ConcurrentLinkedDeque<>();
+
+    private final ConcurrentMap<String, Set<byte[]>> inProcess = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<byte[], Lease> leases = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<Lease, Boolean> leasesByDeadline = new ConcurrentSkipListMap<>();
+
+    private final ConcurrentSkipListMap<Lease, Boolean> delayed = new ConcurrentSkipListMap<>();
+
+    private final ConcurrentLinkedDeque<byte[]> failed = new ConcurrentLinkedDeque<>();
+
+    private final AtomicLong workerIds = new AtomicLong();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder claimedJobs = new LongAdder();
+
+    private final LongAdder succeeded = new LongAdder();
+
+    private final LongAdder retried = new LongAdder();
+
+    private final LongAdder failedJobs = new LongAdder();
+
+    private final LongAdder expiredLeases = new LongAdder();
+
+    private final ConcurrentSkipListMap<Long, HistoryBucket> history = new ConcurrentSkipListMap<>();
+
+    InMemoryQueueBackend(String queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * @return the backend holding queue in this JVM, created on first use
+     */
+    public static InMemoryQueueBackend forQueue(String queue) {
+        return backends.computeIfAbsent(queue, InMemoryQueueBackend::new);
+    }
+
+    @Override
+    public void enqueue(Collection<byte[]> jobs) {
+        queued.addAll(jobs);
+        submitted.add(jobs.size());
+    }
+
+    @Override
+    public List<byte[]> claim(String destination, int batchSize, int timeout, long leaseDeadline) {
+        List<byte[]> jobs = new ArrayList<>(Math.min(batchSize, 64));
+        byte[] job;
+        while(jobs.size() < batchSize && (job = next()) != null) {
+            jobs.add(job);
+        }
+        if(jobs.isEmpty() && (job = await(TimeUnit.SECONDS.toNanos(timeout))) != null) {
+            jobs.add(job);
+        }
+
+        Set<byte[]> claimed = inProcessQueue(destination);
+        for(byte[] claimedJob : jobs) {
+            claimed.add(claimedJob);
+            Lease lease = new Lease(destination, claimedJob, leaseDeadline, sequence.incrementAndGet());
+            leases.put(claimedJob, lease);
+            leasesByDeadline.put(lease, Boolean.TRUE);
+        }
+        claimedJobs.add(jobs.size());
+        return jobs;
+    }
+
+    private byte[] next() {
+        byte[] job = redelivered.pollFirst();
+        return job != null ? job : queued.poll();
+    }
+
+    /**
+     * Waits for the next job. Jobs arriving in the queue wake the worker immediately while
+     * redelivered jobs are noticed within POLL_SLICE_NANOS.
+     */
+    private byte[] await(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        try {
+            for(long remaining = timeoutNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+                byte[] job = redelivered.pollFirst();
+                if(job == null) {
+                    job = queued.poll(Math.min(remaining, POLL_SLICE_NANOS), TimeUnit.NANOSECONDS);
+                }
+                if(job != null) {
+                    return job;
+                }
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    @Override
+    public void extendLeases(String inProcessQueue, Collection<byte[]> jobs, long leaseDeadline) {
+        for(byte[] job : jobs) {
+            Lease current = leases.get(job);
+            if(current == null) {
+                continue;
+            }
+            Lease extended = new Lease(inProcessQueue, job, leaseDeadline, sequence.incrementAndGet());
+            // Loses against a concurrent ack or reap, which removed the lease meanwhile
+            if(leases.replace(job, current, extended)) {
+                leasesByDeadline.put(extended, Boolean.TRUE);
+            }
+            leasesByDeadline.remove(current);
+        }
+    }
+
+    @Override
+    public int reapExpiredLeases(long now, int limit) {
+        int expired = 0;
+        while(expired < limit) {
+            Map.Entry<Lease, Boolean> first = leasesByDeadline.firstEntry();
+            if(first == null || first.getKey().deadline > now) {
+                break;
+            }
+            Lease lease = first.getKey();
+            leasesByDeadline.remove(lease);
+            if(leases.remove(lease.job, lease)) {
+                expired++;
+                expiredLeases.increment();
+                if(inProcessQueue(lease.inProcessQueue).remove(lease.job)) {
+                    redelivered.addFirst(lease.job);
+                }
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public void ack(String inProcessQueue, Collection<byte[]> jobs) {
+        Set<byte[]> claimed = inProcessQueue(inProcessQueue);
+        for(byte[] job : jobs) {
+            release(job);
+            if(claimed.remove(job)) {
+                succeeded.increment();
+            }
+        }
+    }
+
+    @Override
+    public void fail(String inProcessQueue, Collection<byte[]> jobs) {
+        Set<byte[]> claimed = inProcessQueue(inProcessQueue);
+        for(byte[] job : jobs) {
+            release(job);
+            if(claimed.remove(job)) {
+                failed.addFirst(job);
+                failedJobs.increment();
+            }
+        }
+    }
+
+    @Override
+    public void retry(String inProcessQueue, Collection<Retry> retries) {
+        Set<byte[]> claimed = inProcessQueue(inProcessQueue);
+        for(Retry retry : retries) {
+            release(retry.getJob());
+            if(claimed.remove(retry.getJob())) {
+                Lease due = new Lease(inProcessQueue, retry.getNextAttempt(), retry.getDueAt(), sequence.incrementAndGet());
+                delayed.put(due, Boolean.TRUE);
+                retried.increment();
+            }
+        }
+    }
+
+    @Override
+    public int requeue(String inProcessQueue, Collection<byte[]> jobs) {
+        Set<byte[]> claimed = inProcessQueue(inProcessQueue);
+        List<byte[]> returned = new ArrayList<>(jobs);
+        Collections.reverse(returned);
+        int requeued = 0;
+        for(byte[] job : returned) {
+            release(job);
+            if(claimed.remove(job)) {
+                redelivered.addFirst(job);
+                requeued++;
+            }
+        }
+        return requeued;
+    }
+
+    @Override
+    public void schedule(Collection<byte[]> jobs, long dueAt) {
+        for(byte[] job : jobs) {
+            delayed.put(new Lease(queue, job, dueAt, sequence.incrementAndGet()), Boolean.TRUE);
+            submitted.increment();
+        }
+    }
+
+    @Override
+    public long[] promoteDueJobs(long now, int limit) {
+        int promoted = 0;
+        Map.Entry<Lease, Boolean> first;
+        while((first = delayed.firstEntry()) != null && first.getKey().deadline <= now && promoted < limit) {
+            if(delayed.remove(first.getKey()) != null) {
+                redelivered.addFirst(first.getKey().job);
+                promoted++;
+            }
+        }
+        return new long[] { promoted, first == null ? -1L : first.getKey().deadline };
+    }
+
+    @Override
+    public void appendHistory(Collection<JobEvent> events, long bucketMillis, long retentionMillis, int bucketLimit) {
+        long expiredBefore = System.currentTimeMillis() - bucketMillis - retentionMillis;
+        history.headMap(expiredBefore, true).clear();
+
+        for(JobEvent event : events) {
+            long start = JobHistory.bucketStart(event.getTimestamp(), bucketMillis);
+            if(start <= expiredBefore) {
+                continue;
+            }
+            HistoryBucket bucket = history.computeIfAbsent(start, (key) -> new HistoryBucket());
+            if(bucket.events.add(event) && bucket.size.incrementAndGet() > bucketLimit
+                    && bucket.events.pollFirst() != null) {
+                bucket.size.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public List<JobEvent> readHistory(long from, long to, int offset, int limit, long bucketMillis) {
+        List<JobEvent> page = new ArrayList<>();
+        if(from > to) {
+            return page;
+        }
+        int skip = offset;
+        Map<Long, HistoryBucket> buckets = history.subMap(JobHistory.bucketStart(from, bucketMillis), true,
+                JobHistory.bucketStart(to, bucketMillis), true);
+        for(HistoryBucket bucket : buckets.values()) {
+            for(JobEvent event : bucket.events) {
+                if(event.getTimestamp() < from) {
+                    continue;
+                } else if(event.getTimestamp() > to || page.size() >= limit) {
+                    return page;
+                } else if(skip > 0) {
+                    skip--;
+                } else {
+                    page.add(event);
+                }
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public long createWorkerId() {
+        return workerIds.incrementAndGet();
+    }
+
+    @Override
+    public QueueStats getStats() {
+        Map<String, Long> counters = new HashMap<>();
+        counters.put("submitted", submitted.sum());
+        counters.put("claimed", claimedJobs.sum());
+        counters.put("succeeded", succeeded.sum());
+        counters.put("retried", retried.sum());
+        counters.put("failed", failedJobs.sum());
+        counters.put("expired", expiredLeases.sum());
+        return new QueueStats(queue, getQueueLength(), leases.size(), delayed.size(), counters);
+    }
+
+    /**
+     * @return number of jobs waiting to be claimed
+     */
+    public int getQueueLength() {
+        return queued.size() + redelivered.size();
+    }
+
+    /**
+     * @return jobs which could not be processed, most recently failed first
+     */
+    public List<byte[]> getFailedJobs() {
+        return new ArrayList<>(failed);
+    }
+
+    /**
+     * @return number of jobs delayed until their next attempt
+     */
+    public int getDelayedCount() {
+        return delayed.size();
+    }
+
+    /**
+     * State is shared by everyone using the queue in this JVM, hence closing a backend
+     * leaves it intact.
+     */
+    @Override
+    public void close() {
+
+    }
+
+    private Set<byte[]> inProcessQueue(String name) {
+        Set<byte[]> claimed = inProcess.get(name);
+        return claimed != null ? claimed : inProcess.computeIfAbsent(name, (key) -> ConcurrentHashMap.newKeySet());
+    }
+
+    private void release(byte[] job) {
+        Lease lease = leases.remove(job);
+        if(lease != null) {
+            leasesByDeadline.remove(lease);
+        }
+    }
+
+    /**
+     * Events of the history which happened within the span of one bucket.
+     */
+    private static final class HistoryBucket {
+
+        private final ConcurrentSkipListSet<JobEvent> events = new ConcurrentSkipListSet<>();
+
+        private final AtomicInteger size = new AtomicInteger();
+    }
+
+    /**
+     * A job due at deadline, ordered by deadline and then by creation.
+     */
+    private static final class Lease implements Comparable<Lease> {
+
+        private final String inProcessQueue;
+
+        private final byte[] job;
+
+        private final long deadline;
+
+        private final long sequence;
+
+        private Lease(String inProcessQueue, byte[] job, long deadline, long sequence) {
+            this.inProcessQueue = inProcessQueue;
+            this.job = job;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Lease other) {
+            int byDeadline = Long.compare(deadline, other.deadline);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Returns jobs left in the in-process queue of a worker by its previous run to the queue
+ * when the worker starts. A worker keeps its id across restarts, so jobs it held when it
+ * crashed are still in its in-process queue and would otherwise wait for their leases to
+ * expire, or forever if they were claimed before leases existed.
+ *
+ * RECOVERY_MODE of the queue's configuration picks how:
+ * <ul>
+ *     <li>requeue (default) returns the jobs in batches of RECOVERY_BATCH (1000 unless
+ *     configured), one round trip each, before the worker claims any job.</li>
+ *     <li>background moves the whole in-process queue aside in constant time and returns
+ *     its jobs in batches from a background thread while the worker already claims new
+ *     ones, for in-process queues of hundreds of thousands of jobs.</li>
+ *     <li>off leaves the jobs to expire.</li>
+ * </ul>
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class InProcessRecovery implements AutoCloseable {
+
+    private static final int DEFAULT_BATCH = 1000;
+
+    private static final long RETRY_DELAY = 1000L;
+
+    private final String queue;
+
+    private final String inProcessQueue;
+
+    private final QueueBackend backend;
+
+    private final String mode;
+
+    private final int batchSize;
+
+    private ScheduledExecutorService scheduler;
+
+    private final boolean ownsScheduler;
+
+    private ScheduledFuture<?> next;
+
+    private volatile boolean isClosed = false;
+
+    private final Logger logger = Logger.getLogger(InProcessRecovery.class.toString());
+
+    InProcessRecovery(String queue, String inProcessQueue) {
+        this(queue, inProcessQueue, null);
+    }
+
+    /**
+     * @param scheduler returns jobs in the background and is left running on close, null
+     *                  to use a thread of its own when needed
+     */
+    InProcessRecovery(String queue, String inProcessQueue, ScheduledExecutorService scheduler) {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        String configuredMode = config.get(queue).get("RECOVERY_MODE");
+
+        this.queue = queue;
+        this.inProcessQueue = inProcessQueue;
+        this.mode = configuredMode == null ? "requeue" : configuredMode.trim().toLowerCase();
+        this.batchSize = Math.max(1, config.getInt(queue, "RECOVERY_BATCH", DEFAULT_BATCH));
+        this.ownsScheduler = scheduler == null;
+        this.scheduler = scheduler;
+
+        if(!"requeue".equals(mode) && !"background".equals(mode) && !"off".equals(mode)) {
+            throw new IllegalArgumentException(format("Unknown RECOVERY_MODE %s in configuration %s", mode, queue));
+        }
+        this.backend = QueueBackend.forQueue(queue);
+    }
+
+    /**
+     * Recovers the in-process queue, returning once the worker may claim jobs.
+     */
+    void recover() {
+        if("off".equals(mode)) {
+            return;
+        }
+
+        if("requeue".equals(mode)) {
+            returnAll((limit) -> backend.recoverInProcess(inProcessQueue, limit));
+            // Left by a run which recovered in the background
+            returnAll((limit) -> backend.recoverDetached(inProcessQueue, limit));
+            return;
+        }
+
+        // Nothing is moved aside while jobs moved aside by an earlier run are still being
+        // recovered, the in-process queue is then recovered right away
+        if(!backend.detachInProcess(inProcessQueue)) {
+            returnAll((limit) -> backend.recoverInProcess(inProcessQueue, limit));
+        }
+        recoverDetachedLater(0L);
+    }
+
+    private void returnAll(IntUnaryOperator recoverBatch) {
+        long recovered = 0L;
+        try {
+            int batch;
+            do {
+                batch = recoverBatch.applyAsInt(batchSize);
+                recovered += batch;
+            } while(batch == batchSize && !isClosed);
+        } finally {
+            if(recovered > 0) {
+                logger.info(format("Returned %d jobs left in %s to queue %s", recovered, inProcessQueue, queue));
+            }
+        }
+    }
+
+    private void recoverDetached() {
+        try {
+            returnAll((limit) -> backend.recoverDetached(inProcessQueue, limit));
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to recover jobs left in %s", inProcessQueue), ex);
+            recoverDetachedLater(RETRY_DELAY);
+        }
+    }
+
+    private synchronized void recoverDetachedLater(long delay) {
+        if(isClosed) {
+            return;
+        }
+        if(scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, format("jeeves-recovery-%s", queue));
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        try {
+            next = scheduler.schedule(this::recoverDetached, delay, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException ree) {
+            // Recovery is closed
+        }
+    }
+
+    /**
+     * Stops recovering. Jobs which were not returned yet are recovered when the worker
+     * starts again.
+     */
+    @Override
+    public synchronized void close() {
+        isClosed = true;
+        if(next != null) {
+            next.cancel(false);
+        }
+        if(ownsScheduler && scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(10L, TimeUnit.SECONDS);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        backend.close();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the jobs of a queue: decodes every job with the codec which encoded it, hands it
+ * to the consumer along with its Acknowledgement and records parse and consumer times.
+ * A job which cannot be decoded or whose consumer throws is rejected. Every job releases
+ * its permit of the concurrency limiter once its outcome is reported through its
+ * Acknowledgement, which for consumers acknowledging asynchronously may be long after
+ * the consumer returned, so the limit bounds the jobs which are really in flight and
+ * the limiter learns whether each of them succeeded.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class JobDispatcher<T> {
+
+    private final Class<T> model;
+
+    private final PayloadCodec<T> codec;
+
+    private final BiConsumer<T, Acknowledgement> consumer;
+
+    private final Acknowledger acknowledger;
+
+    private final ConcurrencyLimiter limiter;
+
+    private final QueueMetrics metrics;
+
+    private final Logger logger = Logger.getLogger(JobDispatcher.class.toString());
+
+    JobDispatcher(String queue, Class<T> model, PayloadCodec<T> codec, BiConsumer<T, Acknowledgement> consumer,
+                  Acknowledger acknowledger, ConcurrencyLimiter limiter) {
+        this.model = model;
+        this.codec = codec;
+        this.consumer = consumer;
+        this.acknowledger = acknowledger;
+        this.limiter = limiter;
+        this.metrics = QueueMetrics.forQueue(queue);
+    }
+
+    /**
+     * Processes job on the calling thread, a permit of the limiter must have been acquired
+     * for it.
+     */
+    void dispatch(byte[] job) {
+        long startedAt = System.nanoTime();
+        Acknowledgement ack = acknowledger.acknowledgement(job,
+                (success) -> limiter.release(System.nanoTime() - startedAt, success));
+        try {
+            final T obj = decode(JobEnvelope.parse(job));
+            long parsedAt = System.nanoTime();
+            metrics.recordParseTime(parsedAt - startedAt);
+            consumer.accept(obj, ack);
+            metrics.recordConsumerTime(System.nanoTime() - parsedAt);
+        }
+        catch(Exception ex) {
+            logger.log(Level.SEVERE, "", ex);
+            ack.nack();
+        }
+        catch(Error error) {
+            // Rejected so that its permit is returned, the error still reaches the executor
+            ack.nack();
+            throw error;
+        }
+    }
+
+    private T decode(JobEnvelope envelope) {
+        byte[] payload = PayloadCompression.decompress(envelope.getCompression(), envelope.getPayload());
+        String name = envelope.getCodec();
+        if(name.equals(codec.getName())) {
+            return codec.decode(payload);
+        }
+        return PayloadCodecs.forName(name, model).decode(payload);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Wraps the payload of a job with metadata which has to travel with the job through
+ * the queue, such as its attempt counter. An enveloped job is encoded as the SOH control
+ * character, header entries separated by ';', a newline and then the payload verbatim:
+ * <pre>
+ *     \u0001id=1b4e28ba-2fa1-11d2-883f-0016d3cca427;attempt=2\n{"url":"https://google.com"}
+ * </pre>
+ * A payload pushed to the queue without an envelope, e.g. by a plain LPUSH, is treated
+ * as the first attempt of a job without an id. Such a job is given an id the first time
+ * it is enveloped. Header entries which are not known are preserved as is.
+ *
+ * The header is text while the payload is kept as bytes, so payloads written by any
+ * {@link PayloadCodec} pass through unchanged. The codec header names the codec of
+ * the payload, payloads without it are JSON. The compression header names the algorithm
+ * the payload was compressed with after it was encoded, if it was. The priority header
+ * names the level of jobs submitted at a priority other than NORMAL, so that the job
+ * returns to its level whenever it is redelivered.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+final class JobEnvelope {
+
+    private static final byte MARKER = 0x01;
+
+    private static final byte HEADER_END = '\n';
+
+    private static final String ID = "id";
+
+    private static final String ATTEMPT = "attempt";
+
+    private static final String CODEC = "codec";
+
+    private static final String COMPRESSION = "compression";
+
+    private static final String PRIORITY = "priority";
+
+    private final Map<String, String> headers;
+
+    private final byte[] payload;
+
+    private JobEnvelope(Map<String, String> headers, byte[] payload) {
+        this.headers = headers;
+        this.payload = payload;
+    }
+
+    /**
+     * Envelopes a new job. The codec header is left out for JSON payloads so that they
+     * look exactly like the jobs of queues which predate codecs.
+     *
+     * @param compression algorithm payload was compressed with, null if it was not
+     */
+    static JobEnvelope of(String id, String codec, String compression, byte[] payload) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(ID, id);
+        if(!JsonCodec.NAME.equals(codec)) {
+            headers.put(CODEC, codec);
+        }
+        if(compression != null) {
+            headers.put(COMPRESSION, compression);
+        }
+        return new JobEnvelope(headers, payload);
+    }
+
+    /**
+     * @return this envelope for a job submitted at priority, NORMAL jobs carry no header
+     */
+    JobEnvelope withPriority(Priority priority) {
+        if(priority == Priority.NORMAL) {
+            return this;
+        }
+        Map<String, String> prioritized = new LinkedHashMap<>(headers);
+        prioritized.put(PRIORITY, priority.name().toLowerCase());
+        return new JobEnvelope(prioritized, payload);
+    }
+
+    /**
+     * Decodes a job as stored in Redis. Malformed envelopes are treated as plain payloads.
+     */
+    static JobEnvelope parse(byte[] raw) {
+        int headerEnd = indexOf(raw, HEADER_END);
+        if(raw.length == 0 || raw[0] != MARKER || headerEnd < 0) {
+            return new JobEnvelope(Collections.emptyMap(), raw);
+        }
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        String header = new String(raw, 1, headerEnd - 1, StandardCharsets.UTF_8);
+        for(String entry : header.split(";")) {
+            int separator = entry.indexOf('=');
+            if(separator > 0) {
+                headers.put(entry.substring(0, separator), entry.substring(separator + 1));
+            }
+        }
+        return new JobEnvelope(headers, Arrays.copyOfRange(raw, headerEnd + 1, raw.length));
+    }
+
+    private static int indexOf(byte[] raw, byte value) {
+        for(int i = 0; i < raw.length; i++) {
+            if(raw[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return id of the job or null if the job was never enveloped
+     */
+    String getId() {
+        return headers.get(ID);
+    }
+
+    /**
+     * @return 1 based number of the delivery attempt
+     * @throws NumberFormatException if the attempt header is corrupt
+     */
+    int getAttempt() {
+        String attempt = headers.get(ATTEMPT);
+        return attempt == null ? 1 : Integer.parseInt(attempt);
+    }
+
+    /**
+     * @return name of the codec which encoded the payload
+     */
+    String getCodec() {
+        String codec = headers.get(CODEC);
+        return codec == null ? JsonCodec.NAME : codec;
+    }
+
+    /**
+     * @return algorithm the payload is compressed with or null if it is not compressed
+     */
+    String getCompression() {
+        return headers.get(COMPRESSION);
+    }
+
+    /**
+     * @return priority the job was submitted at, NORMAL if the header is missing or unknown
+     */
+    Priority getPriority() {
+        String priority = headers.get(PRIORITY);
+        for(Priority level : Priority.values()) {
+            if(level.name().equalsIgnoreCase(priority)) {
+                return level;
+            }
+        }
+        return Priority.NORMAL;
+    }
+
+    /**
+     * @return payload as stored, still compressed if it was compressed
+     */
+    byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return envelope for the next delivery attempt of this job
+     */
+    JobEnvelope nextAttempt() {
+        Map<String, String> next = new LinkedHashMap<>(headers);
+        if(!next.containsKey(ID)) {
+            next.put(ID, UUID.randomUUID().toString());
+        }
+        next.put(ATTEMPT, Integer.toString(getAttempt() + 1));
+        return new JobEnvelope(next, payload);
+    }
+
+    /**
+     * @return this job encoded for storage in Redis
+     */
+    byte[] encode() {
+        if(headers.isEmpty()) {
+            return payload;
+        }
+
+        StringBuilder header = new StringBuilder(64);
+        for(Map.Entry<String, String> entry : headers.entrySet()) {
+            if(header.length() > 0) {
+                header.append(';');
+            }
+            header.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+
+        byte[] encodedHeader = header.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] raw = new byte[encodedHeader.length + payload.length + 2];
+        raw[0] = MARKER;
+        System.arraycopy(encodedHeader, 0, raw, 1, encodedHeader.length);
+        raw[encodedHeader.length + 1] = HEADER_END;
+        System.arraycopy(payload, 0, raw, encodedHeader.length + 2, payload.length);
+        return raw;
+    }
+}
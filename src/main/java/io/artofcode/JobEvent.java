@@ -0,0 +1,129 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+/**
+ * An entry of the {@link JobHistory} of a queue.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public final class JobEvent implements Comparable<JobEvent> {
+
+    public enum Type { SUBMITTED, STARTED, FINISHED, FAILED }
+
+    private static final char SEPARATOR = '|';
+
+    private final Type type;
+
+    private final long timestamp;
+
+    private final String jobId;
+
+    private final int attempt;
+
+    private final long durationMillis;
+
+    /**
+     * @param jobId id of the job, null if the job has none
+     * @param durationMillis time from start to finish of the attempt, -1 for events other
+     *                       than FINISHED and FAILED
+     */
+    JobEvent(Type type, long timestamp, String jobId, int attempt, long durationMillis) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.jobId = jobId == null ? "" : jobId;
+        this.attempt = attempt;
+        this.durationMillis = durationMillis;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return epoch millis at which the event happened
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return id of the job, empty for jobs pushed to the queue without an envelope
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * @return 1 based number of the delivery attempt
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return time the attempt took from start to finish, -1 for events other than FINISHED and FAILED
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return this event as stored in the history
+     */
+    String encode() {
+        return new StringBuilder(64).append(type.ordinal()).append(SEPARATOR)
+                .append(timestamp).append(SEPARATOR)
+                .append(attempt).append(SEPARATOR)
+                .append(durationMillis).append(SEPARATOR)
+                .append(jobId).toString();
+    }
+
+    static JobEvent decode(String encoded) {
+        String[] fields = encoded.split("\\|", 5);
+        if(fields.length != 5) {
+            throw new IllegalArgumentException(String.format("Malformed job event %s", encoded));
+        }
+        return new JobEvent(Type.values()[Integer.parseInt(fields[0])], Long.parseLong(fields[1]), fields[4],
+                Integer.parseInt(fields[2]), Long.parseLong(fields[3]));
+    }
+
+    /**
+     * Events are ordered by time and then by their encoded form, the way Redis orders
+     * members of a sorted set with equal scores.
+     */
+    @Override
+    public int compareTo(JobEvent other) {
+        int byTime = Long.compare(timestamp, other.timestamp);
+        return byTime != 0 ? byTime : encode().compareTo(other.encode());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof JobEvent && encode().equals(((JobEvent) other).encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s attempt %d at %d", type, jobId, attempt, timestamp);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * History of the jobs of a queue: when each job was submitted, when each of its attempts
+ * started and when it finished or failed. The history is kept for HISTORY_RETENTION of
+ * the queue's configuration and is disabled unless that is set.
+ *
+ * Events are written to buckets spanning HISTORY_BUCKET (1h unless configured) of time
+ * and a bucket expires as a whole once the retention has passed after its end, so the
+ * history never needs a cleanup sweep. A bucket holds at most HISTORY_BUCKET_LIMIT events
+ * (1000000 unless configured), the oldest are dropped beyond that, hence the size of the
+ * history is bounded whatever the rate of jobs.
+ *
+ * Events are recorded without blocking and written to the backend in batches by a
+ * background thread. If the backend falls behind then events beyond the buffer are
+ * dropped rather than slowing down processing.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public class JobHistory {
+
+    private static final long DEFAULT_BUCKET = TimeUnit.HOURS.toMillis(1L);
+
+    private static final int DEFAULT_BUCKET_LIMIT = 1000000;
+
+    private static final int MAX_PENDING = 100000;
+
+    private static final long FLUSH_INTERVAL = 100L;
+
+    private static final ConcurrentMap<String, JobHistory> histories = new ConcurrentHashMap<>();
+
+    private final String queue;
+
+    private final long retention;
+
+    private final long bucket;
+
+    private final int bucketLimit;
+
+    private final QueueBackend backend;
+
+    private final Queue<JobEvent> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Logger logger = Logger.getLogger(JobHistory.class.toString());
+
+    private JobHistory(String queue) {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        this.queue = queue;
+        this.retention = config.getDuration(queue, "HISTORY_RETENTION", 0L);
+        this.bucket = Math.max(1L, config.getDuration(queue, "HISTORY_BUCKET", DEFAULT_BUCKET));
+        this.bucketLimit = Math.max(1, config.getInt(queue, "HISTORY_BUCKET_LIMIT", DEFAULT_BUCKET_LIMIT));
+        this.backend = isEnabled() ? QueueBackend.forQueue(queue) : null;
+
+        if(isEnabled()) {
+            ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, format("jeeves-history-%s", queue));
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the history of queue, created on first use
+     */
+    public static JobHistory forQueue(String queue) {
+        return histories.computeIfAbsent(queue, JobHistory::new);
+    }
+
+    /**
+     * @return whether HISTORY_RETENTION is configured for the queue
+     */
+    public boolean isEnabled() {
+        return retention > 0;
+    }
+
+    /**
+     * @return how long events are kept in milliseconds, 0 if the history is disabled
+     */
+    public long getRetentionMillis() {
+        return retention;
+    }
+
+    /**
+     * Reads a page of the events which happened between from and to, both inclusive, in
+     * the order they happened. The next page starts at offset plus the size of this one.
+     * Ranges may be open ended, to is capped at the bucket following the current one.
+     *
+     * @param from epoch millis of the earliest event to read
+     * @param to epoch millis of the latest event to read, e.g. Long.MAX_VALUE
+     * @param offset number of events in the range to skip
+     * @param limit maximum number of events returned
+     * @return events in the range, empty if the history is disabled
+     */
+    public List<JobEvent> read(long from, long to, int offset, int limit) {
+        if(!isEnabled() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // Buckets older than that have expired and later ones are not written yet, there
+        // is no point in looking them up
+        long now = System.currentTimeMillis();
+        long oldest = bucketStart(now - retention, bucket) - bucket;
+        long latest = Math.min(to, now + bucket);
+        if(Math.max(from, oldest) > latest) {
+            return Collections.emptyList();
+        }
+        return backend.readHistory(Math.max(from, oldest), latest, Math.max(0, offset), limit, bucket);
+    }
+
+    /**
+     * Records an event of job, the envelope is only parsed if the history is enabled. Never
+     * throws, a job whose attempt header is corrupt is recorded with attempt -1.
+     *
+     * @param durationMillis time the attempt took, -1 for events other than FINISHED and FAILED
+     */
+    void record(JobEvent.Type type, byte[] job, long durationMillis) {
+        if(isEnabled()) {
+            JobEnvelope envelope = JobEnvelope.parse(job);
+            int attempt;
+            try {
+                attempt = envelope.getAttempt();
+            }
+            catch(NumberFormatException ex) {
+                attempt = -1;
+            }
+            record(new JobEvent(type, System.currentTimeMillis(), envelope.getId(), attempt, durationMillis));
+        }
+    }
+
+    void record(JobEvent event) {
+        if(!isEnabled()) {
+            return;
+        }
+        if(pendingCount.incrementAndGet() > MAX_PENDING) {
+            pendingCount.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        pending.add(event);
+    }
+
+    /**
+     * Writes all pending events to the backend. Events which could not be written are
+     * dropped, the history is best effort and must not hold up processing.
+     */
+    synchronized void flush() {
+        if(!isEnabled()) {
+            return;
+        }
+
+        List<JobEvent> events = new ArrayList<>();
+        JobEvent event;
+        while((event = pending.poll()) != null) {
+            events.add(event);
+        }
+        pendingCount.addAndGet(-events.size());
+
+        long lost = dropped.sumThenReset();
+        if(lost > 0) {
+            logger.warning(format("Dropped %d events of the history of %s, history is written slower than jobs are processed",
+                    lost, queue));
+        }
+        if(events.isEmpty()) {
+            return;
+        }
+
+        try {
+            backend.appendHistory(events, bucket, retention, bucketLimit);
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to write %d events to the history of %s", events.size(), queue), ex);
+        }
+    }
+
+    /**
+     * @return epoch millis at which the bucket holding timestamp starts
+     */
+    static long bucketStart(long timestamp, long bucketMillis) {
+        return timestamp - Math.floorMod(timestamp, bucketMillis);
+    }
+}
@@ -16,32 +16,94 @@ limitations under the License.
 
 package io.artofcode;
 
+import static java.lang.String.*;
+
 import io.artofcode.state.WorkerState;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This class exposes an Iterable which which fetches available jobs from the queue.
- * It is guaranteed that no two workers will fetch the same job ever.
+ * It is guaranteed that no two workers will fetch the same job ever. Jobs left in the
+ * in-process queue by the previous run of the worker are recovered before any job is
+ * fetched, see {@link InProcessRecovery}.
+ *
+ * With a prefetch of n a background thread keeps claiming jobs into a buffer of n jobs
+ * while the ones handed out earlier are processed, so a worker which frees up finds its
+ * next job waiting instead of waiting for a round trip. The thread stops claiming while
+ * the buffer is full, hence a worker holds at most n jobs besides the ones it processes
+ * (plus the rest of a claimed batch). Buffered jobs stay leased to the worker.
  *
  * @author Neeraj Shah
  * @since 0.1
  */
-class JobPoller implements Iterable<String> {
+class JobPoller implements Iterable<byte[]>, AutoCloseable {
 
     private final String queue;
 
     private final JobPollerIterator jobIterator;
 
     public JobPoller(String queue) {
+        this(queue, null);
+    }
+
+    /**
+     * @param priorityWeights weights of HIGH, NORMAL and LOW jobs, null to fetch NORMAL jobs only
+     */
+    public JobPoller(String queue, int[] priorityWeights) {
+        this(queue, priorityWeights, 0);
+    }
+
+    /**
+     * @param priorityWeights weights of HIGH, NORMAL and LOW jobs, null to fetch NORMAL jobs only
+     * @param prefetch number of jobs claimed ahead of demand, 0 to claim jobs only when asked for
+     */
+    public JobPoller(String queue, int[] priorityWeights, int prefetch) {
+        this(queue, priorityWeights, prefetch, -1);
+    }
+
+    /**
+     * @param priorityWeights weights of HIGH, NORMAL and LOW jobs, null to fetch NORMAL jobs only
+     * @param prefetch number of jobs claimed ahead of demand, 0 to claim jobs only when asked for
+     * @param slot worker slot of the poller on this host, -1 for the lowest free slot
+     */
+    public JobPoller(String queue, int[] priorityWeights, int prefetch, int slot) {
         this.queue = queue;
-        this.jobIterator = new JobPollerIterator();
+        this.jobIterator = new JobPollerIterator(priorityWeights, prefetch, slot);
     }
 
     @Override
-    public Iterator<String> iterator() {
+    public Iterator<byte[]> iterator() {
         return jobIterator;
     }
 
+    /**
+     * @return name of the in-process queue to which this poller moves fetched jobs
+     */
+    public String getInprocessQueue() {
+        return jobIterator.inProcessQueue;
+    }
+
+    /**
+     * @return LeaseKeeper holding the leases of jobs fetched by this poller
+     */
+    public LeaseKeeper getLeaseKeeper() {
+        return jobIterator.leases;
+    }
+
+    /**
+     * @return slot of this worker on the host, see {@link WorkerState}
+     */
+    public int getSlot() {
+        return jobIterator.state.getSlot();
+    }
+
     /**
      * This method will be usually called from an external Thread to notify the
      * poller to stop polling gracefully. The poller may not stop immediately and
@@ -50,32 +112,166 @@ class JobPoller implements Iterable<String> {
     public synchronized void stopPolling() {
         jobIterator.stopPolling();
     }
+
+    /**
+     * Returns the jobs which were fetched but not handed out to the queue. Must be called
+     * once polling has stopped and no more jobs are fetched from this poller.
+     *
+     * @param undispatched a job which was handed out but will not be processed, or null
+     */
+    public void handBack(byte[] undispatched) {
+        jobIterator.handBack(undispatched);
+    }
+
+    /**
+     * Stops the heart beat and recovery of this worker and releases its slot. Must be
+     * called once the jobs fetched from this poller are acknowledged.
+     */
+    @Override
+    public void close() {
+        jobIterator.leases.close();
+        jobIterator.recovery.close();
+        jobIterator.state.close();
+    }
    
-    private class JobPollerIterator implements Iterator<String> {
+    private class JobPollerIterator implements Iterator<byte[]> {
+
+        private static final long PREFETCH_TIMEOUT = 100L;
+
+        private static final long PREFETCH_JOIN_TIMEOUT = 15000L;
+
+        private static final long PREFETCH_ERROR_BACKOFF = 1000L;
 
         private final long workerId;
 
         private final WorkerState state;
 
+        private final String inProcessQueue;
+
+        private final LeaseKeeper leases;
+
         private final QueuedJobRetriever retriver;
 
-        private JobPollerIterator() {
-            this.state = new WorkerState(queue);
+        private final InProcessRecovery recovery;
+
+        private final BlockingQueue<byte[]> prefetched;
+
+        private final Logger logger = Logger.getLogger(JobPoller.class.toString());
+
+        private Thread prefetcher;
+
+        // Job claimed by the prefetcher after polling stopped, which did not fit the buffer
+        private volatile byte[] unbuffered;
+
+        private volatile boolean isPolling = true;
+
+        private JobPollerIterator(int[] priorityWeights, int prefetch, int slot) {
+            this.state = slot < 0 ? WorkerState.acquire(queue) : WorkerState.acquire(queue, slot);
             this.workerId = state.getWorkerId();
-            this.retriver = new QueuedJobRetriever(queue, state.getInprocessQueueName(workerId));
+            this.inProcessQueue = state.getInprocessQueueName(workerId);
+            this.leases = new LeaseKeeper(queue, inProcessQueue);
+            this.recovery = new InProcessRecovery(queue, inProcessQueue);
+            recovery.recover();
+            this.retriver = new QueuedJobRetriever(queue, inProcessQueue, leases, priorityWeights);
+            this.prefetched = prefetch > 0 ? new ArrayBlockingQueue<>(prefetch) : null;
         }
 
         @Override
         public boolean hasNext() { return true; }
 
+        /**
+         * @return next job, or null once polling has stopped
+         */
         @Override
-        public String next() {
-            return retriver.retrieveNext();
+        public byte[] next() {
+            if(prefetched == null) {
+                return retriver.retrieveNext();
+            }
+
+            startPrefetching();
+            try {
+                byte[] job = null;
+                while(job == null && isPolling) {
+                    job = prefetched.poll(PREFETCH_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+                return job;
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        private synchronized void startPrefetching() {
+            if(prefetcher != null) {
+                return;
+            }
+            prefetcher = new Thread(this::prefetch, format("jeeves-prefetch-%s", queue));
+            prefetcher.setDaemon(true);
+            prefetcher.start();
+        }
+
+        private void prefetch() {
+            try {
+                while(isPolling) {
+                    byte[] job;
+                    try {
+                        job = retriver.retrieveNext();
+                    } catch(Exception ex) {
+                        logger.log(Level.SEVERE, format("Prefetching of queue %s failed", queue), ex);
+                        Thread.sleep(PREFETCH_ERROR_BACKOFF);
+                        continue;
+                    }
+                    if(job == null) {
+                        return;
+                    }
+                    while(!prefetched.offer(job, PREFETCH_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        if(!isPolling) {
+                            unbuffered = job;
+                            return;
+                        }
+                    }
+                }
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
         }
 
         private synchronized void stopPolling() {
+            isPolling = false;
             retriver.stopPolling();
         }
 
+        private void handBack(byte[] undispatched) {
+            List<byte[]> jobs = new ArrayList<>();
+            if(undispatched != null) {
+                jobs.add(undispatched);
+            }
+            boolean stopped = true;
+            synchronized(this) {
+                if(prefetcher != null) {
+                    try {
+                        prefetcher.join(PREFETCH_JOIN_TIMEOUT);
+                    } catch(InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    stopped = !prefetcher.isAlive();
+                }
+            }
+            if(prefetched != null) {
+                prefetched.drainTo(jobs);
+            }
+            if(unbuffered != null) {
+                jobs.add(unbuffered);
+                unbuffered = null;
+            }
+            if(!stopped) {
+                // Still claiming, the rest of its batch is returned once the leases expire
+                logger.warning(format("Prefetching of queue %s did not stop in time", queue));
+                retriver.requeue(jobs);
+            } else {
+                retriver.handBack(jobs);
+            }
+        }
+
     }
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.ArrayList;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Submits jobs to a queue for processing by a {@link QueueProcessor}. Jobs are
+ * encoded with the codec of the queue, compressed if the queue is configured for it
+ * and enveloped with a unique id. This class is constructed via its Builder class and
+ * is thread safe.
+ *
+ * <pre>
+ *     JobSubmitter&lt;ScrapJob&gt; submitter = new JobSubmitter.Builder&lt;ScrapJob&gt;("url-crawlers")
+ *             .model(ScrapJob.class)
+ *             .build();
+ *     submitter.submit(new ScrapJob("https://google.com"));
+ * </pre>
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public class JobSubmitter<T> implements AutoCloseable {
+
+    private final QueueBackend backend;
+
+    private final PayloadCodec<T> codec;
+
+    private final PayloadCompression compression;
+
+    private final JobHistory history;
+
+    private final Function<? super T, String> routingKey;
+
+    private final String queue;
+
+    private final boolean prioritized;
+
+    private JobSubmitter(String queue, PayloadCodec<T> codec, PayloadCompression compression,
+                         Function<? super T, String> routingKey) {
+        this.backend = QueueBackend.forQueue(queue);
+        this.queue = queue;
+        this.prioritized = Priority.configuredWeights(queue) != null;
+        this.routingKey = routingKey;
+        this.history = JobHistory.forQueue(queue);
+        this.codec = codec;
+        this.compression = compression;
+    }
+
+    /**
+     * @return id of the submitted job
+     */
+    public String submit(T job) {
+        return submitAll(Collections.singletonList(job)).get(0);
+    }
+
+    /**
+     * Submits job at priority, see {@link Priority}.
+     *
+     * @return id of the submitted job
+     * @throws IllegalArgumentException if priority is not NORMAL and the queue does not
+     *         configure PRIORITY_WEIGHTS
+     */
+    public String submit(T job, Priority priority) {
+        return submitAll(Collections.singletonList(job), priority).get(0);
+    }
+
+    /**
+     * Submits jobs with a single round trip, jobs are processed in the order of the collection.
+     * With a routing key jobs are submitted with one round trip per key.
+     *
+     * @return ids of the submitted jobs in the same order
+     */
+    public List<String> submitAll(Collection<? extends T> jobs) {
+        return submitAll(jobs, Priority.NORMAL);
+    }
+
+    /**
+     * Submits jobs at priority with a single round trip, jobs of a priority other than
+     * NORMAL are not routed. Jobs of a priority other than NORMAL are only accepted by queues
+     * configuring PRIORITY_WEIGHTS, which every worker of the queue then claims them with.
+     *
+     * @return ids of the submitted jobs in the same order
+     * @throws IllegalArgumentException if priority is not NORMAL and the queue does not
+     *         configure PRIORITY_WEIGHTS
+     */
+    public List<String> submitAll(Collection<? extends T> jobs, Priority priority) {
+        if(priority != Priority.NORMAL && !prioritized) {
+            throw new IllegalArgumentException(String.format("Queue %s does not configure PRIORITY_WEIGHTS, " +
+                    "its workers would never claim jobs of priority %s", queue, priority));
+        }
+        List<String> ids = new ArrayList<>(jobs.size());
+        List<byte[]> encoded = new ArrayList<>(jobs.size());
+        Map<String, List<byte[]>> routed = new LinkedHashMap<>();
+        for(T job : jobs) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            if(routingKey == null || priority != Priority.NORMAL) {
+                encoded.add(envelope(id, job, priority));
+            } else {
+                routed.computeIfAbsent(routingKey.apply(job), (key) -> new ArrayList<>())
+                        .add(envelope(id, job, Priority.NORMAL));
+            }
+        }
+        backend.enqueue(priority, encoded);
+        routed.forEach(backend::enqueue);
+        recordSubmitted(ids);
+        return ids;
+    }
+
+    /**
+     * Submits job to be processed at runAt or as soon as possible after it, see
+     * {@link #scheduleAll(Collection, Instant)}.
+     *
+     * @return id of the scheduled job
+     */
+    public String schedule(T job, Instant runAt) {
+        return scheduleAll(Collections.singletonList(job), runAt).get(0);
+    }
+
+    /**
+     * Submits jobs with a single round trip to be processed at runAt. Jobs wait in the
+     * delayed jobs of the queue, ordered by time, without holding up any worker and are
+     * moved to the queue in batches once due, usually within SCHEDULE_POLL_INTERVAL of
+     * runAt. A time in the past makes the jobs due right away. Scheduled jobs are
+     * processed at NORMAL priority and are not routed.
+     *
+     * @return ids of the scheduled jobs in the same order
+     */
+    public List<String> scheduleAll(Collection<? extends T> jobs, Instant runAt) {
+        List<String> ids = new ArrayList<>(jobs.size());
+        List<byte[]> encoded = new ArrayList<>(jobs.size());
+        for(T job : jobs) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            encoded.add(envelope(id, job, Priority.NORMAL));
+        }
+        backend.schedule(encoded, runAt.toEpochMilli());
+        recordSubmitted(ids);
+        return ids;
+    }
+
+    private byte[] envelope(String id, T job, Priority priority) {
+        byte[] payload = codec.encode(job);
+        byte[] compressed = compression.compress(payload);
+        JobEnvelope envelope = compressed == null
+                ? JobEnvelope.of(id, codec.getName(), null, payload)
+                : JobEnvelope.of(id, codec.getName(), PayloadCompression.DEFLATE, compressed);
+        return envelope.withPriority(priority).encode();
+    }
+
+    private void recordSubmitted(List<String> ids) {
+        if(history.isEnabled()) {
+            long now = System.currentTimeMillis();
+            for(String id : ids) {
+                history.record(new JobEvent(JobEvent.Type.SUBMITTED, now, id, 1, -1L));
+            }
+        }
+    }
+
+    /**
+     * Writes pending history of the submitted jobs.
+     */
+    @Override
+    public void close() {
+        history.flush();
+        backend.close();
+    }
+
+    /**
+     * Builder class responsible for creating object of class JobSubmitter.
+     */
+    public static class Builder<T> {
+
+        private final String queue;
+
+        private Class<T> model;
+
+        private PayloadCodec<T> codec;
+
+        private PayloadCompression compression;
+
+        private Function<? super T, String> routingKey;
+
+        public Builder(String queue) {
+            this.queue = queue;
+        }
+
+        public Builder<T> model(Class<T> model) {
+            this.model = model;
+            return this;
+        }
+
+        /**
+         * Encodes jobs with codec. Defaults to the codec named by CODEC of the queue's
+         * configuration, or to json if it is not configured.
+         */
+        public Builder<T> codec(PayloadCodec<T> codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * Compresses payloads larger than threshold bytes. Defaults to COMPRESSION and
+         * COMPRESSION_THRESHOLD of the queue's configuration.
+         */
+        public Builder<T> compressAbove(int threshold) {
+            this.compression = new PayloadCompression(threshold);
+            return this;
+        }
+
+        /**
+         * Routes every job by the key routingKey returns for it. Jobs with the same key
+         * go to the same shard of a sharded queue and are processed in the order they
+         * were submitted, unrouted jobs are spread over the shards round-robin. Queues
+         * which are not sharded ignore the key.
+         */
+        public Builder<T> routingKey(Function<? super T, String> routingKey) {
+            this.routingKey = routingKey;
+            return this;
+        }
+
+        public JobSubmitter<T> build() {
+            if(codec == null) {
+                if(model == null)
+                    throw new RuntimeException("Mapping entity is required via a call to model() method of the Builder object.");
+                codec = PayloadCodecs.forQueue(queue, model);
+            }
+            if(compression == null) {
+                compression = PayloadCompression.forQueue(queue);
+            }
+            return new JobSubmitter<>(queue, codec, compression, routingKey);
+        }
+    }
+}
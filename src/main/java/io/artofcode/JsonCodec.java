@@ -0,0 +1,51 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes jobs as UTF-8 JSON through Gson. This is the default codec and the format
+ * of jobs pushed to a queue by producers outside of Jeeves.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public final class JsonCodec<T> implements PayloadCodec<T> {
+
+    public static final String NAME = "json";
+
+    private final EntityMapper<T> mapper;
+
+    public JsonCodec(Class<T> model) {
+        this.mapper = EntityMapper.forModel(model);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(T job) {
+        return mapper.toJson(job).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public T decode(byte[] payload) {
+        return mapper.parse(new String(payload, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies with power of two buckets, from nanoseconds up to centuries.
+ * Every bucket is a LongAdder, so threads recording concurrently update separate cells
+ * instead of contending on one counter. Percentiles are reported as the upper bound of
+ * the bucket they fall in, hence they overestimate by less than a factor of two.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    LatencyHistogram() {
+        for(int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        long latency = Math.max(0L, nanos);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(latency)].increment();
+        total.add(latency);
+        max.accumulate(latency);
+    }
+
+    /**
+     * @return approximate view of the latencies recorded so far, recording may go on meanwhile
+     */
+    LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+
+        long maxNanos = max.get();
+        return new LatencySnapshot(count,
+                count == 0 ? 0.0 : millis(total.sum()) / count,
+                millis(percentile(counts, count, 0.50, maxNanos)),
+                millis(percentile(counts, count, 0.90, maxNanos)),
+                millis(percentile(counts, count, 0.99, maxNanos)),
+                millis(maxNanos));
+    }
+
+    private static long percentile(long[] counts, long count, double quantile, long maxNanos) {
+        long rank = (long) Math.ceil(count * quantile);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank && seen > 0) {
+                long upperBound = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, maxNanos);
+            }
+        }
+        return 0L;
+    }
+
+    private static double millis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1L);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the visibility timeout leases of a worker's in-process jobs alive. Every
+ * claimed job is leased for LEASE_TIMEOUT (three HEART_BEATs unless configured). Once
+ * every HEART_BEAT the leases of all jobs still held by this worker are extended with
+ * a single command and jobs whose lease expired, on any worker of the queue, are
+ * returned to the queue. A worker which hangs or dies therefore stops extending its
+ * leases and its jobs are picked up by the remaining workers.
+ *
+ * The heart beat also records the worker as alive in the registry of the queue's
+ * workers, on which the {@link OrphanReclaimer} run by the keeper finds the in-process
+ * queues of workers which are gone. With JOURNAL enabled the keeper also records the
+ * claimed and finished jobs of the worker in its {@link InFlightJournal}.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class LeaseKeeper implements AutoCloseable {
+
+    private static final long DEFAULT_HEART_BEAT = 5000L;
+
+    private static final int REAP_LIMIT = 100;
+
+    private final String queue;
+
+    private final String inProcessQueue;
+
+    private final long leaseTimeout;
+
+    private final QueueBackend backend;
+
+    // Jobs are tracked by identity, the same array is handed from claim to acknowledgement
+    private final Set<byte[]> leased = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService heartBeat;
+
+    private final boolean ownsHeartBeat;
+
+    private final ScheduledFuture<?> beating;
+
+    private final OrphanReclaimer reclaimer;
+
+    private final InFlightJournal journal;
+
+    private final Logger logger = Logger.getLogger(LeaseKeeper.class.toString());
+
+    LeaseKeeper(String queue, String inProcessQueue) {
+        this(queue, inProcessQueue, null);
+    }
+
+    /**
+     * @param scheduler runs the heart beat and is left running on close, null to run the
+     *                  heart beat on a thread of its own
+     */
+    LeaseKeeper(String queue, String inProcessQueue, ScheduledExecutorService scheduler) {
+        this.queue = queue;
+        this.inProcessQueue = inProcessQueue;
+        this.backend = QueueBackend.forQueue(queue);
+        this.journal = InFlightJournal.open(queue, inProcessQueue, backend);
+
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        long interval = Math.max(1L, config.getDuration(queue, "HEART_BEAT", DEFAULT_HEART_BEAT));
+        this.leaseTimeout = Math.max(interval, config.getDuration(queue, "LEASE_TIMEOUT", 3 * interval));
+
+        this.ownsHeartBeat = scheduler == null;
+        this.heartBeat = scheduler != null ? scheduler : Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, format("jeeves-heartbeat-%s", queue));
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Registered before any job is claimed, so that a restarted worker is not taken for dead
+        register();
+        this.beating = this.heartBeat.scheduleWithFixedDelay(this::beat, interval, interval, TimeUnit.MILLISECONDS);
+        this.reclaimer = new OrphanReclaimer(queue, inProcessQueue, backend, leaseTimeout, heartBeat, interval);
+    }
+
+    /**
+     * @return epoch millis until which a job claimed now is leased
+     */
+    long nextDeadline() {
+        return System.currentTimeMillis() + leaseTimeout;
+    }
+
+    /**
+     * Starts extending the leases of jobs claimed by this worker.
+     */
+    void track(Collection<byte[]> jobs) {
+        leased.addAll(jobs);
+        if(journal != null) {
+            journal.claimed(jobs);
+        }
+    }
+
+    /**
+     * Stops extending the lease of a job which was processed successfully.
+     */
+    void complete(byte[] job) {
+        if(journal != null) {
+            journal.finished(job);
+        }
+        leased.remove(job);
+    }
+
+    /**
+     * Stops extending the lease of a job, e.g. because it failed or is handed back.
+     */
+    void release(byte[] job) {
+        leased.remove(job);
+        if(journal != null) {
+            journal.forget(job);
+        }
+    }
+
+    private void register() {
+        try {
+            backend.heartbeat(inProcessQueue, System.currentTimeMillis());
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to register %s as alive", inProcessQueue), ex);
+        }
+    }
+
+    private void beat() {
+        register();
+        try {
+            backend.extendLeases(inProcessQueue, new ArrayList<>(leased), nextDeadline());
+
+            long now = System.currentTimeMillis();
+            int reaped;
+            do {
+                reaped = backend.reapExpiredLeases(now, REAP_LIMIT);
+                if(reaped > 0) {
+                    logger.info(format("Returned %d jobs with expired leases to queue %s", reaped, queue));
+                }
+            } while(reaped == REAP_LIMIT);
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Heart beat of %s failed", inProcessQueue), ex);
+        }
+    }
+
+    /**
+     * Stops the heart beat. Leases of jobs which are still held expire after
+     * LEASE_TIMEOUT and those jobs are then returned to the queue by other workers.
+     */
+    @Override
+    public void close() {
+        reclaimer.close();
+        beating.cancel(false);
+        if(journal != null) {
+            journal.close();
+        }
+        if(ownsHeartBeat) {
+            heartBeat.shutdown();
+            try {
+                heartBeat.awaitTermination(10L, TimeUnit.SECONDS);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        backend.close();
+    }
+}
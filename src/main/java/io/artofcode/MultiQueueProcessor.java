@@ -0,0 +1,378 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import io.artofcode.state.WorkerState;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Processes jobs of many queues with a single polling loop, one executor and one
+ * concurrency limit, for services which consume more queues than it is worth giving
+ * each its own {@link QueueProcessor}. This class is constructed via its Builder class.
+ *
+ * <pre>
+ *     MultiQueueProcessor processor = new MultiQueueProcessor.Builder()
+ *             .queue("url-crawlers", ScrapJob.class, crawler::crawl, 4)
+ *             .queue("recrawls", ScrapJob.class, crawler::crawl, 1)
+ *             .build();
+ *     processor.start();
+ * </pre>
+ *
+ * Queues are visited in turn and each visit claims up to weight times BATCH_SIZE jobs of
+ * the queue in a single round trip, so while queues are busy they share the workers in
+ * proportion to their weights. Claims never block, a queue found empty is not polled
+ * again for a while, starting at 10ms and doubling up to 1s while it stays empty, and no
+ * connection is held waiting for jobs. Heart beats, acknowledgement flushes and delayed
+ * job promotion of all queues run on one shared scheduler. An idle queue costs a claim
+ * and a check of its delayed jobs a second, both of which back off the same way, plus a
+ * heart beat and a sweep of expired leases every HEART_BEAT. Acknowledgements are only
+ * flushed while some are pending.
+ *
+ * @author Neeraj Shah
+ * @see QueueProcessor
+ * @since 0.1
+ */
+public class MultiQueueProcessor implements AutoCloseable {
+
+    private static final long MIN_IDLE_DELAY = 10L;
+
+    private static final long MAX_IDLE_DELAY = 1000L;
+
+    private static final int DEFAULT_BATCH_SIZE = 1;
+
+    private static final int SCHEDULER_THREADS = 2;
+
+    private final List<Subscription<?>> subscriptions;
+
+    private final ExecutorService executor;
+
+    private final ConcurrencyLimiter limiter;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean isClosed = false;
+
+    private final Logger logger = Logger.getLogger(MultiQueueProcessor.class.toString());
+
+    private MultiQueueProcessor(List<Registration<?>> registrations, ExecutorService executor, int maxConcurrency) {
+        this.executor = executor;
+        this.limiter = new FixedConcurrencyLimiter(maxConcurrency);
+        this.scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, (runnable) -> {
+            Thread thread = new Thread(runnable, "jeeves-multi-queue-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.subscriptions = new ArrayList<>(registrations.size());
+        for(Registration<?> registration : registrations) {
+            subscriptions.add(registration.subscribe(limiter, scheduler));
+        }
+    }
+
+    /**
+     * Polls the queues and dispatches their jobs to the executor until close() is called.
+     * Blocks the calling thread, which does all the polling.
+     */
+    public void start() {
+        logger.info(format("Starting processing of %d queues", subscriptions.size()));
+        try {
+            int first = 0;
+            while(!isClosed) {
+                long now = System.currentTimeMillis();
+                boolean claimed = false;
+                for(int i = 0; i < subscriptions.size() && !isClosed; i++) {
+                    Subscription<?> subscription = subscriptions.get((first + i) % subscriptions.size());
+                    if(subscription.nextPollAt <= now) {
+                        claimed |= poll(subscription, now);
+                    }
+                }
+                // The next round starts with another queue, so no queue always goes first
+                first = (first + 1) % subscriptions.size();
+
+                if(!claimed && !isClosed) {
+                    sleepUntilNextPoll();
+                }
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * @return whether any job was claimed from the queue
+     */
+    private boolean poll(Subscription<?> subscription, long now) throws InterruptedException {
+        List<byte[]> jobs;
+        try {
+            jobs = subscription.claim();
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to poll queue %s", subscription.queue), ex);
+            subscription.backOff(now);
+            return false;
+        }
+
+        if(jobs.isEmpty()) {
+            subscription.backOff(now);
+            return false;
+        }
+        subscription.idleDelay = 0L;
+        for(byte[] job : jobs) {
+            long waitingSince = System.nanoTime();
+            limiter.acquire();
+            subscription.metrics.recordConcurrencyWait(System.nanoTime() - waitingSince);
+            executor.execute(() -> subscription.dispatcher.dispatch(job));
+        }
+        return true;
+    }
+
+    private void sleepUntilNextPoll() throws InterruptedException {
+        long nextPollAt = Long.MAX_VALUE;
+        for(Subscription<?> subscription : subscriptions) {
+            nextPollAt = Math.min(nextPollAt, subscription.nextPollAt);
+        }
+        long delay = nextPollAt - System.currentTimeMillis();
+        if(delay > 0) {
+            Thread.sleep(Math.min(delay, MAX_IDLE_DELAY));
+        }
+    }
+
+    /**
+     * Stops polling. Jobs which are being processed are allowed to complete before
+     * start() returns.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+    }
+
+    private void shutdown() {
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(60L, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        for(Subscription<?> subscription : subscriptions) {
+            subscription.close();
+        }
+        scheduler.shutdown();
+    }
+
+    /**
+     * A queue processed by this processor along with the components which keep track of
+     * its jobs.
+     */
+    private static final class Subscription<T> implements AutoCloseable {
+
+        private final String queue;
+
+        private final int weight;
+
+        private final int batchSize;
+
+        private final String inProcessQueue;
+
+        private final WorkerState state;
+
+        private final QueueBackend backend;
+
+        private final LeaseKeeper leases;
+
+        private final Acknowledger acknowledger;
+
+        private final DelayedJobMover delayedJobMover;
+
+        private final InProcessRecovery recovery;
+
+        private final QueueMetrics metrics;
+
+        private final JobDispatcher<T> dispatcher;
+
+        // Only touched by the polling thread
+        private long nextPollAt;
+
+        private long idleDelay;
+
+        private Subscription(Registration<T> registration, ConcurrencyLimiter limiter,
+                             ScheduledExecutorService scheduler) {
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            this.state = WorkerState.acquire(registration.queue);
+            this.queue = registration.queue;
+            this.weight = registration.weight;
+            this.batchSize = Math.max(1, config.getInt(queue, "BATCH_SIZE", DEFAULT_BATCH_SIZE));
+            this.inProcessQueue = state.getInprocessQueueName(state.getWorkerId());
+            this.backend = QueueBackend.forQueue(queue);
+            this.metrics = QueueMetrics.forQueue(queue);
+            this.leases = new LeaseKeeper(queue, inProcessQueue, scheduler);
+            this.acknowledger = new Acknowledger(queue, inProcessQueue, leases,
+                    QueueProcessor.retryPolicy(queue, config.getInt(queue, "NUM_RETRIES", 0)), scheduler);
+            this.delayedJobMover = new DelayedJobMover(queue, scheduler);
+            this.recovery = new InProcessRecovery(queue, inProcessQueue, scheduler);
+            recovery.recover();
+            this.dispatcher = new JobDispatcher<>(queue, registration.model,
+                    PayloadCodecs.forQueue(queue, registration.model), registration.consumer, acknowledger, limiter);
+        }
+
+        /**
+         * Claims up to weight times BATCH_SIZE jobs without waiting for jobs to arrive.
+         */
+        private List<byte[]> claim() {
+            long startedAt = System.nanoTime();
+            List<byte[]> jobs = backend.claim(inProcessQueue, weight * batchSize, 0, leases.nextDeadline());
+            metrics.onClaimed(jobs.size(), System.nanoTime() - startedAt);
+            leases.track(jobs);
+            return jobs;
+        }
+
+        private void backOff(long now) {
+            idleDelay = idleDelay == 0L ? MIN_IDLE_DELAY : Math.min(MAX_IDLE_DELAY, idleDelay * 2);
+            nextPollAt = now + idleDelay;
+        }
+
+        @Override
+        public void close() {
+            acknowledger.close();
+            leases.close();
+            delayedJobMover.close();
+            recovery.close();
+            backend.close();
+            state.close();
+        }
+    }
+
+    /**
+     * A queue registered with the Builder.
+     */
+    private static final class Registration<T> {
+
+        private final String queue;
+
+        private final Class<T> model;
+
+        private final BiConsumer<T, Acknowledgement> consumer;
+
+        private final int weight;
+
+        private Registration(String queue, Class<T> model, BiConsumer<T, Acknowledgement> consumer, int weight) {
+            this.queue = queue;
+            this.model = model;
+            this.consumer = consumer;
+            this.weight = weight;
+        }
+
+        private Subscription<T> subscribe(ConcurrencyLimiter limiter, ScheduledExecutorService scheduler) {
+            return new Subscription<>(this, limiter, scheduler);
+        }
+    }
+
+    /**
+     * Builder class responsible for creating object of class MultiQueueProcessor.
+     */
+    public static class Builder {
+
+        private static final int DEFAULT_CONCURRENCY = 4;
+
+        private final List<Registration<?>> registrations = new ArrayList<>();
+
+        private ExecutorService executor;
+
+        private int maxConcurrency;
+
+        /**
+         * Processes jobs of queue with consumer, acknowledging every job once the consumer
+         * returns and rejecting it if the consumer throws.
+         *
+         * @param weight share of the workers the queue gets while other queues are busy too
+         */
+        public <T> Builder queue(String queue, Class<T> model, Consumer<T> consumer, int weight) {
+            return acknowledgingQueue(queue, model, (job, ack) -> {
+                consumer.accept(job);
+                ack.ack();
+            }, weight);
+        }
+
+        /**
+         * Processes jobs of queue with a consumer which reports the outcome of every job
+         * through its Acknowledgement.
+         *
+         * @param weight share of the workers the queue gets while other queues are busy too
+         */
+        public <T> Builder acknowledgingQueue(String queue, Class<T> model, BiConsumer<T, Acknowledgement> consumer,
+                                              int weight) {
+            if(model == null) {
+                throw new RuntimeException(format("Mapping entity of queue %s is required", queue));
+            }
+            if(weight < 1) {
+                throw new IllegalArgumentException(format("Weight of queue %s must be at least 1, got %d", queue, weight));
+            }
+            registrations.add(new Registration<>(queue, model, consumer, weight));
+            return this;
+        }
+
+        /**
+         * Jobs of all queues are processed in executor, a work stealing pool of 4 threads
+         * unless specified.
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Processes at most maxConcurrency jobs at a time across all queues. Defaults to
+         * the size of the executor.
+         */
+        public Builder concurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public MultiQueueProcessor build() {
+            if(registrations.isEmpty())
+                throw new RuntimeException("At least one queue is required via a call to queue() method of the Builder object.");
+            if(executor == null) executor = Executors.newWorkStealingPool(DEFAULT_CONCURRENCY);
+            if(maxConcurrency <= 0) maxConcurrency = executorSize();
+            return new MultiQueueProcessor(registrations, executor, maxConcurrency);
+        }
+
+        private int executorSize() {
+            if(executor instanceof ThreadPoolExecutor) {
+                int poolSize = ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+                return poolSize == Integer.MAX_VALUE ? DEFAULT_CONCURRENCY : poolSize;
+            } else if(executor instanceof ForkJoinPool) {
+                return ((ForkJoinPool) executor).getParallelism();
+            }
+            return DEFAULT_CONCURRENCY;
+        }
+    }
+}
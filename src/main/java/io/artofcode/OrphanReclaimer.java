@@ -0,0 +1,141 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Returns the jobs of workers which are gone, e.g. because their host was decommissioned,
+ * to the queue. Every worker records its heart beat in the registry of the queue's
+ * workers and a worker not seen for WORKER_TIMEOUT (two LEASE_TIMEOUTs unless configured)
+ * is considered dead. Its in-process queue is then emptied in batches of RECLAIM_BATCH
+ * (500 unless configured), each a single short script, so live workers are not held up
+ * even by in-process queues of hundreds of thousands of jobs. Every worker runs a
+ * reclaimer, a lock on the in-process queue ensures only one of them reclaims it at a
+ * time and a worker which comes back is left alone.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class OrphanReclaimer implements AutoCloseable {
+
+    private static final int DEFAULT_BATCH = 500;
+
+    private static final int DEAD_WORKER_LIMIT = 10;
+
+    private static final int MAX_BATCHES_PER_RUN = 20;
+
+    private final String queue;
+
+    private final String owner;
+
+    private final QueueBackend backend;
+
+    private final long workerTimeout;
+
+    private final long lockTimeout;
+
+    private final long interval;
+
+    private final int batchSize;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile ScheduledFuture<?> next;
+
+    private volatile boolean isClosed = false;
+
+    private final Logger logger = Logger.getLogger(OrphanReclaimer.class.toString());
+
+    /**
+     * @param owner in-process queue of the worker running the reclaimer
+     * @param backend backend of the queue, left open on close
+     * @param leaseTimeout lease timeout of the queue, for which reclaimed in-process queues
+     *                     stay locked after each batch
+     * @param scheduler runs the reclaimer every interval millis, left running on close
+     */
+    OrphanReclaimer(String queue, String owner, QueueBackend backend, long leaseTimeout,
+                    ScheduledExecutorService scheduler, long interval) {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        this.queue = queue;
+        this.owner = owner;
+        this.backend = backend;
+        this.lockTimeout = leaseTimeout;
+        this.workerTimeout = Math.max(leaseTimeout, config.getDuration(queue, "WORKER_TIMEOUT", 2 * leaseTimeout));
+        this.batchSize = Math.max(1, config.getInt(queue, "RECLAIM_BATCH", DEFAULT_BATCH));
+        this.interval = interval;
+        this.scheduler = scheduler;
+        this.next = scheduler.schedule(this::reclaim, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void reclaim() {
+        long delay = interval;
+        try {
+            long staleBefore = System.currentTimeMillis() - workerTimeout;
+            int batches = 0;
+            for(String worker : backend.findDeadWorkers(staleBefore, DEAD_WORKER_LIMIT)) {
+                if(worker.equals(owner) || isClosed) {
+                    continue;
+                }
+
+                long reclaimed = 0L;
+                int batch;
+                do {
+                    batch = backend.reclaim(worker, staleBefore, owner, lockTimeout, batchSize);
+                    reclaimed += Math.max(batch, 0);
+                    batches++;
+                } while(batch >= batchSize && batches < MAX_BATCHES_PER_RUN && !isClosed);
+
+                if(reclaimed > 0) {
+                    logger.info(format("Returned %d jobs of dead worker %s to queue %s", reclaimed, worker, queue));
+                }
+                if(batches >= MAX_BATCHES_PER_RUN) {
+                    // Let other tasks of the scheduler run before carrying on
+                    delay = 0L;
+                    break;
+                }
+            }
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to reclaim jobs of dead workers of %s", queue), ex);
+        }
+
+        try {
+            if(!isClosed) {
+                next = scheduler.schedule(this::reclaim, delay, TimeUnit.MILLISECONDS);
+            }
+        } catch(RejectedExecutionException ree) {
+            // Scheduler is shut down
+        }
+    }
+
+    /**
+     * Stops reclaiming. A lock held on the in-process queue of a dead worker expires
+     * after the lease timeout, after which another worker carries on.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        next.cancel(false);
+    }
+}
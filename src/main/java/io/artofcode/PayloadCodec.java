@@ -0,0 +1,39 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+/**
+ * Converts jobs of a queue to and from the bytes stored in Redis. Every enveloped job
+ * records the name of the codec which encoded it, so consumers decode it with the
+ * matching codec whatever the codec of the queue is. Jobs without a codec are JSON.
+ *
+ * Jeeves ships {@link JsonCodec} and {@link BinaryCodec}. Codecs must be thread safe.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public interface PayloadCodec<T> {
+
+    /**
+     * @return name recorded with every job encoded by this codec, must not contain ';'
+     *         or '=' and must be the same across all producers and consumers
+     */
+    String getName();
+
+    byte[] encode(T job);
+
+    T decode(byte[] payload);
+}
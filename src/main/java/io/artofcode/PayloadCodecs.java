@@ -0,0 +1,63 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the codecs shipped with Jeeves. Codecs are created once per model
+ * and name since creating them involves reflection.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+final class PayloadCodecs {
+
+    private static final ConcurrentMap<String, PayloadCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    private PayloadCodecs() {
+
+    }
+
+    /**
+     * @return the built-in codec named by CODEC of the queue's configuration, json by default
+     */
+    static <T> PayloadCodec<T> forQueue(String queue, Class<T> model) {
+        String name = ConfigurationManager.getInstance().get(queue).get("CODEC");
+        if(name == null || name.trim().isEmpty()) {
+            name = JsonCodec.NAME;
+        }
+        return forName(name.trim().toLowerCase(), model);
+    }
+
+    /**
+     * @return the built-in codec named name for model
+     * @throws IllegalArgumentException if there is no built-in codec called name
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PayloadCodec<T> forName(String name, Class<T> model) {
+        return (PayloadCodec<T>) codecs.computeIfAbsent(name + "/" + model.getName(), (key) -> {
+            if(JsonCodec.NAME.equals(name)) {
+                return new JsonCodec<>(model);
+            } else if(BinaryCodec.NAME.equals(name)) {
+                return new BinaryCodec<>(model);
+            }
+            throw new IllegalArgumentException(String.format("Unknown codec %s", name));
+        });
+    }
+}
@@ -0,0 +1,151 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses payloads larger than a threshold with DEFLATE. Compressed jobs are tagged
+ * in their envelope and decompressed by consumers before they are decoded, payloads
+ * at or below the threshold are left untouched and cost nothing.
+ *
+ * Compression is configured per queue with COMPRESSION=deflate and COMPRESSION_THRESHOLD,
+ * the size in bytes above which payloads are compressed (1024 unless configured).
+ * Compression is off unless configured. A payload which does not shrink when compressed,
+ * e.g. one which is already compressed, is sent as is.
+ *
+ * Deflaters and inflaters hold native memory and are expensive to create, hence they are
+ * reused through small pools shared by all threads rather than kept per thread, which
+ * would leak them with every short lived virtual thread. Instances beyond what a pool
+ * holds are ended as soon as they are returned.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+final class PayloadCompression {
+
+    static final String DEFLATE = "deflate";
+
+    static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final PayloadCompression NONE = new PayloadCompression(Integer.MAX_VALUE);
+
+    private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private final int threshold;
+
+    PayloadCompression(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return compression configured for queue
+     */
+    static PayloadCompression forQueue(String queue) {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        String algorithm = config.get(queue).get("COMPRESSION");
+        if(algorithm == null || algorithm.trim().isEmpty() || algorithm.trim().equalsIgnoreCase("none")) {
+            return NONE;
+        }
+        if(!algorithm.trim().equalsIgnoreCase(DEFLATE)) {
+            throw new RuntimeException(format("Unsupported compression %s in configuration %s", algorithm, queue));
+        }
+        return new PayloadCompression(Math.max(0, config.getInt(queue, "COMPRESSION_THRESHOLD", DEFAULT_THRESHOLD)));
+    }
+
+    /**
+     * @return compressed payload or null if payload is not worth compressing
+     */
+    byte[] compress(byte[] payload) {
+        if(payload.length <= threshold) {
+            return null;
+        }
+
+        Deflater deflater = deflaters.poll();
+        if(deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length / 2);
+            byte[] buffer = new byte[Math.min(payload.length, 8192)];
+            while(!deflater.finished() && compressed.size() < payload.length) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return deflater.finished() && compressed.size() < payload.length ? compressed.toByteArray() : null;
+        } finally {
+            deflater.reset();
+            if(!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * @param algorithm compression recorded in the envelope of the job, null if none
+     * @return payload as it was before it was compressed
+     */
+    static byte[] decompress(String algorithm, byte[] payload) {
+        if(algorithm == null) {
+            return payload;
+        }
+        if(!DEFLATE.equals(algorithm)) {
+            throw new IllegalArgumentException(format("Unsupported compression %s", algorithm));
+        }
+
+        Inflater inflater = inflaters.poll();
+        if(inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(payload);
+            byte[] decompressed = new byte[Math.max(64, payload.length * 4)];
+            int size = 0;
+            while(!inflater.finished()) {
+                if(size == decompressed.length) {
+                    decompressed = Arrays.copyOf(decompressed, decompressed.length * 2);
+                }
+                int inflated = inflater.inflate(decompressed, size, decompressed.length - size);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Compressed payload is truncated");
+                }
+                size += inflated;
+            }
+            return size == decompressed.length ? decompressed : Arrays.copyOf(decompressed, size);
+        } catch(DataFormatException dfe) {
+            throw new IllegalArgumentException("Compressed payload is corrupt", dfe);
+        } finally {
+            inflater.reset();
+            if(!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+}
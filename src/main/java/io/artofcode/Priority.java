@@ -0,0 +1,74 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import io.artofcode.config.ConfigurationManager;
+
+/**
+ * Priority level of a job within its queue. Jobs of the same level are processed in
+ * the order they were submitted. Workers with priority weights pick the level of every
+ * job they claim at random in proportion to the weights of the levels holding jobs, so
+ * urgent jobs overtake bulk ones while every level keeps a share of the workers.
+ *
+ * Jobs of a level other than NORMAL are only claimed by workers with priority weights,
+ * hence they may only be submitted to queues configuring PRIORITY_WEIGHTS, which every
+ * worker of the queue uses unless given other weights with
+ * {@code QueueProcessor.Builder.priorityWeights()}. The level of a job travels in its
+ * envelope, so jobs which are retried, recovered or whose lease expired return to
+ * their level.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public enum Priority {
+
+    HIGH, NORMAL, LOW;
+
+    /**
+     * @return weights of HIGH, NORMAL and LOW, configured by PRIORITY_WEIGHTS of queue as
+     *         three comma separated integers of at least 1, or null if it is not configured
+     * @throws RuntimeException if the configured weights are invalid
+     */
+    static int[] configuredWeights(String queue) {
+        String weights = ConfigurationManager.getInstance().get(queue).get("PRIORITY_WEIGHTS");
+        if(weights == null || weights.trim().isEmpty()) {
+            return null;
+        }
+
+        String[] values = weights.split(",");
+        try {
+            if(values.length == values().length) {
+                return validate(Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()),
+                        Integer.parseInt(values[2].trim()));
+            }
+        } catch(IllegalArgumentException iae) {
+            // reported below
+        }
+        throw new RuntimeException(String.format("Invalid PRIORITY_WEIGHTS %s in configuration %s, expected " +
+                "three weights of at least 1 for HIGH, NORMAL and LOW", weights, queue));
+    }
+
+    /**
+     * @throws IllegalArgumentException if any weight is below 1, which would starve its level
+     */
+    static int[] validate(int high, int normal, int low) {
+        if(high < 1 || normal < 1 || low < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Priority weights must be at least 1, got %d, %d and %d", high, normal, low));
+        }
+        return new int[] { high, normal, low };
+    }
+}
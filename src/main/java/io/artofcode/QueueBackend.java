@@ -0,0 +1,302 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Storage of a queue and of the jobs claimed from it. Workers claim jobs into their own
+ * in-process queue under a lease, and every claimed job is eventually acknowledged,
+ * failed, retried or, once its lease expires, returned to the queue. Jobs are opaque
+ * byte[] which backends store and return unchanged.
+ *
+ * The backend of a queue is chosen with BACKEND in its configuration, redis unless
+ * configured, see {@link #forQueue(String)}. Backends must be thread safe.
+ *
+ * @see RedisQueueManager
+ * @see StreamQueueBackend
+ * @see ShardedQueueBackend
+ * @see InMemoryQueueBackend
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public interface QueueBackend extends AutoCloseable {
+
+    /**
+     * @return the backend configured for queue by BACKEND, one of redis, streams or memory.
+     *         Redis queues with SHARDS above 1 are sharded
+     * @throws RuntimeException if the configured backend is unknown
+     */
+    static QueueBackend forQueue(String queue) {
+        String backend = ConfigurationManager.getInstance().get(queue).get("BACKEND");
+        if(backend == null || backend.trim().isEmpty() || backend.trim().equalsIgnoreCase("redis")) {
+            if(ConfigurationManager.getInstance().getInt(queue, "SHARDS", 1) > 1) {
+                return ShardedQueueBackend.forQueue(queue);
+            }
+            return new RedisQueueManager(queue);
+        } else if(backend.trim().equalsIgnoreCase("memory")) {
+            return InMemoryQueueBackend.forQueue(queue);
+        } else if(backend.trim().equalsIgnoreCase("streams")) {
+            return StreamQueueBackend.forQueue(queue);
+        }
+        throw new RuntimeException(format("Unknown backend %s in configuration %s", backend, queue));
+    }
+
+    /**
+     * Submits jobs to the end of the queue, in the order they are to be processed.
+     */
+    void enqueue(Collection<byte[]> jobs);
+
+    /**
+     * Submits jobs sharing routingKey. Partitioned backends keep all jobs of a routing key
+     * in the same partition so they are processed in order, other backends ignore the key.
+     */
+    default void enqueue(String routingKey, Collection<byte[]> jobs) {
+        enqueue(jobs);
+    }
+
+    /**
+     * Submits jobs at priority. Backends without priority levels submit them as NORMAL.
+     */
+    default void enqueue(Priority priority, Collection<byte[]> jobs) {
+        enqueue(jobs);
+    }
+
+    /**
+     * Submits jobs which are not to be processed before dueAt. They are kept with the
+     * delayed jobs and promoted to the queue once due.
+     *
+     * @param dueAt epoch millis at which the jobs become due
+     */
+    void schedule(Collection<byte[]> jobs, long dueAt);
+
+    /**
+     * Atomically moves up to batchSize jobs from the queue to the destination queue
+     * and returns them in the order they were dequeued. Every claimed job is leased
+     * until leaseDeadline. If the queue is empty then this method blocks for at most
+     * timeout seconds waiting for a job, an empty list is returned if none arrives.
+     *
+     * @param destination in-process queue to which claimed jobs are moved
+     * @param batchSize maximum number of jobs claimed at once
+     * @param timeout seconds to block if the queue is empty, 0 to return right away
+     * @param leaseDeadline epoch millis at which the lease of claimed jobs expires
+     * @return claimed jobs, never null
+     */
+    List<byte[]> claim(String destination, int batchSize, int timeout, long leaseDeadline);
+
+    /**
+     * Claims jobs like {@link #claim(String, int, int, long)} across the priority levels
+     * of the queue. The level of every job is picked at random in proportion to the
+     * weights of the levels holding jobs. Backends without priority levels claim NORMAL
+     * jobs only.
+     *
+     * @param weights weights of HIGH, NORMAL and LOW, each at least 1
+     */
+    default List<byte[]> claim(String destination, int batchSize, int timeout, long leaseDeadline, int[] weights) {
+        return claim(destination, batchSize, timeout, leaseDeadline);
+    }
+
+    /**
+     * Extends the leases of in-process jobs until leaseDeadline. Leases which no longer
+     * exist are not recreated.
+     */
+    void extendLeases(String inProcessQueue, Collection<byte[]> jobs, long leaseDeadline);
+
+    /**
+     * Returns up to limit jobs whose lease expired at or before now back to the queue,
+     * ahead of the jobs waiting in it.
+     *
+     * @return number of expired leases processed
+     */
+    int reapExpiredLeases(long now, int limit);
+
+    /**
+     * Returns up to limit jobs left in the in-process queue by an earlier run of the worker
+     * to the queue, ahead of the jobs waiting in it, and drops their leases. Must only be
+     * called before the worker claims jobs into the in-process queue. Backends which do
+     * not keep in-process jobs across restarts, or hand them over by other means, return 0.
+     *
+     * @return number of jobs returned, below limit once the in-process queue is empty
+     */
+    default int recoverInProcess(String inProcessQueue, int limit) {
+        return 0;
+    }
+
+    /**
+     * Moves the whole in-process queue left by an earlier run of the worker aside, in
+     * constant time, so that its jobs can be recovered with recoverDetached() while the
+     * worker already claims new ones. Nothing is moved while jobs detached earlier are
+     * still waiting to be recovered.
+     *
+     * @return whether the in-process queue was moved aside
+     */
+    default boolean detachInProcess(String inProcessQueue) {
+        return false;
+    }
+
+    /**
+     * Returns up to limit jobs moved aside by detachInProcess() to the queue, ahead of the
+     * jobs waiting in it, and drops their leases.
+     *
+     * @return number of jobs returned, below limit once no detached job is left
+     */
+    default int recoverDetached(String inProcessQueue, int limit) {
+        return 0;
+    }
+
+    /**
+     * Records in the registry of the queue's workers that the worker owning inProcessQueue
+     * was alive at now. Backends without a registry ignore it.
+     */
+    default void heartbeat(String inProcessQueue, long now) {
+    }
+
+    /**
+     * @return up to limit in-process queues of registered workers last alive before
+     *         staleBefore
+     */
+    default List<String> findDeadWorkers(long staleBefore, int limit) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns up to limit jobs from the in-process queue of a worker last alive before
+     * staleBefore to the queue, ahead of the jobs waiting in it, and drops their leases.
+     * The in-process queue is locked for owner during lockTimeout, extended by every call,
+     * so that only one worker reclaims it at a time. Once the in-process queue is empty
+     * the worker is removed from the registry.
+     *
+     * @return number of jobs returned, or -1 if the worker is alive again or another
+     *         worker holds the lock
+     */
+    default int reclaim(String inProcessQueue, long staleBefore, String owner, long lockTimeout, int limit) {
+        return -1;
+    }
+
+    /**
+     * Removes successfully processed jobs from the in-process queue.
+     */
+    void ack(String inProcessQueue, Collection<byte[]> jobs);
+
+    /**
+     * Moves jobs which could not be processed from the in-process queue to the failed jobs.
+     */
+    void fail(String inProcessQueue, Collection<byte[]> jobs);
+
+    /**
+     * Moves failed jobs from the in-process queue to the delayed jobs, from which they are
+     * promoted back to the queue once their backoff has elapsed.
+     */
+    void retry(String inProcessQueue, Collection<Retry> retries);
+
+    /**
+     * Returns jobs which were claimed into the in-process queue but will not be processed
+     * to the queue, ahead of the jobs waiting in it and in the order given, and drops their
+     * leases. Nothing is counted, the jobs are delivered again as if never claimed.
+     *
+     * @return number of jobs returned, jobs no longer in process are skipped
+     */
+    int requeue(String inProcessQueue, Collection<byte[]> jobs);
+
+    /**
+     * Moves up to limit delayed jobs which are due at now back to the queue, ahead of the
+     * jobs waiting in it.
+     *
+     * @return number of jobs moved in the first element and the epoch millis at which the
+     *         next delayed job becomes due in the second, -1 if there are none
+     */
+    long[] promoteDueJobs(long now, int limit);
+
+    /**
+     * @return current statistics of the queue, read in a single round trip
+     */
+    QueueStats getStats();
+
+    /**
+     * Appends events to the history of the queue. Events are kept in buckets spanning
+     * bucketMillis of time, a bucket expires as a whole retentionMillis after its end.
+     * A bucket keeps at most bucketLimit events, the oldest are dropped beyond that.
+     */
+    void appendHistory(Collection<JobEvent> events, long bucketMillis, long retentionMillis, int bucketLimit);
+
+    /**
+     * Reads a page of the events which happened between from and to, both inclusive, in
+     * the order they happened. Events at equal times are ordered by their encoded form.
+     *
+     * @param offset number of events in the range to skip
+     * @param limit maximum number of events returned
+     * @param bucketMillis span of the buckets the events were appended to
+     */
+    List<JobEvent> readHistory(long from, long to, int offset, int limit, long bucketMillis);
+
+    /**
+     * @return whether the backend supports JOURNAL. It must keep in-process jobs across
+     *         restarts of the worker and find them by content, so that jobs read back from
+     *         a journal can be acknowledged and requeued. Backends which find them by the
+     *         identity of the arrays they handed out return false
+     */
+    default boolean supportsJournal() {
+        return false;
+    }
+
+    /**
+     * @return a worker id unique among the workers of the queue
+     */
+    long createWorkerId();
+
+    @Override
+    void close();
+
+    /**
+     * A failed job which is to be attempted again once dueAt has passed.
+     */
+    final class Retry {
+
+        private final byte[] job;
+
+        private final byte[] nextAttempt;
+
+        private final long dueAt;
+
+        /**
+         * @param job the failed job as it is in the in-process queue
+         * @param nextAttempt the job as it is to be delivered on its next attempt
+         * @param dueAt epoch millis at which the next attempt becomes due
+         */
+        public Retry(byte[] job, byte[] nextAttempt, long dueAt) {
+            this.job = job;
+            this.nextAttempt = nextAttempt;
+            this.dueAt = dueAt;
+        }
+
+        public byte[] getJob() {
+            return job;
+        }
+
+        public byte[] getNextAttempt() {
+            return nextAttempt;
+        }
+
+        public long getDueAt() {
+            return dueAt;
+        }
+    }
+}
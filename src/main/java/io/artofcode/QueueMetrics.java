@@ -0,0 +1,158 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects the metrics of a queue exposed by {@link QueueMetricsMXBean}. Workers record
+ * into LongAdders, which stripe updates across cells under contention, so recording
+ * costs no more than an uncontended increment on the hot path. Sums are only computed
+ * when the MBean is read.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+final class QueueMetrics implements QueueMetricsMXBean {
+
+    private static final ConcurrentMap<String, QueueMetrics> metrics = new ConcurrentHashMap<>();
+
+    private static final Logger logger = Logger.getLogger(QueueMetrics.class.toString());
+
+    private final LongAdder claimed = new LongAdder();
+
+    private final LongAdder succeeded = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder retried = new LongAdder();
+
+    private final LatencyHistogram pollLatency = new LatencyHistogram();
+
+    private final LatencyHistogram parseTime = new LatencyHistogram();
+
+    private final LatencyHistogram consumerTime = new LatencyHistogram();
+
+    private final LatencyHistogram concurrencyWait = new LatencyHistogram();
+
+    QueueMetrics() {
+
+    }
+
+    /**
+     * @return metrics of queue, created and registered with the platform MBeanServer on first use
+     */
+    static QueueMetrics forQueue(String queue) {
+        QueueMetrics queueMetrics = metrics.get(queue);
+        return queueMetrics != null ? queueMetrics : metrics.computeIfAbsent(queue, QueueMetrics::register);
+    }
+
+    private static QueueMetrics register(String queue) {
+        QueueMetrics queueMetrics = new QueueMetrics();
+        try {
+            ObjectName name = objectName(queue);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(queueMetrics, name);
+        } catch(InstanceAlreadyExistsException iaee) {
+            // Registered by another class loader, this one's metrics are not exposed
+        } catch(JMException | SecurityException ex) {
+            logger.log(Level.WARNING, format("Unable to register metrics of %s", queue), ex);
+        }
+        return queueMetrics;
+    }
+
+    static ObjectName objectName(String queue) throws JMException {
+        return new ObjectName(format("io.artofcode.jeeves:type=QueueMetrics,queue=%s", ObjectName.quote(queue)));
+    }
+
+    void onClaimed(int jobs, long pollNanos) {
+        claimed.add(jobs);
+        pollLatency.record(pollNanos);
+    }
+
+    void onSucceeded(int jobs) {
+        succeeded.add(jobs);
+    }
+
+    void onFailed(int jobs) {
+        failed.add(jobs);
+    }
+
+    void onRetried(int jobs) {
+        retried.add(jobs);
+    }
+
+    void recordParseTime(long nanos) {
+        parseTime.record(nanos);
+    }
+
+    void recordConsumerTime(long nanos) {
+        consumerTime.record(nanos);
+    }
+
+    void recordConcurrencyWait(long nanos) {
+        concurrencyWait.record(nanos);
+    }
+
+    @Override
+    public long getClaimed() {
+        return claimed.sum();
+    }
+
+    @Override
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    @Override
+    public LatencySnapshot getPollLatency() {
+        return pollLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getParseTime() {
+        return parseTime.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getConsumerTime() {
+        return consumerTime.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getConcurrencyWait() {
+        return concurrencyWait.snapshot();
+    }
+}
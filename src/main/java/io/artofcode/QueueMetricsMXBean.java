@@ -0,0 +1,67 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+/**
+ * Lifecycle metrics of the workers of a queue in this JVM, registered with the platform
+ * MBeanServer as io.artofcode.jeeves:type=QueueMetrics,queue=&lt;queue&gt;. Counters and
+ * histograms accumulate from the time the first worker of the queue started.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public interface QueueMetricsMXBean {
+
+    /**
+     * @return jobs claimed from the queue
+     */
+    long getClaimed();
+
+    /**
+     * @return jobs acknowledged as processed successfully
+     */
+    long getSucceeded();
+
+    /**
+     * @return jobs moved to the failed jobs after their last attempt failed
+     */
+    long getFailed();
+
+    /**
+     * @return failed jobs scheduled for another attempt
+     */
+    long getRetried();
+
+    /**
+     * @return time taken by each poll of the queue, including time blocked on an empty queue
+     */
+    LatencySnapshot getPollLatency();
+
+    /**
+     * @return time taken to decode each job into the model
+     */
+    LatencySnapshot getParseTime();
+
+    /**
+     * @return time each job spent in the consumer
+     */
+    LatencySnapshot getConsumerTime();
+
+    /**
+     * @return time each job waited for a concurrency permit before it was dispatched
+     */
+    LatencySnapshot getConcurrencyWait();
+}
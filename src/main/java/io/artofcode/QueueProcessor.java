@@ -17,12 +17,16 @@ limitations under the License.
 package io.artofcode;
 
 import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -32,6 +36,11 @@ import java.util.logging.Level;
  * a specified Redis queue and delivers it as POJO to a user specified
  * {@code Consumer}. This class it constructed via it's Builder class
  *
+ * <p>A job delivered to a plain {@code Consumer} is acknowledged when the consumer
+ * returns and rejected if it throws. A consumer registered with
+ * {@code Builder.acknowledgingConsumer()} receives an {@link Acknowledgement} along
+ * with the job and reports the outcome itself, possibly from another thread.
+ *
  * @author  Neeraj Shah
  * @see     java.util.function.Consumer
  * @since   0.1
@@ -40,8 +49,6 @@ public class QueueProcessor<T> implements AutoCloseable {
 
         private final String queue;
 
-        private final Consumer<T> consumer;
-
         private final ExecutorService executor;
 
         private final Logger logger = Logger.getLogger(QueueProcessor.class.toString());
@@ -50,11 +57,17 @@ public class QueueProcessor<T> implements AutoCloseable {
 
         private final JobPoller poller;
 
+        private final Acknowledger acknowledger;
+
+        private final DelayedJobMover delayedJobMover;
+
         private volatile boolean isClosed = false;
 
-        private final Class<T> model;
+        private final ConcurrencyLimiter limiter;
+
+        private final JobDispatcher<T> dispatcher;
 
-        private final Semaphore semaphore;
+        private final QueueMetrics metrics;
 
         private final Lock globalLock;
 
@@ -62,22 +75,38 @@ public class QueueProcessor<T> implements AutoCloseable {
         * Creates a Redis Queue processor
         *
         * @param queue a Redis queue from which to fetch the tasks
-        * @param consumer a functional object to which the taks is delivered as POJO
+        * @param consumer a functional object to which the taks is delivered as POJO along
+        *                 with its Acknowledgement
         * @param executor the messages are processed by {@code Consumer} in this ThreadPool
         * @param model received task is parsed as this POJO class
+        * @param codec decodes received tasks, tasks encoded by other codecs are decoded by
+        *              the built-in codec named in their envelope
+        * @param limiter bounds the number of tasks processed concurrently
+        * @param priorityWeights weights of HIGH, NORMAL and LOW tasks, null to process NORMAL tasks only
+        * @param prefetch number of tasks fetched ahead of the workers, 0 to fetch a task only
+        *                 once a worker is free
+        * @param slot worker slot of the processor on this host, -1 for the lowest free slot
         */
         private QueueProcessor(String queue,
-                               Consumer<T> consumer,
+                               BiConsumer<T, Acknowledgement> consumer,
                                ExecutorService executor,
                                int numRetries,
-                               Class<T> model) {
+                               Class<T> model,
+                               PayloadCodec<T> codec,
+                               ConcurrencyLimiter limiter,
+                               int[] priorityWeights,
+                               int prefetch,
+                               int slot) {
             this.queue = queue;
-            this.consumer = consumer;
             this.executor = executor;
             this.numRetries = numRetries;
-            this.model = model;
-            this.semaphore = new Semaphore(4, true);
-            this.poller = new JobPoller(queue);
+            this.limiter = limiter;
+            this.metrics = QueueMetrics.forQueue(queue);
+            this.poller = new JobPoller(queue, priorityWeights, prefetch, slot);
+            this.acknowledger = new Acknowledger(queue, poller.getInprocessQueue(), poller.getLeaseKeeper(),
+                    retryPolicy(queue, numRetries));
+            this.delayedJobMover = new DelayedJobMover(queue);
+            this.dispatcher = new JobDispatcher<>(queue, model, codec, consumer, acknowledger, limiter);
             this.globalLock = new ReentrantLock();
         }
 
@@ -85,7 +114,8 @@ public class QueueProcessor<T> implements AutoCloseable {
         * Starts fetching tasks from the Redis queue specified earlier. If no tasks
         * are found then the processor sleeps for 500ms before retrying. The processor
         * repeats this process unless close method is called on this instance or the
-        * JVM exists.
+        * JVM exists. Interrupting the processor while it waits for a free permit stops it
+        * as close would, the interrupt status is restored once it has stopped.
         *
         * @since 0.1
         */
@@ -93,35 +123,42 @@ public class QueueProcessor<T> implements AutoCloseable {
             try {
                 logger.log(Level.INFO, format("Starting queue processing on %s", queue));
 
-                for(String json : poller) {
+                byte[] undispatched = null;
+                boolean interrupted = false;
+                for(byte[] job : poller) {
                     if(executor.isShutdown()) {
+                        undispatched = job;
                         break;
+                    } else if(job == null) {
+                        continue;
                     }
 
                     try {
-                        logger.info("Finding next thread for task allocation");
-                        semaphore.acquire();
-                        logger.info("Thread found");
+                        long waitingSince = System.nanoTime();
+                        limiter.acquire();
+                        metrics.recordConcurrencyWait(System.nanoTime() - waitingSince);
                     } catch(InterruptedException ie) {
-                        logger.log(Level.SEVERE, "", ie);
+                        // No permit was taken, the job is handed back instead of dispatched
+                        logger.log(Level.WARNING, format("Interrupted while waiting for a permit on %s, stopping",
+                                queue), ie);
+                        interrupted = true;
+                        undispatched = job;
+                        close();
+                        break;
                     }
 
-                    executor.execute(() -> {
-                        try {
-                            EntityMapper<T> mapper = new EntityMapper<>(model);
-                            final T obj = mapper.parse(json);
-                            consumer.accept(obj);
-                        }
-                        catch(Exception ex) {
-                            logger.log(Level.SEVERE, "", ex);
-                        } 
-                        finally {
-                            semaphore.release();
-                        }
-                    });
+                    executor.execute(() -> dispatcher.dispatch(job));
                 }
 
                 shutdownPool();
+                poller.handBack(undispatched);
+                acknowledger.close();
+                poller.close();
+                delayedJobMover.close();
+                if(interrupted) {
+                    // Restored once the pool is drained, waiting for it would fail right away otherwise
+                    Thread.currentThread().interrupt();
+                }
             } catch(Exception ex) {
                 logger.log(Level.SEVERE, "", ex);
                 throw new RuntimeException(ex);
@@ -152,6 +189,18 @@ public class QueueProcessor<T> implements AutoCloseable {
         }
 
 
+        /**
+         * Failed jobs are retried numRetries times. The first retry happens after
+         * RETRY_BACKOFF (1s unless configured) and every further retry waits twice as
+         * long as the previous one, up to RETRY_MAX_BACKOFF (10m unless configured).
+         */
+        static RetryPolicy retryPolicy(String queue, int numRetries) {
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            return new RetryPolicy(numRetries,
+                    config.getDuration(queue, "RETRY_BACKOFF", TimeUnit.SECONDS.toMillis(1L)),
+                    config.getDuration(queue, "RETRY_MAX_BACKOFF", TimeUnit.MINUTES.toMillis(10L)));
+        }
+
         /**
          * Shutsdown Executor of the current QueueProcessor, once the shutdown is initiated
          * current thread waits for 1 minute before re-attempting forcible shutdown, if  
@@ -179,30 +228,75 @@ public class QueueProcessor<T> implements AutoCloseable {
          */
         public static class Builder<T> {
 
+            private static final int DEFAULT_CONCURRENCY = 4;
+
+            private static final int DEFAULT_VIRTUAL_CONCURRENCY = 10000;
+
             private final String queue;
 
-            private Consumer<T> consumer;
+            private BiConsumer<T, Acknowledgement> consumer;
 
             private ExecutorService executor;
 
-            private int numRetries;
+            private int numRetries = -1;
 
             private Class<T> model;
 
+            private int minConcurrency;
+
+            private int maxConcurrency;
+
+            private Boolean adaptiveConcurrency;
+
+            private Boolean virtualThreads;
+
+            private PayloadCodec<T> codec;
+
+            private int[] priorityWeights;
+
+            private int prefetch = -1;
+
+            private int slot = -1;
+
             public Builder(String queue) {
                 this.queue = queue;
             }
 
+            /**
+             * Jobs are delivered to consumer and acknowledged once it returns. If the
+             * consumer throws then the job is moved to the failed jobs queue.
+             */
             public Builder consumer(Consumer<T> consumer) {
+                this.consumer = (job, ack) -> {
+                    consumer.accept(job);
+                    ack.ack();
+                };
+                return this;
+            }
+
+            /**
+             * Jobs are delivered to consumer along with an Acknowledgement which the
+             * consumer must use to report the outcome of the job. A job holds its concurrency
+             * permit until it is acknowledged or rejected. A job which is never acknowledged
+             * stays in the worker's in-process queue.
+             */
+            public Builder acknowledgingConsumer(BiConsumer<T, Acknowledgement> consumer) {
                 this.consumer = consumer;
                 return this;
             }
 
+            /**
+             * Jobs are processed in executor. Takes precedence over virtualThreads().
+             */
             public Builder executor(ExecutorService executor) {
                 this.executor = executor;
                 return this;
             }
 
+            /**
+             * Number of times a failed job is retried before it is moved to the failed
+             * jobs queue. Defaults to NUM_RETRIES of the queue's configuration.
+             */
             public Builder retries(int numRetries) {
                 this.numRetries = numRetries;
                 return this;
@@ -213,12 +307,140 @@ public class QueueProcessor<T> implements AutoCloseable {
                 return this;
             }
 
+            /**
+             * Decodes jobs with codec. Defaults to the codec named by CODEC of the queue's
+             * configuration, either json or binary, or to json if it is not configured.
+             * Jobs are always decoded with the codec which encoded them, so the codec of
+             * a queue can be changed while it still holds jobs encoded by the old one.
+             */
+            public Builder codec(PayloadCodec<T> codec) {
+                this.codec = codec;
+                return this;
+            }
+
+            /**
+             * Processes jobs of every {@link Priority}, picking the level of every job at
+             * random in proportion to the weights of the levels holding jobs, e.g. 8, 4 and
+             * 1 lets HIGH jobs take about eight in thirteen claims while LOW jobs still get
+             * one. Defaults to PRIORITY_WEIGHTS of the queue's configuration, without
+             * weights only NORMAL jobs are processed.
+             *
+             * @throws IllegalArgumentException if any weight is below 1
+             */
+            public Builder priorityWeights(int high, int normal, int low) {
+                this.priorityWeights = Priority.validate(high, normal, low);
+                return this;
+            }
+
+            /**
+             * Keeps up to prefetch jobs claimed ahead of the workers, so that a worker which
+             * frees up does not wait for a round trip to the queue. Prefetched jobs stay
+             * leased to this worker and are returned to the queue when the processor is
+             * closed. Defaults to PREFETCH of the queue's configuration, or to 0 which
+             * claims a job only once a worker is free.
+             */
+            public Builder prefetch(int prefetch) {
+                if(prefetch < 0) {
+                    throw new IllegalArgumentException(format("Prefetch must not be negative, got %d", prefetch));
+                }
+                this.prefetch = prefetch;
+                return this;
+            }
+
+            /**
+             * Runs the processor in the given worker slot of the queue on this host, which
+             * fixes its worker id and in-process queue across restarts. Every processor of
+             * a queue on a host, in this JVM or another, needs a slot of its own. Defaults
+             * to the lowest slot not taken by another processor.
+             *
+             * @throws IllegalArgumentException if slot is negative
+             */
+            public Builder slot(int slot) {
+                if(slot < 0) {
+                    throw new IllegalArgumentException(format("Slot must not be negative, got %d", slot));
+                }
+                this.slot = slot;
+                return this;
+            }
+
+            /**
+             * Runs every job on its own virtual thread, which suits consumers that spend
+             * most of their time blocked on I/O. Concurrency is then bounded by the
+             * concurrency limit only, which defaults to 10000 jobs in flight. Can also be
+             * enabled with EXECUTION_MODE=virtual in the queue's configuration. Requires
+             * Java 21 or later.
+             */
+            public Builder virtualThreads() {
+                this.virtualThreads = true;
+                return this;
+            }
+
+            /**
+             * Processes at most maxConcurrency jobs at a time. Defaults to MAX_CONCURRENCY
+             * of the queue's configuration, or to the size of the executor if it is a
+             * ThreadPoolExecutor or ForkJoinPool, or to 10000 with virtualThreads().
+             */
+            public Builder concurrency(int maxConcurrency) {
+                this.maxConcurrency = maxConcurrency;
+                this.adaptiveConcurrency = false;
+                return this;
+            }
+
+            /**
+             * Lets the number of jobs processed at a time float between minConcurrency and
+             * maxConcurrency depending on the latency and error rate of the consumer.
+             * Can also be enabled with CONCURRENCY=adaptive in the queue's configuration.
+             */
+            public Builder adaptiveConcurrency(int minConcurrency, int maxConcurrency) {
+                this.minConcurrency = minConcurrency;
+                this.maxConcurrency = maxConcurrency;
+                this.adaptiveConcurrency = true;
+                return this;
+            }
+
             public QueueProcessor<T> build() {
-                if(consumer == null) consumer = (v)->{};
-                if(executor == null) executor = Executors.newWorkStealingPool(4);
+                if(consumer == null) consumer = (v, ack)->ack.ack();
+                if(virtualThreads == null)
+                    virtualThreads = "virtual".equalsIgnoreCase(ConfigurationManager.getInstance().get(queue).get("EXECUTION_MODE"));
+                if(executor == null) executor = virtualThreads ? VirtualThreads.newExecutor(queue) : Executors.newWorkStealingPool(4);
+                if(numRetries < 0) numRetries = ConfigurationManager.getInstance().getInt(queue, "NUM_RETRIES", 0);
                 if(model == null) 
                     throw new RuntimeException("Mapping entity is required via a call to model() method of the Builder object.");
-                return new QueueProcessor<T>(queue, consumer, executor, numRetries, model);
+                if(codec == null) codec = PayloadCodecs.forQueue(queue, model);
+                if(priorityWeights == null) priorityWeights = Priority.configuredWeights(queue);
+                if(prefetch < 0) prefetch = Math.max(0, ConfigurationManager.getInstance().getInt(queue, "PREFETCH", 0));
+                return new QueueProcessor<T>(queue, consumer, executor, numRetries, model, codec, limiter(),
+                        priorityWeights, prefetch, slot);
+            }
+
+            private ConcurrencyLimiter limiter() {
+                ConfigurationManager config = ConfigurationManager.getInstance();
+                if(maxConcurrency <= 0) {
+                    maxConcurrency = config.getInt(queue, "MAX_CONCURRENCY", executorSize());
+                }
+                if(adaptiveConcurrency == null) {
+                    adaptiveConcurrency = "adaptive".equalsIgnoreCase(config.get(queue).get("CONCURRENCY"));
+                }
+                if(!adaptiveConcurrency) {
+                    return new FixedConcurrencyLimiter(maxConcurrency);
+                }
+                if(minConcurrency <= 0) {
+                    minConcurrency = config.getInt(queue, "MIN_CONCURRENCY", 1);
+                }
+                return new AimdConcurrencyLimiter(minConcurrency, maxConcurrency);
+            }
+
+            private int executorSize() {
+                if(executor instanceof ThreadPoolExecutor) {
+                    int poolSize = ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+                    // Unbounded pools, e.g. newCachedThreadPool(), do not imply any limit
+                    return poolSize == Integer.MAX_VALUE ? DEFAULT_CONCURRENCY : poolSize;
+                } else if(executor instanceof ForkJoinPool) {
+                    return ((ForkJoinPool) executor).getParallelism();
+                } else if(virtualThreads) {
+                    return DEFAULT_VIRTUAL_CONCURRENCY;
+                }
+                return DEFAULT_CONCURRENCY;
             }
         }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of the state of a queue across all its producers and workers. Counters
+ * accumulate from the time the queue was first used, they are maintained by the backend
+ * atomically with the operations they count. Jobs pushed to the queue by producers other
+ * than {@link JobSubmitter} are not counted as submitted.
+ *
+ * <pre>
+ *     QueueStats stats = QueueStats.of("url-crawlers");
+ *     long backlog = stats.getQueued() + stats.getDelayed();
+ * </pre>
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public final class QueueStats {
+
+    private final String queue;
+
+    private final long queued;
+
+    private final long processing;
+
+    private final long delayed;
+
+    private final Map<String, Long> counters;
+
+    QueueStats(String queue, long queued, long processing, long delayed, Map<String, Long> counters) {
+        this.queue = queue;
+        this.queued = queued;
+        this.processing = processing;
+        this.delayed = delayed;
+        this.counters = Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * @return statistics of queue read from its backend in a single round trip
+     */
+    public static QueueStats of(String queue) {
+        try(QueueBackend backend = QueueBackend.forQueue(queue)) {
+            return backend.getStats();
+        }
+    }
+
+    /**
+     * @return statistics of queue made of the statistics of its parts, e.g. its shards
+     */
+    static QueueStats sum(String queue, Collection<QueueStats> parts) {
+        long queued = 0L, processing = 0L, delayed = 0L;
+        Map<String, Long> counters = new HashMap<>();
+        for(QueueStats part : parts) {
+            queued += part.queued;
+            processing += part.processing;
+            delayed += part.delayed;
+            part.counters.forEach((name, value) -> counters.merge(name, value, Long::sum));
+        }
+        return new QueueStats(queue, queued, processing, delayed, counters);
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    /**
+     * @return jobs waiting in the queue to be claimed
+     */
+    public long getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return jobs claimed by workers which are not yet acknowledged
+     */
+    public long getProcessing() {
+        return processing;
+    }
+
+    /**
+     * @return failed jobs waiting for their next attempt
+     */
+    public long getDelayed() {
+        return delayed;
+    }
+
+    /**
+     * @return jobs submitted to the queue
+     */
+    public long getSubmitted() {
+        return counter("submitted");
+    }
+
+    /**
+     * @return jobs claimed by workers, including jobs claimed more than once
+     */
+    public long getClaimed() {
+        return counter("claimed");
+    }
+
+    /**
+     * @return jobs acknowledged as processed successfully
+     */
+    public long getSucceeded() {
+        return counter("succeeded");
+    }
+
+    /**
+     * @return failed jobs scheduled for another attempt
+     */
+    public long getRetried() {
+        return counter("retried");
+    }
+
+    /**
+     * @return jobs moved to the failed jobs after their last attempt failed
+     */
+    public long getFailed() {
+        return counter("failed");
+    }
+
+    /**
+     * @return jobs returned to the queue because the lease of the worker expired
+     */
+    public long getExpired() {
+        return counter("expired");
+    }
+
+    /**
+     * @return jobs returned to the queue from the in-process queue of a restarted worker
+     */
+    public long getRecovered() {
+        return counter("recovered");
+    }
+
+    /**
+     * @return jobs returned to the queue from the in-process queues of dead workers
+     */
+    public long getReclaimed() {
+        return counter("reclaimed");
+    }
+
+    private long counter(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0L : value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: queued=%d processing=%d delayed=%d submitted=%d claimed=%d succeeded=%d " +
+                "retried=%d failed=%d expired=%d recovered=%d reclaimed=%d", queue, queued, processing, delayed,
+                getSubmitted(), getClaimed(), getSucceeded(), getRetried(), getFailed(), getExpired(), getRecovered(),
+                getReclaimed());
+    }
+}
@@ -17,19 +17,28 @@ limitations under the License.
 package io.artofcode;
 
 import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Retrives queued jobs from the specified queue and moves it to worker specific
  * in-process queue. This operation is atomic and hence it is guaranteed that no
- * two workers will pickup same job for processing. 
+ * two workers will pickup same job for processing. Claimed jobs are leased and
+ * handed to the worker's LeaseKeeper which keeps them alive while they are processed.
  *
  * @author Neeraj Shah
  * @since 0.1
  */
 class QueuedJobRetriever {
 
-    private final RedisQueueManager rqm;
+    private final QueueBackend backend;
 
     private final String queue;
 
@@ -37,30 +46,59 @@ class QueuedJobRetriever {
 
     private static final int WAIT_TIMEOUT = 10;
 
+    private static final int DEFAULT_BATCH_SIZE = 1;
+
+    private final int batchSize;
+
+    private final Deque<byte[]> claimed = new ArrayDeque<>();
+
     private volatile boolean continuePolling = true;
 
     private final Logger logger = Logger.getLogger(QueuedJobRetriever.class.toString());
 
-    QueuedJobRetriever(String queue, String inProcessQueue) {
+    private final LeaseKeeper leases;
+
+    private final QueueMetrics metrics;
+
+    private final int[] priorityWeights;
+
+    /**
+     * @param priorityWeights weights of HIGH, NORMAL and LOW jobs, null to claim NORMAL jobs only
+     */
+    QueuedJobRetriever(String queue, String inProcessQueue, LeaseKeeper leases, int[] priorityWeights) {
         this.queue = queue;
         this.inProcessQueue = inProcessQueue;
-        this.rqm = new RedisQueueManager(queue);
+        this.leases = leases;
+        this.priorityWeights = priorityWeights;
+        this.backend = QueueBackend.forQueue(queue);
+        this.metrics = QueueMetrics.forQueue(queue);
+        this.batchSize = Math.max(1, ConfigurationManager.getInstance()
+                .getInt(queue, "BATCH_SIZE", DEFAULT_BATCH_SIZE));
     }
 
     /**
      * Retrieves next available job from the queue, before the job is returned it is moved
-     * to an in process queue. If no jobs are available in the specified queue then this 
-     * method blocks for WAIT_TIMEOUT seconds. After WAIT_TIMEOUT elapses it retries again.
-     * This continues infinitely until the JVM exists or JobPoller classes' stopPolling() method
-     * is called.
+     * to an in process queue. Jobs are claimed in batches of BATCH_SIZE (configured per
+     * queue) in a single round trip and handed out one at a time. If no jobs are available
+     * in the specified queue then this method blocks for WAIT_TIMEOUT seconds. After
+     * WAIT_TIMEOUT elapses it retries again. This continues infinitely until the JVM exists
+     * or JobPoller classes' stopPolling() method is called.
      *
-     * @return raw string payload
+     * @return raw payload as stored in the queue
      */
-    public String retrieveNext() {
-        String payload = null;
+    public byte[] retrieveNext() {
+        byte[] payload = claimed.poll();
         while(continuePolling && payload == null) {
-            logger.info(format("Polling job from queue %s with wait timeout %d", queue, WAIT_TIMEOUT));
-            payload = rqm.brpoplpush(inProcessQueue, WAIT_TIMEOUT);
+            logger.fine(() -> format("Polling up to %d jobs from queue %s with wait timeout %d",
+                    batchSize, queue, WAIT_TIMEOUT));
+            long startedAt = System.nanoTime();
+            List<byte[]> jobs = priorityWeights == null
+                    ? backend.claim(inProcessQueue, batchSize, WAIT_TIMEOUT, leases.nextDeadline())
+                    : backend.claim(inProcessQueue, batchSize, WAIT_TIMEOUT, leases.nextDeadline(), priorityWeights);
+            metrics.onClaimed(jobs.size(), System.nanoTime() - startedAt);
+            leases.track(jobs);
+            claimed.addAll(jobs);
+            payload = claimed.poll();
         }
         return payload;
     }
@@ -68,4 +106,38 @@ class QueuedJobRetriever {
     public void stopPolling() {
         continuePolling = false;
     }
+
+    /**
+     * Returns jobs which were claimed but will not be processed by this worker, along with
+     * the rest of the last claimed batch, to the queue without counting an attempt, see
+     * {@link #requeue(Collection)}. Must not be called while jobs are still retrieved.
+     */
+    void handBack(Collection<byte[]> unprocessed) {
+        List<byte[]> jobs = new ArrayList<>(unprocessed);
+        jobs.addAll(claimed);
+        claimed.clear();
+        requeue(jobs);
+    }
+
+    /**
+     * Returns jobs which were claimed but will not be processed by this worker to the
+     * queue, ahead of the jobs waiting in it. Jobs which cannot be returned keep their
+     * leases and are returned to the queue by other workers once the leases expire.
+     */
+    void requeue(Collection<byte[]> jobs) {
+        if(jobs.isEmpty()) {
+            return;
+        }
+
+        try {
+            backend.requeue(inProcessQueue, jobs);
+            for(byte[] job : jobs) {
+                leases.release(job);
+            }
+            logger.info(format("Handed back %d unprocessed jobs to queue %s", jobs.size(), queue));
+        } catch(Exception ex) {
+            logger.log(Level.SEVERE, format("Unable to hand back %d jobs to queue %s, they are returned once their leases expire",
+                    jobs.size(), queue), ex);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,209 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
+
+/**
+ * Connections to one Redis server shared by every queue processor, retriever and state
+ * component of the JVM which talks to that server. Blocking commands such as BRPOPLPUSH
+ * hold a connection for as long as they wait, so they are served by a separate pool of
+ * dedicated connections and never starve the short non-blocking commands, which share
+ * the other pool. A connection is borrowed for one operation and returned right after.
+ *
+ * Pools are created on first use for a host and port and sized from the configuration
+ * of the queue which first used them:
+ * <ul>
+ *     <li>POOL_SIZE - maximum non-blocking connections, 16 unless configured</li>
+ *     <li>BLOCKING_POOL_SIZE - maximum blocking connections, 64 unless configured. Every
+ *     polling QueueProcessor needs one</li>
+ * </ul>
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public class RedisConnectionPool {
+
+    private static final int DEFAULT_POOL_SIZE = 16;
+
+    private static final int DEFAULT_BLOCKING_POOL_SIZE = 64;
+
+    private static final ConcurrentMap<String, RedisConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private final String host;
+
+    private final int port;
+
+    private final JedisPool shared;
+
+    private final JedisPool blocking;
+
+    private RedisConnectionPool(String host, int port, int poolSize, int blockingPoolSize) {
+        this.host = host;
+        this.port = port;
+        this.shared = new JedisPool(poolConfig(poolSize), host, port, Protocol.DEFAULT_TIMEOUT);
+        this.blocking = new JedisPool(poolConfig(blockingPoolSize), host, port, Protocol.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @return the pool of the Redis server configured by REDIS_HOST and REDIS_PORT for queue
+     */
+    public static RedisConnectionPool forQueue(String queue) {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        return forServer(config.get(queue).get("REDIS_HOST"), config.getInt(queue, "REDIS_PORT", Protocol.DEFAULT_PORT),
+                queue);
+    }
+
+    /**
+     * @return the pool of the Redis server at host and port, sized from the configuration
+     *         of queue if it is created
+     */
+    public static RedisConnectionPool forServer(String host, int port, String queue) {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        return pools.computeIfAbsent(format("%s:%d", host, port), (key) -> new RedisConnectionPool(host, port,
+                config.getInt(queue, "POOL_SIZE", DEFAULT_POOL_SIZE),
+                config.getInt(queue, "BLOCKING_POOL_SIZE", DEFAULT_BLOCKING_POOL_SIZE)));
+    }
+
+    /**
+     * @return the pools of all Redis servers connected to so far
+     */
+    public static Collection<RedisConnectionPool> all() {
+        return new ArrayList<>(pools.values());
+    }
+
+    /**
+     * Borrows a connection for non-blocking commands. The connection is returned to the
+     * pool by closing it.
+     */
+    public Jedis getResource() {
+        return shared.getResource();
+    }
+
+    /**
+     * Borrows a dedicated connection for a blocking command. The connection is returned to
+     * the pool by closing it.
+     */
+    public Jedis getBlockingResource() {
+        return blocking.getResource();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return usage of the non-blocking connections
+     */
+    public Stats getStats() {
+        return new Stats(shared);
+    }
+
+    /**
+     * @return usage of the connections dedicated to blocking commands
+     */
+    public Stats getBlockingStats() {
+        return new Stats(blocking);
+    }
+
+    @Override
+    public String toString() {
+        return format("%s:%d shared [%s] blocking [%s]", host, port, getStats(), getBlockingStats());
+    }
+
+    private static GenericObjectPoolConfig poolConfig(int size) {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxTotal(Math.max(1, size));
+        config.setMaxIdle(Math.max(1, size));
+        config.setTestWhileIdle(true);
+        return config;
+    }
+
+    /**
+     * Point in time usage of a connection pool, helpful when sizing the pool. Waiting
+     * borrowers or high borrow wait times mean the pool is too small.
+     */
+    public static final class Stats {
+
+        private final int active;
+
+        private final int idle;
+
+        private final int waiters;
+
+        private final long meanBorrowWaitMillis;
+
+        private final long maxBorrowWaitMillis;
+
+        private Stats(JedisPool pool) {
+            this.active = pool.getNumActive();
+            this.idle = pool.getNumIdle();
+            this.waiters = pool.getNumWaiters();
+            this.meanBorrowWaitMillis = pool.getMeanBorrowWaitTimeMillis();
+            this.maxBorrowWaitMillis = pool.getMaxBorrowWaitTimeMillis();
+        }
+
+        /**
+         * @return connections currently borrowed
+         */
+        public int getActive() {
+            return active;
+        }
+
+        /**
+         * @return connections open and available for borrowing
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return threads waiting for a connection
+         */
+        public int getWaiters() {
+            return waiters;
+        }
+
+        public long getMeanBorrowWaitMillis() {
+            return meanBorrowWaitMillis;
+        }
+
+        public long getMaxBorrowWaitMillis() {
+            return maxBorrowWaitMillis;
+        }
+
+        @Override
+        public String toString() {
+            return format("active=%d idle=%d waiters=%d meanBorrowWait=%dms maxBorrowWait=%dms",
+                    active, idle, waiters, meanBorrowWaitMillis, maxBorrowWaitMillis);
+        }
+    }
+}
@@ -18,34 +18,858 @@ package io.artofcode;
 
 import static java.lang.String.*;
 
-import io.artofcode.config.ConfigurationManager;
 import redis.clients.jedis.*;
+import redis.clients.jedis.params.sortedset.ZAddParams;
+import redis.clients.util.SafeEncoder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Wrapper class for Redis client. Provides utility method to create queue specific unique worker-ids
  *
+ * Jobs are binary safe, they are passed to and returned from Redis as byte[] exactly as
+ * they are stored in the queue.
+ *
+ * Connections are borrowed from the RedisConnectionPool of the queue's Redis server for
+ * each operation, hence an instance can be shared between threads.
+ *
+ * @see io.artofcode.RedisConnectionPool
  * @since 0.1
  */
-public class RedisQueueManager implements AutoCloseable {
+public class RedisQueueManager implements QueueBackend {
+
+    /**
+     * Lua function returning the list to which a job returns when it is redelivered, the
+     * list of the level named by the priority header of its envelope, see {@link JobEnvelope},
+     * or the queue itself for NORMAL jobs and jobs without an envelope. Scripts declaring it
+     * pass the lists of the queue, HIGH and LOW as keys.
+     */
+    private static final String HOME =
+            "local function home(job, normal, high, low) " +
+            "  if string.byte(job, 1) ~= 1 then return normal end " +
+            "  local header = string.match(job, '^\\1([^\\n]*)\\n') " +
+            "  if not header then return normal end " +
+            "  local level = string.match(';' .. header .. ';', ';priority=(%a+);') " +
+            "  if level == 'high' then return high elseif level == 'low' then return low end " +
+            "  return normal " +
+            "end ";
+
+    /**
+     * Moves up to ARGV[1] jobs from the queue KEYS[1] to the in-process queue KEYS[2]
+     * in a single server side operation and leases each of them until ARGV[2] in the
+     * lease index KEYS[3]. Jobs are moved one at a time with RPOPLPUSH so the resulting
+     * in-process queue is identical to the one built by repeated BRPOPLPUSH calls.
+     * Claimed jobs are counted in the stats hash KEYS[4].
+     */
+    private static final RedisScript CLAIM_BATCH = new RedisScript(
+            "local jobs = {} " +
+            "for i = 1, tonumber(ARGV[1]) do " +
+            "  local job = redis.call('RPOPLPUSH', KEYS[1], KEYS[2]) " +
+            "  if not job then break end " +
+            "  redis.call('ZADD', KEYS[3], ARGV[2], KEYS[2] .. '\\n' .. job) " +
+            "  jobs[i] = job " +
+            "end " +
+            "if #jobs > 0 then redis.call('HINCRBY', KEYS[4], 'claimed', #jobs) end " +
+            "return jobs");
+
+    /**
+     * Moves up to ARGV[1] jobs from the priority levels KEYS[1], KEYS[2] and KEYS[3] to
+     * the in-process queue KEYS[4] and leases each of them until ARGV[2] in KEYS[5]. The
+     * level of every job is picked among the levels holding jobs in proportion to their
+     * weights ARGV[3], ARGV[4] and ARGV[5], with a Park-Miller generator seeded by ARGV[6]
+     * so that the script stays deterministic. Claimed jobs are counted in KEYS[6].
+     */
+    private static final RedisScript CLAIM_WEIGHTED = new RedisScript(
+            "local jobs = {} " +
+            "local seed = tonumber(ARGV[6]) " +
+            "local lengths = {redis.call('LLEN', KEYS[1]), redis.call('LLEN', KEYS[2]), redis.call('LLEN', KEYS[3])} " +
+            "for i = 1, tonumber(ARGV[1]) do " +
+            "  local total = 0 " +
+            "  for level = 1, 3 do " +
+            "    if lengths[level] > 0 then total = total + tonumber(ARGV[2 + level]) end " +
+            "  end " +
+            "  if total == 0 then break end " +
+            "  seed = (seed * 16807) % 2147483647 " +
+            "  local pick = seed % total " +
+            "  local level = 1 " +
+            "  while lengths[level] == 0 or pick >= tonumber(ARGV[2 + level]) do " +
+            "    if lengths[level] > 0 then pick = pick - tonumber(ARGV[2 + level]) end " +
+            "    level = level + 1 " +
+            "  end " +
+            "  local job = redis.call('RPOPLPUSH', KEYS[level], KEYS[4]) " +
+            "  lengths[level] = lengths[level] - 1 " +
+            "  redis.call('ZADD', KEYS[5], ARGV[2], KEYS[4] .. '\\n' .. job) " +
+            "  jobs[i] = job " +
+            "end " +
+            "if #jobs > 0 then redis.call('HINCRBY', KEYS[6], 'claimed', #jobs) end " +
+            "return jobs");
+
+    /**
+     * Removes every job in ARGV from the in-process queue KEYS[1] along with its lease
+     * in KEYS[2] and counts the jobs which were still in process as succeeded in the
+     * stats hash KEYS[3].
+     */
+    private static final RedisScript ACK = new RedisScript(
+            "local acked = 0 " +
+            "for i = 1, #ARGV do " +
+            "  redis.call('ZREM', KEYS[2], KEYS[1] .. '\\n' .. ARGV[i]) " +
+            "  acked = acked + redis.call('LREM', KEYS[1], -1, ARGV[i]) " +
+            "end " +
+            "if acked > 0 then redis.call('HINCRBY', KEYS[3], 'succeeded', acked) end " +
+            "return acked");
+
+    /**
+     * Moves every job in ARGV which is still present in the in-process queue KEYS[1]
+     * to the failed jobs queue KEYS[2] and drops its lease from KEYS[3]. Jobs which are
+     * no longer in process are skipped so a job is never recorded as failed twice.
+     * Failed jobs are counted in the stats hash KEYS[4].
+     */
+    private static final RedisScript FAIL = new RedisScript(
+            "local failed = 0 " +
+            "for i = 1, #ARGV do " +
+            "  redis.call('ZREM', KEYS[3], KEYS[1] .. '\\n' .. ARGV[i]) " +
+            "  if redis.call('LREM', KEYS[1], -1, ARGV[i]) > 0 then " +
+            "    redis.call('LPUSH', KEYS[2], ARGV[i]) " +
+            "    failed = failed + 1 " +
+            "  end " +
+            "end " +
+            "if failed > 0 then redis.call('HINCRBY', KEYS[4], 'failed', failed) end " +
+            "return failed");
+
+    /**
+     * Returns up to ARGV[2] jobs whose lease in KEYS[1] expired at or before ARGV[1] to
+     * the list of their level, the queue KEYS[2] or the HIGH and LOW lists KEYS[4] and KEYS[5].
+     * A lease names the in-process queue holding the job, so only the in-process queues of
+     * expired jobs are touched. Returned jobs are pushed to the end of the list from which
+     * jobs are claimed so they are redelivered first. Expired leases are counted in the
+     * stats hash KEYS[3].
+     */
+    private static final RedisScript REAP_LEASES = new RedisScript(HOME +
+            "local expired = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2])) " +
+            "for i = 1, #expired do " +
+            "  local lease = expired[i] " +
+            "  local separator = string.find(lease, '\\n', 1, true) " +
+            "  local job = string.sub(lease, separator + 1) " +
+            "  redis.call('ZREM', KEYS[1], lease) " +
+            "  if redis.call('LREM', string.sub(lease, 1, separator - 1), -1, job) > 0 then " +
+            "    redis.call('RPUSH', home(job, KEYS[2], KEYS[4], KEYS[5]), job) " +
+            "  end " +
+            "end " +
+            "if #expired > 0 then redis.call('HINCRBY', KEYS[3], 'expired', #expired) end " +
+            "return #expired");
+
+    /**
+     * Returns up to ARGV[1] jobs from the list KEYS[1] holding in-process jobs of an earlier
+     * run of a worker to the end of the list of their level from which jobs are claimed,
+     * the queue KEYS[2] or the HIGH and LOW lists KEYS[5] and KEYS[6], oldest claim last so
+     * it is redelivered first, and drops their leases, held in KEYS[3] under the in-process
+     * queue ARGV[2]. Returned jobs are counted in the stats hash KEYS[4].
+     */
+    private static final RedisScript RECOVER = new RedisScript(HOME +
+            "local recovered = 0 " +
+            "for i = 1, tonumber(ARGV[1]) do " +
+            "  local job = redis.call('LPOP', KEYS[1]) " +
+            "  if not job then break end " +
+            "  redis.call('ZREM', KEYS[3], ARGV[2] .. '\\n' .. job) " +
+            "  redis.call('RPUSH', home(job, KEYS[2], KEYS[5], KEYS[6]), job) " +
+            "  recovered = recovered + 1 " +
+            "end " +
+            "if recovered > 0 then redis.call('HINCRBY', KEYS[4], 'recovered', recovered) end " +
+            "return recovered");
+
+    /**
+     * Renames the in-process queue KEYS[1] to KEYS[2] unless it is empty or KEYS[2] still
+     * holds jobs detached earlier.
+     */
+    private static final RedisScript DETACH = new RedisScript(
+            "if redis.call('EXISTS', KEYS[2]) == 1 or redis.call('EXISTS', KEYS[1]) == 0 then return 0 end " +
+            "redis.call('RENAME', KEYS[1], KEYS[2]) " +
+            "return 1");
+
+    /**
+     * Returns up to ARGV[1] jobs from the in-process queue KEYS[1] of a dead worker to the
+     * end of the list of their level, the queue KEYS[2] or the HIGH and LOW lists KEYS[7]
+     * and KEYS[8], and drops their leases from KEYS[3], provided the worker
+     * was last seen in the registry KEYS[5] before ARGV[2] and the lock KEYS[6] is free or
+     * held by ARGV[3]. The lock is taken or extended by ARGV[4] millis. Once the in-process
+     * queue is empty the worker leaves the registry and the lock is released. Returned
+     * jobs are counted in the stats hash KEYS[4]. Returns -1 if nothing may be reclaimed.
+     */
+    private static final RedisScript RECLAIM = new RedisScript(HOME +
+            "local lock = redis.call('GET', KEYS[6]) " +
+            "if lock and lock ~= ARGV[3] then return -1 end " +
+            "local seen = redis.call('ZSCORE', KEYS[5], KEYS[1]) " +
+            "if seen and tonumber(seen) >= tonumber(ARGV[2]) then " +
+            "  if lock then redis.call('DEL', KEYS[6]) end " +
+            "  return -1 " +
+            "end " +
+            "redis.call('SET', KEYS[6], ARGV[3], 'PX', ARGV[4]) " +
+            "local reclaimed = 0 " +
+            "for i = 1, tonumber(ARGV[1]) do " +
+            "  local job = redis.call('LPOP', KEYS[1]) " +
+            "  if not job then break end " +
+            "  redis.call('ZREM', KEYS[3], KEYS[1] .. '\\n' .. job) " +
+            "  redis.call('RPUSH', home(job, KEYS[2], KEYS[7], KEYS[8]), job) " +
+            "  reclaimed = reclaimed + 1 " +
+            "end " +
+            "if reclaimed > 0 then redis.call('HINCRBY', KEYS[4], 'reclaimed', reclaimed) end " +
+            "if reclaimed < tonumber(ARGV[1]) then " +
+            "  redis.call('ZREM', KEYS[5], KEYS[1]) " +
+            "  redis.call('DEL', KEYS[6]) " +
+            "end " +
+            "return reclaimed");
+
+    /**
+     * Moves failed jobs from the in-process queue KEYS[1] to the delayed set KEYS[2] and
+     * drops their leases from KEYS[3]. ARGV holds triples of the job as it is in process,
+     * the job as it is to be retried and the epoch millis at which it becomes due.
+     * Retried jobs are counted in the stats hash KEYS[4].
+     */
+    private static final RedisScript RETRY = new RedisScript(
+            "local retried = 0 " +
+            "for i = 1, #ARGV, 3 do " +
+            "  redis.call('ZREM', KEYS[3], KEYS[1] .. '\\n' .. ARGV[i]) " +
+            "  if redis.call('LREM', KEYS[1], -1, ARGV[i]) > 0 then " +
+            "    redis.call('ZADD', KEYS[2], ARGV[i + 2], ARGV[i + 1]) " +
+            "    retried = retried + 1 " +
+            "  end " +
+            "end " +
+            "if retried > 0 then redis.call('HINCRBY', KEYS[4], 'retried', retried) end " +
+            "return retried");
+
+    /**
+     * Returns every job in ARGV which is still present in the in-process queue KEYS[1] to
+     * the end of the list of its level from which jobs are claimed, the queue KEYS[3] or the
+     * HIGH and LOW lists KEYS[4] and KEYS[5], and drops its lease from KEYS[2]. Jobs are
+     * pushed last to first so that the first is claimed first. Nothing is counted.
+     */
+    private static final RedisScript REQUEUE = new RedisScript(HOME +
+            "local requeued = 0 " +
+            "for i = #ARGV, 1, -1 do " +
+            "  redis.call('ZREM', KEYS[2], KEYS[1] .. '\\n' .. ARGV[i]) " +
+            "  if redis.call('LREM', KEYS[1], -1, ARGV[i]) > 0 then " +
+            "    redis.call('RPUSH', home(ARGV[i], KEYS[3], KEYS[4], KEYS[5]), ARGV[i]) " +
+            "    requeued = requeued + 1 " +
+            "  end " +
+            "end " +
+            "return requeued");
+
+    /**
+     * Moves up to ARGV[2] jobs which are due at ARGV[1] from the delayed set KEYS[1] to
+     * the end of the list of their level from which jobs are claimed, the queue KEYS[2]
+     * or the HIGH and LOW lists KEYS[3] and KEYS[4]. Returns the number of jobs moved and
+     * the due time of the earliest job still waiting, or -1 if none is.
+     */
+    private static final RedisScript PROMOTE_DUE = new RedisScript(HOME +
+            "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2])) " +
+            "for i = 1, #due do " +
+            "  redis.call('ZREM', KEYS[1], due[i]) " +
+            "  redis.call('RPUSH', home(due[i], KEYS[2], KEYS[3], KEYS[4]), due[i]) " +
+            "end " +
+            "local upcoming = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES') " +
+            "return {#due, upcoming[2] or '-1'}");
+
+    /**
+     * Reads the length of the queue KEYS[1] along with its priority levels KEYS[5] and
+     * KEYS[6], the number of leases in KEYS[2], the number of delayed jobs in KEYS[3] and
+     * all counters of the stats hash KEYS[4] at once. Every command is O(1) in the size
+     * of the queue.
+     */
+    private static final RedisScript READ_STATS = new RedisScript(
+            "return {redis.call('LLEN', KEYS[1]) + redis.call('LLEN', KEYS[5]) + redis.call('LLEN', KEYS[6]), " +
+            "redis.call('ZCARD', KEYS[2]), redis.call('ZCARD', KEYS[3]), redis.call('HGETALL', KEYS[4])}");
+
+    private static final byte[] LEASE_SEPARATOR = { '\n' };
+
+    private static final long PRIORITY_POLL_INTERVAL = 100L;
 
     private final String queue;
 
-    private final Jedis jedis;
+    private final byte[] queueKey;
+
+    private final RedisConnectionPool pool;
 
     public RedisQueueManager(String queue) {
+        this(queue, RedisConnectionPool.forQueue(queue));
+    }
+
+    /**
+     * @param pool connections to the Redis server holding queue
+     */
+    RedisQueueManager(String queue, RedisConnectionPool pool) {
         this.queue = queue;
-        Map<String, String> configuration = ConfigurationManager.getInstance().get(queue);
-        this.jedis = new Jedis(configuration.get("REDIS_HOST"));
+        this.queueKey = SafeEncoder.encode(queue);
+        this.pool = pool;
+    }
+
+    public byte[] get() {
+        try(Jedis jedis = pool.getResource()) {
+            return jedis.lpop(queueKey);
+        }
     }
 
-    public String get() {
-        return jedis.lpop(queue);
+    public byte[] brpoplpush(String destination, int timeout) {
+        try(Jedis jedis = pool.getBlockingResource()) {
+            return jedis.brpoplpush(queueKey, SafeEncoder.encode(destination), timeout);
+        }
     }
 
-    public String brpoplpush(String destination, int timeout) {
-        return jedis.brpoplpush(queue, destination, timeout);
+    /**
+     * Submits jobs to the queue and counts them as submitted in a single transaction.
+     * Jobs are pushed to the end of the queue opposite to the one from which they are
+     * claimed, hence the queue is FIFO.
+     *
+     * @param jobs encoded jobs in the order they are to be processed
+     */
+    @Override
+    public void enqueue(Collection<byte[]> jobs) {
+        if(jobs.isEmpty()) {
+            return;
+        }
+        try(Jedis jedis = pool.getResource()) {
+            Transaction transaction = jedis.multi();
+            transaction.lpush(queueKey, jobs.toArray(new byte[jobs.size()][]));
+            transaction.hincrBy(getStatsName(), "submitted", jobs.size());
+            transaction.exec();
+        }
+    }
+
+    /**
+     * Adds jobs to the delayed set, ordered by due time, and counts them as submitted in
+     * a single transaction. Promoting due jobs costs O(log N) in the number of jobs
+     * waiting, so millions can be scheduled.
+     */
+    @Override
+    public void schedule(Collection<byte[]> jobs, long dueAt) {
+        if(jobs.isEmpty()) {
+            return;
+        }
+        Map<byte[], Double> scheduled = new HashMap<>();
+        for(byte[] job : jobs) {
+            scheduled.put(job, (double) dueAt);
+        }
+        try(Jedis jedis = pool.getResource()) {
+            Transaction transaction = jedis.multi();
+            transaction.zadd(SafeEncoder.encode(getDelayedQueueName()), scheduled);
+            transaction.hincrBy(getStatsName(), "submitted", jobs.size());
+            transaction.exec();
+        }
+    }
+
+    /**
+     * Submits jobs to the list of priority, NORMAL jobs go to the queue itself.
+     */
+    @Override
+    public void enqueue(Priority priority, Collection<byte[]> jobs) {
+        if(priority == Priority.NORMAL) {
+            enqueue(jobs);
+            return;
+        }
+        if(jobs.isEmpty()) {
+            return;
+        }
+        try(Jedis jedis = pool.getResource()) {
+            Transaction transaction = jedis.multi();
+            transaction.lpush(SafeEncoder.encode(getPriorityQueueName(priority)), jobs.toArray(new byte[jobs.size()][]));
+            transaction.hincrBy(getStatsName(), "submitted", jobs.size());
+            transaction.exec();
+        }
+    }
+
+    /**
+     * Atomically moves up to batchSize jobs from the queue to the destination queue
+     * and returns them in the order they were dequeued. Every claimed job is leased
+     * until leaseDeadline, after which it is returned to the queue unless the lease is
+     * extended or the job is acknowledged. If the queue is empty then this method blocks
+     * for at most timeout seconds waiting for a single job, an empty list is returned
+     * if none arrives within that time.
+     *
+     * Jobs are always claimed with a single script first, which moves and leases them
+     * atomically. Only if the queue is empty does the claim block with BRPOPLPUSH, as
+     * scripts cannot block, and lease the job it receives in a second round trip. A worker
+     * dying between the two leaves that job in its in-process queue without a lease, from
+     * which it is recovered once the worker restarts, see RECOVERY_MODE, or reclaimed by
+     * another worker once the worker is found dead, see WORKER_TIMEOUT.
+     *
+     * @param destination in-process queue to which claimed jobs are moved
+     * @param batchSize maximum number of jobs claimed in one round trip
+     * @param timeout seconds to block if the queue is empty, 0 to return right away
+     * @param leaseDeadline epoch millis at which the lease of claimed jobs expires
+     * @return claimed jobs, never null
+     */
+    @Override
+    public List<byte[]> claim(String destination, int batchSize, int timeout, long leaseDeadline) {
+        List<byte[]> claimed = claimNow(destination, Math.max(1, batchSize), leaseDeadline);
+        if(!claimed.isEmpty() || timeout <= 0) {
+            return claimed;
+        }
+
+        byte[] job = brpoplpush(destination, timeout);
+        if(job == null) {
+            return Collections.emptyList();
+        }
+        try(Jedis jedis = pool.getResource()) {
+            Transaction transaction = jedis.multi();
+            transaction.zadd(SafeEncoder.encode(getLeasesName()), leaseDeadline, lease(destination, job));
+            transaction.hincrBy(getStatsName(), "claimed", 1L);
+            transaction.exec();
+        }
+        return Collections.singletonList(job);
+    }
+
+    /**
+     * Claims up to batchSize jobs across the priority levels with a single round trip,
+     * picking the level of every job by weight. BRPOPLPUSH cannot wait on several lists,
+     * hence if every level is empty the levels are polled every 100ms until timeout.
+     */
+    @Override
+    public List<byte[]> claim(String destination, int batchSize, int timeout, long leaseDeadline, int[] weights) {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        try {
+            while(true) {
+                List<byte[]> claimed = claimNow(destination, Math.max(1, batchSize), leaseDeadline, weights);
+                if(!claimed.isEmpty() || System.currentTimeMillis() >= deadline) {
+                    return claimed;
+                }
+                Thread.sleep(Math.min(PRIORITY_POLL_INTERVAL, Math.max(1L, deadline - System.currentTimeMillis())));
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Claims up to batchSize jobs with a single round trip without waiting for jobs if the
+     * queue is empty.
+     *
+     * @return claimed jobs in the order they were dequeued, empty if the queue is empty
+     */
+    List<byte[]> claimNow(String destination, int batchSize, long leaseDeadline) {
+        List<?> jobs;
+        try(Jedis jedis = pool.getResource()) {
+            jobs = (List<?>) CLAIM_BATCH.eval(jedis,
+                    Arrays.asList(queue, destination, getLeasesName(), getStatsName()),
+                    Arrays.asList(RedisScript.arg(batchSize), RedisScript.arg(leaseDeadline)));
+        }
+        List<byte[]> claimed = new ArrayList<>(jobs.size());
+        for(Object job : jobs) {
+            claimed.add((byte[]) job);
+        }
+        return claimed;
+    }
+
+    /**
+     * Claims up to batchSize jobs across the priority levels with a single round trip
+     * without waiting for jobs if every level is empty.
+     *
+     * @param weights weights of HIGH, NORMAL and LOW
+     * @return claimed jobs in the order they were dequeued, empty if every level is empty
+     */
+    List<byte[]> claimNow(String destination, int batchSize, long leaseDeadline, int[] weights) {
+        List<?> jobs;
+        try(Jedis jedis = pool.getResource()) {
+            jobs = (List<?>) CLAIM_WEIGHTED.eval(jedis,
+                    Arrays.asList(getPriorityQueueName(Priority.HIGH), queue, getPriorityQueueName(Priority.LOW),
+                            destination, getLeasesName(), getStatsName()),
+                    Arrays.asList(RedisScript.arg(batchSize), RedisScript.arg(leaseDeadline),
+                            RedisScript.arg(weights[0]), RedisScript.arg(weights[1]), RedisScript.arg(weights[2]),
+                            RedisScript.arg(ThreadLocalRandom.current().nextInt(1, 2147483647))));
+        }
+        List<byte[]> claimed = new ArrayList<>(jobs.size());
+        for(Object job : jobs) {
+            claimed.add((byte[]) job);
+        }
+        return claimed;
+    }
+
+    /**
+     * Extends the leases of in-process jobs until leaseDeadline with a single command.
+     * Leases which no longer exist, because the job was acknowledged or already
+     * returned to the queue, are not recreated.
+     *
+     * @param inProcessQueue in-process queue of the worker holding the jobs
+     * @param jobs raw payloads of the jobs being processed
+     * @param leaseDeadline epoch millis at which the extended leases expire
+     */
+    @Override
+    public void extendLeases(String inProcessQueue, Collection<byte[]> jobs, long leaseDeadline) {
+        if(jobs.isEmpty()) {
+            return;
+        }
+        Map<byte[], Double> leases = new HashMap<>();
+        for(byte[] job : jobs) {
+            leases.put(lease(inProcessQueue, job), (double) leaseDeadline);
+        }
+        try(Jedis jedis = pool.getResource()) {
+            jedis.zadd(SafeEncoder.encode(getLeasesName()), leases, ZAddParams.zAddParams().xx());
+        }
+    }
+
+    /**
+     * Returns up to limit jobs whose lease expired at or before now back to the queue.
+     * Expired leases are found through the lease index ordered by deadline, so the cost
+     * is proportional to the number of expired jobs and not to the number of workers.
+     *
+     * @return number of expired leases processed
+     */
+    @Override
+    public int reapExpiredLeases(long now, int limit) {
+        try(Jedis jedis = pool.getResource()) {
+            Object reaped = REAP_LEASES.eval(jedis,
+                    Arrays.asList(getLeasesName(), queue, getStatsName(), getPriorityQueueName(Priority.HIGH),
+                            getPriorityQueueName(Priority.LOW)),
+                    Arrays.asList(RedisScript.arg(now), RedisScript.arg(limit)));
+            return ((Long) reaped).intValue();
+        }
+    }
+
+    /**
+     * Returns up to limit jobs of the in-process queue to the queue in one script, which
+     * costs a single round trip per batch and keeps Redis responsive between batches.
+     */
+    @Override
+    public int recoverInProcess(String inProcessQueue, int limit) {
+        return recover(inProcessQueue, inProcessQueue, limit);
+    }
+
+    @Override
+    public boolean detachInProcess(String inProcessQueue) {
+        try(Jedis jedis = pool.getResource()) {
+            Object detached = DETACH.eval(jedis, Arrays.asList(inProcessQueue, getRecoveryName(inProcessQueue)),
+                    Collections.emptyList());
+            return ((Long) detached) == 1L;
+        }
+    }
+
+    @Override
+    public int recoverDetached(String inProcessQueue, int limit) {
+        return recover(getRecoveryName(inProcessQueue), inProcessQueue, limit);
+    }
+
+    private int recover(String list, String inProcessQueue, int limit) {
+        try(Jedis jedis = pool.getResource()) {
+            Object recovered = RECOVER.eval(jedis,
+                    Arrays.asList(list, queue, getLeasesName(), getStatsName(), getPriorityQueueName(Priority.HIGH),
+                            getPriorityQueueName(Priority.LOW)),
+                    Arrays.asList(RedisScript.arg(limit), SafeEncoder.encode(inProcessQueue)));
+            return ((Long) recovered).intValue();
+        }
+    }
+
+    @Override
+    public void heartbeat(String inProcessQueue, long now) {
+        try(Jedis jedis = pool.getResource()) {
+            jedis.zadd(getWorkersName(), now, inProcessQueue);
+        }
+    }
+
+    @Override
+    public List<String> findDeadWorkers(long staleBefore, int limit) {
+        try(Jedis jedis = pool.getResource()) {
+            return new ArrayList<>(jedis.zrangeByScore(getWorkersName(), Double.NEGATIVE_INFINITY,
+                    staleBefore - 1, 0, limit));
+        }
+    }
+
+    /**
+     * Reclaims a batch of jobs of a dead worker in one script. Batches are small so that
+     * Redis stays responsive to live workers while a large in-process queue is reclaimed.
+     */
+    @Override
+    public int reclaim(String inProcessQueue, long staleBefore, String owner, long lockTimeout, int limit) {
+        try(Jedis jedis = pool.getResource()) {
+            Object reclaimed = RECLAIM.eval(jedis,
+                    Arrays.asList(inProcessQueue, queue, getLeasesName(), getStatsName(), getWorkersName(),
+                            getReclaimLockName(inProcessQueue), getPriorityQueueName(Priority.HIGH),
+                            getPriorityQueueName(Priority.LOW)),
+                    Arrays.asList(RedisScript.arg(limit), RedisScript.arg(staleBefore), SafeEncoder.encode(owner),
+                            RedisScript.arg(lockTimeout)));
+            return ((Long) reclaimed).intValue();
+        }
+    }
+
+    /**
+     * Removes successfully processed jobs from the in-process queue and counts them as
+     * succeeded. All removals happen in one script so acknowledging a batch costs a single
+     * round trip. Jobs are searched from the tail of the in-process queue where the oldest
+     * claims are.
+     *
+     * @param inProcessQueue in-process queue of the worker which processed the jobs
+     * @param jobs raw payloads of the processed jobs
+     */
+    @Override
+    public void ack(String inProcessQueue, Collection<byte[]> jobs) {
+        try(Jedis jedis = pool.getResource()) {
+            ACK.eval(jedis, Arrays.asList(inProcessQueue, getLeasesName(), getStatsName()), new ArrayList<>(jobs));
+        }
+    }
+
+    /**
+     * Atomically moves jobs which could not be processed from the in-process queue
+     * to the queue:failed list.
+     *
+     * @param inProcessQueue in-process queue of the worker which processed the jobs
+     * @param jobs raw payloads of the failed jobs
+     */
+    @Override
+    public void fail(String inProcessQueue, Collection<byte[]> jobs) {
+        try(Jedis jedis = pool.getResource()) {
+            FAIL.eval(jedis, Arrays.asList(inProcessQueue, getFailedQueueName(), getLeasesName(), getStatsName()),
+                    new ArrayList<>(jobs));
+        }
+    }
+
+    /**
+     * Atomically moves failed jobs from the in-process queue to the delayed set, from
+     * which they are promoted back to the queue once their backoff has elapsed.
+     *
+     * @param inProcessQueue in-process queue of the worker which processed the jobs
+     * @param retries failed jobs along with their next attempt
+     */
+    @Override
+    public void retry(String inProcessQueue, Collection<Retry> retries) {
+        List<byte[]> args = new ArrayList<>(retries.size() * 3);
+        for(Retry retry : retries) {
+            args.add(retry.getJob());
+            args.add(retry.getNextAttempt());
+            args.add(RedisScript.arg(retry.getDueAt()));
+        }
+        try(Jedis jedis = pool.getResource()) {
+            RETRY.eval(jedis, Arrays.asList(inProcessQueue, getDelayedQueueName(), getLeasesName(), getStatsName()),
+                    args);
+        }
+    }
+
+    /**
+     * Returns unprocessed jobs to the lists of their levels in one script, they are
+     * claimed again before any job waiting in the queue.
+     */
+    @Override
+    public int requeue(String inProcessQueue, Collection<byte[]> jobs) {
+        if(jobs.isEmpty()) {
+            return 0;
+        }
+        try(Jedis jedis = pool.getResource()) {
+            Object requeued = REQUEUE.eval(jedis,
+                    Arrays.asList(inProcessQueue, getLeasesName(), queue, getPriorityQueueName(Priority.HIGH),
+                            getPriorityQueueName(Priority.LOW)),
+                    new ArrayList<>(jobs));
+            return ((Long) requeued).intValue();
+        }
+    }
+
+    /**
+     * Moves up to limit delayed jobs which are due at now back to the queue.
+     *
+     * @return number of jobs moved in the first element and the epoch millis at which the
+     *         next delayed job becomes due in the second, -1 if there are none
+     */
+    @Override
+    public long[] promoteDueJobs(long now, int limit) {
+        List<?> promoted;
+        try(Jedis jedis = pool.getResource()) {
+            promoted = (List<?>) PROMOTE_DUE.eval(jedis,
+                    Arrays.asList(getDelayedQueueName(), queue, getPriorityQueueName(Priority.HIGH),
+                            getPriorityQueueName(Priority.LOW)),
+                    Arrays.asList(RedisScript.arg(now), RedisScript.arg(limit)));
+        }
+        return new long[] {
+                ((Long) promoted.get(0)).longValue(),
+                (long) Double.parseDouble(SafeEncoder.encode((byte[]) promoted.get(1)))
+        };
+    }
+
+    /**
+     * Reads the statistics of the queue in a single round trip. Reading costs the same
+     * whatever the size of the queue, so dashboards may poll it frequently.
+     */
+    @Override
+    public QueueStats getStats() {
+        List<?> stats;
+        try(Jedis jedis = pool.getResource()) {
+            stats = (List<?>) READ_STATS.eval(jedis,
+                    Arrays.asList(queue, getLeasesName(), getDelayedQueueName(), getStatsName(),
+                            getPriorityQueueName(Priority.HIGH), getPriorityQueueName(Priority.LOW)),
+                    Collections.emptyList());
+        }
+
+        Map<String, Long> counters = new HashMap<>();
+        List<?> hash = (List<?>) stats.get(3);
+        for(int i = 0; i + 1 < hash.size(); i += 2) {
+            counters.put(SafeEncoder.encode((byte[]) hash.get(i)),
+                    Long.parseLong(SafeEncoder.encode((byte[]) hash.get(i + 1))));
+        }
+        return new QueueStats(queue, (Long) stats.get(0), (Long) stats.get(1), (Long) stats.get(2), counters);
+    }
+
+    /**
+     * Appends events to the history of the queue with a single pipelined round trip.
+     * Every bucket is a sorted set of events scored by time which expires as a whole,
+     * so old history is dropped by Redis without any cleanup sweep. Buckets are trimmed
+     * to bucketLimit events which bounds the memory of a bucket whatever the rate of jobs.
+     */
+    @Override
+    public void appendHistory(Collection<JobEvent> events, long bucketMillis, long retentionMillis, int bucketLimit) {
+        Map<Long, Map<String, Double>> buckets = new TreeMap<>();
+        for(JobEvent event : events) {
+            buckets.computeIfAbsent(JobHistory.bucketStart(event.getTimestamp(), bucketMillis), (start) -> new HashMap<>())
+                    .put(event.encode(), (double) event.getTimestamp());
+        }
+        if(buckets.isEmpty()) {
+            return;
+        }
+
+        try(Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for(Map.Entry<Long, Map<String, Double>> bucket : buckets.entrySet()) {
+                String key = getHistoryName(bucket.getKey());
+                pipeline.zadd(key, bucket.getValue());
+                pipeline.pexpireAt(key, bucket.getKey() + bucketMillis + retentionMillis);
+                pipeline.zremrangeByRank(key, 0L, -(bucketLimit + 1L));
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Reads a page of the history. Events to skip are counted per bucket with ZCOUNT in
+     * one pipelined round trip, then only the buckets holding the page are read.
+     */
+    @Override
+    public List<JobEvent> readHistory(long from, long to, int offset, int limit, long bucketMillis) {
+        List<JobEvent> page = new ArrayList<>();
+        if(from > to || limit <= 0) {
+            return page;
+        }
+
+        List<String> buckets = new ArrayList<>();
+        for(long start = JobHistory.bucketStart(from, bucketMillis); start <= to; start += bucketMillis) {
+            buckets.add(getHistoryName(start));
+        }
+
+        try(Jedis jedis = pool.getResource()) {
+            List<Response<Long>> counts = new ArrayList<>(buckets.size());
+            if(offset > 0) {
+                Pipeline pipeline = jedis.pipelined();
+                for(String bucket : buckets) {
+                    counts.add(pipeline.zcount(bucket, from, to));
+                }
+                pipeline.sync();
+            }
+
+            long skip = offset;
+            for(int i = 0; i < buckets.size() && page.size() < limit; i++) {
+                if(offset > 0) {
+                    long count = counts.get(i).get();
+                    if(skip >= count) {
+                        skip -= count;
+                        continue;
+                    }
+                }
+                for(String event : jedis.zrangeByScore(buckets.get(i), from, to, (int) skip, limit - page.size())) {
+                    page.add(JobEvent.decode(event));
+                }
+                skip = 0;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @return name of the sorted set holding the events of the history bucket starting at bucketStart
+     */
+    public String getHistoryName(long bucketStart) {
+        return format("%s:history:%d", queue, bucketStart);
+    }
+
+    /**
+     * @return name of the list holding the jobs of priority, the queue itself for NORMAL
+     */
+    public String getPriorityQueueName(Priority priority) {
+        return priority == Priority.NORMAL ? queue : format("%s:priority:%s", queue, priority.name().toLowerCase());
+    }
+
+    /**
+     * @return name of the hash counting jobs through the stages of their lifecycle
+     */
+    public String getStatsName() {
+        return format("%s:stats", queue);
+    }
+
+    /**
+     * @return name of the sorted set holding jobs waiting for their next attempt
+     */
+    public String getDelayedQueueName() {
+        return format("%s:delayed", queue);
+    }
+
+    /**
+     * @return name of the sorted set indexing leases of in-process jobs by deadline
+     */
+    public String getLeasesName() {
+        return format("%s:leases", queue);
+    }
+
+    /**
+     * @return name of the sorted set of the in-process queues of workers by the time they
+     *         were last seen alive
+     */
+    public String getWorkersName() {
+        return format("%s:workers", queue);
+    }
+
+    /**
+     * @return name of the lock held by the worker reclaiming the in-process queue of a
+     *         dead worker
+     */
+    public String getReclaimLockName(String inProcessQueue) {
+        return format("%s:reclaimer", inProcessQueue);
+    }
+
+    /**
+     * @return name of the list holding in-process jobs of an earlier run of a worker which
+     *         were moved aside to be recovered
+     */
+    public String getRecoveryName(String inProcessQueue) {
+        return format("%s:recovery", inProcessQueue);
+    }
+
+    /**
+     * A lease is identified by the in-process queue holding the job followed by the job
+     * itself, which lets the reaper return an expired job without searching for it.
+     */
+    private static byte[] lease(String inProcessQueue, byte[] job) {
+        byte[] inProcessKey = SafeEncoder.encode(inProcessQueue);
+        byte[] lease = new byte[inProcessKey.length + LEASE_SEPARATOR.length + job.length];
+        System.arraycopy(inProcessKey, 0, lease, 0, inProcessKey.length);
+        System.arraycopy(LEASE_SEPARATOR, 0, lease, inProcessKey.length, LEASE_SEPARATOR.length);
+        System.arraycopy(job, 0, lease, inProcessKey.length + LEASE_SEPARATOR.length, job.length);
+        return lease;
+    }
+
+    /**
+     * @return name of the list holding jobs which could not be processed
+     */
+    public String getFailedQueueName() {
+        return format("%s:failed", queue);
+    }
+
+    /**
+     * In-process lists outlive the worker and LREM finds their jobs by content.
+     */
+    @Override
+    public boolean supportsJournal() {
+        return true;
     }
 
     /**
@@ -55,12 +879,19 @@ public class RedisQueueManager implements AutoCloseable {
      *
      * @return Worker id created by incrementing key queue:worker-ids
      */
+    @Override
     public long createWorkerId() {
-        return jedis.incr(format("%s:worker-ids", queue));
+        try(Jedis jedis = pool.getResource()) {
+            return jedis.incr(format("%s:worker-ids", queue));
+        }
     }
 
+    /**
+     * Connections are pooled and shared with other components, hence closing a
+     * RedisQueueManager leaves them open.
+     */
     @Override
     public void close() {
-        jedis.close();
+
     }
-}
\ No newline at end of file
+}
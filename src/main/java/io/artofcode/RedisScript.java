@@ -0,0 +1,81 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Lua script executed atomically on the Redis server. The script is loaded once
+ * and afterwards invoked by its SHA1 digest so that the script body is not sent
+ * over the wire on every call. If the server has lost the script (restart or
+ * SCRIPT FLUSH) it is transparently loaded again.
+ *
+ * Arguments and replies are binary, bulk replies are returned as byte[] and nested
+ * in Lists for multi bulk replies, integer replies are returned as Long.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class RedisScript {
+
+    private final String source;
+
+    private volatile byte[] sha;
+
+    RedisScript(String source) {
+        this.source = source;
+    }
+
+    Object eval(Jedis jedis, List<String> keys, List<byte[]> args) {
+        byte[] digest = sha;
+        if(digest == null) {
+            digest = load(jedis);
+        }
+
+        List<byte[]> binaryKeys = new ArrayList<>(keys.size());
+        for(String key : keys) {
+            binaryKeys.add(SafeEncoder.encode(key));
+        }
+
+        try {
+            return jedis.evalsha(digest, binaryKeys, args);
+        } catch(JedisDataException jde) {
+            if(jde.getMessage() == null || !jde.getMessage().startsWith("NOSCRIPT")) {
+                throw jde;
+            }
+            return jedis.evalsha(load(jedis), binaryKeys, args);
+        }
+    }
+
+    /**
+     * @return argument for eval encoded the way Redis expects numbers and strings
+     */
+    static byte[] arg(Object value) {
+        return SafeEncoder.encode(value.toString());
+    }
+
+    private byte[] load(Jedis jedis) {
+        byte[] digest = jedis.scriptLoad(SafeEncoder.encode(source));
+        sha = digest;
+        return digest;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed job is retried and after how long. The backoff doubles with
+ * every attempt starting at baseDelay and is capped at maxDelay. The actual delay is
+ * picked at random from the upper half of the backoff so that jobs which failed together,
+ * e.g. because a downstream service was unavailable, are not all retried at once.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+class RetryPolicy {
+
+    private final int maxRetries;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelay = Math.max(1L, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+    }
+
+    /**
+     * @param attempt 1 based attempt which failed
+     * @return true if the job may be attempted again
+     */
+    boolean canRetry(int attempt) {
+        return attempt <= maxRetries;
+    }
+
+    /**
+     * @param attempt 1 based attempt which failed
+     * @return milliseconds to wait before the next attempt
+     */
+    long backoff(int attempt) {
+        int doublings = Math.min(Math.max(0, attempt - 1), 62);
+        long backoff = baseDelay << doublings;
+        if(backoff <= 0 || backoff > maxDelay || (backoff >> doublings) != baseDelay) {
+            backoff = maxDelay;
+        }
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+}
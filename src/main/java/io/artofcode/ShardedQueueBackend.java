@@ -0,0 +1,445 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import io.artofcode.config.ConfigurationManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import redis.clients.jedis.Protocol;
+
+/**
+ * A backend which partitions a queue into SHARDS lists, enabled by setting SHARDS above
+ * 1 in the queue's configuration, so that a busy queue is served by more than one Redis
+ * server. Shard i is the list queue:shard:i on the i-th server of SHARD_HOSTS, a comma
+ * separated list of host:port, wrapping around if there are more shards than servers.
+ * Without SHARD_HOSTS every shard lives on REDIS_HOST.
+ *
+ * Every shard is a complete queue of its own, with its own leases, delayed and failed
+ * jobs and statistics on the same server, and is served by a {@link RedisQueueManager}.
+ * A worker keeps one in-process queue per shard, named after its in-process queue.
+ *
+ * Producers spread batches of jobs over the shards round-robin, jobs submitted with a
+ * routing key always go to the same shard and keep their order. Every shard has its own
+ * priority levels, see {@link Priority}. Workers claim from the
+ * shards in turn starting one shard further on every claim, so every shard is drained
+ * at the same pace whatever its backlog. A claim on empty shards polls them every 100ms
+ * until its timeout.
+ *
+ * Claimed jobs are tracked by identity to find their shard, acknowledgements must pass
+ * the very arrays returned by claim(), as workers do. The backend of a queue is therefore
+ * shared by all components of the JVM, see {@link #forQueue(String)}.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public class ShardedQueueBackend implements QueueBackend {
+
+    private static final long POLL_INTERVAL = 100L;
+
+    private static final ConcurrentMap<String, ShardedQueueBackend> backends = new ConcurrentHashMap<>();
+
+    private final String queue;
+
+    private final List<RedisQueueManager> shards;
+
+    // Keeps worker ids and the history of the queue as a whole, on REDIS_HOST
+    private final RedisQueueManager primary;
+
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    private final AtomicInteger nextClaim = new AtomicInteger();
+
+    // Shard of every claimed job, by identity of the array handed to the worker
+    private final ConcurrentMap<byte[], Integer> shardOf = new ConcurrentHashMap<>();
+
+    private final Logger logger = Logger.getLogger(ShardedQueueBackend.class.toString());
+
+    ShardedQueueBackend(String queue) {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        int count = Math.max(1, config.getInt(queue, "SHARDS", 1));
+        List<RedisConnectionPool> servers = servers(queue);
+
+        this.queue = queue;
+        this.primary = new RedisQueueManager(queue);
+        this.shards = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            shards.add(new RedisQueueManager(getShardName(i), servers.get(i % servers.size())));
+        }
+    }
+
+    /**
+     * @return the backend of queue in this JVM, created on first use
+     */
+    public static ShardedQueueBackend forQueue(String queue) {
+        return backends.computeIfAbsent(queue, ShardedQueueBackend::new);
+    }
+
+    private static List<RedisConnectionPool> servers(String queue) {
+        ConfigurationManager config = ConfigurationManager.getInstance();
+        String hosts = config.get(queue).get("SHARD_HOSTS");
+        if(hosts == null || hosts.trim().isEmpty()) {
+            return Collections.singletonList(RedisConnectionPool.forQueue(queue));
+        }
+
+        int defaultPort = config.getInt(queue, "REDIS_PORT", Protocol.DEFAULT_PORT);
+        List<RedisConnectionPool> servers = new ArrayList<>();
+        for(String server : hosts.split(",")) {
+            String[] hostAndPort = server.trim().split(":");
+            try {
+                int port = hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : defaultPort;
+                servers.add(RedisConnectionPool.forServer(hostAndPort[0], port, queue));
+            } catch(NumberFormatException nfe) {
+                throw new RuntimeException(format("Invalid server %s in SHARD_HOSTS of configuration %s",
+                        server, queue), nfe);
+            }
+        }
+        return servers;
+    }
+
+    /**
+     * Submits a batch of jobs to the next shard in turn, in a single round trip.
+     */
+    @Override
+    public void enqueue(Collection<byte[]> jobs) {
+        if(!jobs.isEmpty()) {
+            shards.get(Math.floorMod(nextShard.getAndIncrement(), shards.size())).enqueue(jobs);
+        }
+    }
+
+    /**
+     * Submits jobs to the shard owning routingKey, jobs with the same key are processed
+     * in the order they were submitted.
+     */
+    @Override
+    public void enqueue(String routingKey, Collection<byte[]> jobs) {
+        if(!jobs.isEmpty()) {
+            shards.get(Math.floorMod(routingKey.hashCode(), shards.size())).enqueue(jobs);
+        }
+    }
+
+    /**
+     * Submits a batch of jobs to the list of priority of the next shard in turn.
+     */
+    @Override
+    public void enqueue(Priority priority, Collection<byte[]> jobs) {
+        if(!jobs.isEmpty()) {
+            shards.get(Math.floorMod(nextShard.getAndIncrement(), shards.size())).enqueue(priority, jobs);
+        }
+    }
+
+    /**
+     * Schedules a batch of jobs on the next shard in turn.
+     */
+    @Override
+    public void schedule(Collection<byte[]> jobs, long dueAt) {
+        if(!jobs.isEmpty()) {
+            shards.get(Math.floorMod(nextShard.getAndIncrement(), shards.size())).schedule(jobs, dueAt);
+        }
+    }
+
+    /**
+     * Claims up to batchSize jobs visiting the shards in turn, starting one shard further
+     * than the previous claim. Every shard is visited once with a single round trip until
+     * the batch is full.
+     */
+    @Override
+    public List<byte[]> claim(String destination, int batchSize, int timeout, long leaseDeadline) {
+        return claim(destination, batchSize, timeout, leaseDeadline, null);
+    }
+
+    /**
+     * Claims like {@link #claim(String, int, int, long)}, picking the level of every job
+     * among the levels of the shard visited.
+     */
+    @Override
+    public List<byte[]> claim(String destination, int batchSize, int timeout, long leaseDeadline, int[] weights) {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        try {
+            while(true) {
+                List<byte[]> claimed = claimNow(destination, Math.max(1, batchSize), leaseDeadline, weights);
+                if(!claimed.isEmpty() || System.currentTimeMillis() >= deadline) {
+                    return claimed;
+                }
+                Thread.sleep(Math.min(POLL_INTERVAL, Math.max(1L, deadline - System.currentTimeMillis())));
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param weights weights of HIGH, NORMAL and LOW, null to claim NORMAL jobs only
+     */
+    private List<byte[]> claimNow(String destination, int batchSize, long leaseDeadline, int[] weights) {
+        List<byte[]> claimed = new ArrayList<>(batchSize);
+        int first = nextClaim.getAndIncrement();
+        for(int i = 0; i < shards.size() && claimed.size() < batchSize; i++) {
+            int shard = Math.floorMod(first + i, shards.size());
+            String inProcessQueue = getInprocessName(destination, shard);
+            List<byte[]> jobs = weights == null
+                    ? shards.get(shard).claimNow(inProcessQueue, batchSize - claimed.size(), leaseDeadline)
+                    : shards.get(shard).claimNow(inProcessQueue, batchSize - claimed.size(), leaseDeadline, weights);
+            for(byte[] job : jobs) {
+                shardOf.put(job, shard);
+            }
+            claimed.addAll(jobs);
+        }
+        return claimed;
+    }
+
+    @Override
+    public void extendLeases(String inProcessQueue, Collection<byte[]> jobs, long leaseDeadline) {
+        byShard(jobs, (job) -> job, null).forEach((shard, leased) ->
+                shards.get(shard).extendLeases(getInprocessName(inProcessQueue, shard), leased, leaseDeadline));
+    }
+
+    @Override
+    public int reapExpiredLeases(long now, int limit) {
+        int expired = 0;
+        for(RedisQueueManager shard : shards) {
+            expired += shard.reapExpiredLeases(now, limit);
+        }
+        return expired;
+    }
+
+    /**
+     * Recovers the in-process queue of every shard in turn, up to limit jobs in total.
+     */
+    @Override
+    public int recoverInProcess(String inProcessQueue, int limit) {
+        int recovered = 0;
+        for(int shard = 0; shard < shards.size() && recovered < limit; shard++) {
+            recovered += shards.get(shard).recoverInProcess(getInprocessName(inProcessQueue, shard), limit - recovered);
+        }
+        return recovered;
+    }
+
+    /**
+     * @return whether the in-process queue of any shard was moved aside
+     */
+    @Override
+    public boolean detachInProcess(String inProcessQueue) {
+        boolean detached = false;
+        for(int shard = 0; shard < shards.size(); shard++) {
+            detached |= shards.get(shard).detachInProcess(getInprocessName(inProcessQueue, shard));
+        }
+        return detached;
+    }
+
+    @Override
+    public int recoverDetached(String inProcessQueue, int limit) {
+        int recovered = 0;
+        for(int shard = 0; shard < shards.size() && recovered < limit; shard++) {
+            recovered += shards.get(shard).recoverDetached(getInprocessName(inProcessQueue, shard), limit - recovered);
+        }
+        return recovered;
+    }
+
+    /**
+     * Registers the worker with every shard, each of which tracks the in-process queue the
+     * worker has on it.
+     */
+    @Override
+    public void heartbeat(String inProcessQueue, long now) {
+        for(int shard = 0; shard < shards.size(); shard++) {
+            shards.get(shard).heartbeat(getInprocessName(inProcessQueue, shard), now);
+        }
+    }
+
+    @Override
+    public List<String> findDeadWorkers(long staleBefore, int limit) {
+        Set<String> dead = new LinkedHashSet<>();
+        for(int shard = 0; shard < shards.size() && dead.size() < limit; shard++) {
+            String suffix = getInprocessName("", shard);
+            for(String inProcessQueue : shards.get(shard).findDeadWorkers(staleBefore, limit)) {
+                if(inProcessQueue.endsWith(suffix) && dead.size() < limit) {
+                    dead.add(inProcessQueue.substring(0, inProcessQueue.length() - suffix.length()));
+                }
+            }
+        }
+        return new ArrayList<>(dead);
+    }
+
+    /**
+     * Reclaims up to limit jobs from the in-process queue of the worker on every shard.
+     *
+     * @return number of jobs returned, or -1 if nothing could be reclaimed on any shard
+     */
+    @Override
+    public int reclaim(String inProcessQueue, long staleBefore, String owner, long lockTimeout, int limit) {
+        int reclaimed = -1;
+        for(int shard = 0; shard < shards.size(); shard++) {
+            int batch = shards.get(shard).reclaim(getInprocessName(inProcessQueue, shard), staleBefore,
+                    owner, lockTimeout, limit);
+            if(batch >= 0) {
+                reclaimed = Math.max(reclaimed, 0) + batch;
+            }
+        }
+        return reclaimed;
+    }
+
+    @Override
+    public void ack(String inProcessQueue, Collection<byte[]> jobs) {
+        byShard(jobs, (job) -> job, "acknowledgements").forEach((shard, acked) ->
+                shards.get(shard).ack(getInprocessName(inProcessQueue, shard), acked));
+        forget(jobs, (job) -> job);
+    }
+
+    @Override
+    public void fail(String inProcessQueue, Collection<byte[]> jobs) {
+        byShard(jobs, (job) -> job, "failures").forEach((shard, failed) ->
+                shards.get(shard).fail(getInprocessName(inProcessQueue, shard), failed));
+        forget(jobs, (job) -> job);
+    }
+
+    @Override
+    public void retry(String inProcessQueue, Collection<Retry> retries) {
+        byShard(retries, Retry::getJob, "retries").forEach((shard, retried) ->
+                shards.get(shard).retry(getInprocessName(inProcessQueue, shard), retried));
+        forget(retries, Retry::getJob);
+    }
+
+    @Override
+    public int requeue(String inProcessQueue, Collection<byte[]> jobs) {
+        int requeued = 0;
+        for(Map.Entry<Integer, List<byte[]>> returned : byShard(jobs, (job) -> job, "requeues").entrySet()) {
+            requeued += shards.get(returned.getKey()).requeue(getInprocessName(inProcessQueue, returned.getKey()),
+                    returned.getValue());
+        }
+        forget(jobs, (job) -> job);
+        return requeued;
+    }
+
+    @Override
+    public long[] promoteDueJobs(long now, int limit) {
+        long promoted = 0L;
+        long nextDue = -1L;
+        for(RedisQueueManager shard : shards) {
+            long[] result = shard.promoteDueJobs(now, limit);
+            promoted += result[0];
+            if(result[1] >= 0 && (nextDue < 0 || result[1] < nextDue)) {
+                nextDue = result[1];
+            }
+        }
+        return new long[] { promoted, nextDue };
+    }
+
+    /**
+     * Reads the statistics of every shard, in one round trip per shard, and adds them up.
+     */
+    @Override
+    public QueueStats getStats() {
+        List<QueueStats> parts = new ArrayList<>(shards.size());
+        for(RedisQueueManager shard : shards) {
+            parts.add(shard.getStats());
+        }
+        return QueueStats.sum(queue, parts);
+    }
+
+    @Override
+    public void appendHistory(Collection<JobEvent> events, long bucketMillis, long retentionMillis, int bucketLimit) {
+        primary.appendHistory(events, bucketMillis, retentionMillis, bucketLimit);
+    }
+
+    @Override
+    public List<JobEvent> readHistory(long from, long to, int offset, int limit, long bucketMillis) {
+        return primary.readHistory(from, to, offset, limit, bucketMillis);
+    }
+
+    @Override
+    public long createWorkerId() {
+        return primary.createWorkerId();
+    }
+
+    /**
+     * @return number of shards of the queue
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return name of the list holding the jobs of shard
+     */
+    public String getShardName(int shard) {
+        return format("%s:shard:%d", queue, shard);
+    }
+
+    /**
+     * @return name of the in-process queue of a worker for the jobs claimed from shard
+     */
+    public String getInprocessName(String inProcessQueue, int shard) {
+        return format("%s:shard:%d", inProcessQueue, shard);
+    }
+
+    /**
+     * State is shared by all components of the queue in this JVM, hence closing a
+     * backend leaves it intact.
+     */
+    @Override
+    public void close() {
+
+    }
+
+    /**
+     * Groups items by the shard their job was claimed from. Items whose job is unknown
+     * are left out, with a warning unless outcome is null.
+     *
+     * @param outcome what the items are, e.g. acknowledgements, named in the warning
+     */
+    private <E> Map<Integer, List<E>> byShard(Collection<E> items, Function<E, byte[]> job, String outcome) {
+        Map<Integer, List<E>> grouped = new HashMap<>();
+        int unknown = 0;
+        for(E item : items) {
+            Integer shard = shardOf.get(job.apply(item));
+            if(shard != null) {
+                grouped.computeIfAbsent(shard, (key) -> new ArrayList<>()).add(item);
+            } else {
+                unknown++;
+            }
+        }
+        if(unknown > 0 && outcome != null) {
+            logger.warning(format("Dropped %d %s of queue %s for jobs not in process on this backend, jobs must " +
+                    "be passed as the very arrays returned by claim()", unknown, outcome, queue));
+        }
+        return grouped;
+    }
+
+    /**
+     * Drops the shards of jobs once their outcome is written, a failed write is retried
+     * with the same jobs.
+     */
+    private <E> void forget(Collection<E> items, Function<E, byte[]> job) {
+        for(E item : items) {
+            shardOf.remove(job.apply(item));
+        }
+    }
+}
@@ -0,0 +1,525 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A backend which keeps a queue in a Redis stream read by a single consumer group,
+ * enabled with BACKEND=streams in the queue's configuration. Requires Redis 6.2 or later.
+ *
+ * Workers are consumers of the group named after their in-process queue, so in-process
+ * jobs live in the pending entries of the group instead of one list per worker and the
+ * number of keys does not grow with the number of workers. Jobs are claimed in batches
+ * with XREADGROUP and acknowledged with XACK, acknowledged entries are deleted so the
+ * stream only holds jobs which are queued or in process. Leases are the idle time of
+ * pending entries: a worker extends them by claiming its entries again and every claim
+ * first takes over entries idle for longer than the lease with XAUTOCLAIM, which returns
+ * the jobs of dead workers without any reaper.
+ *
+ * Scripts cannot block, hence a claim on an empty stream polls it every 100ms until
+ * the timeout. Delayed jobs, failed jobs, statistics and the history are kept in the
+ * same keys as {@link RedisQueueManager} uses.
+ *
+ * Entry ids are tracked by job identity, acknowledgements must pass the very arrays
+ * returned by claim(), as workers do. The backend of a queue is therefore shared by all
+ * components of the JVM, see {@link #forQueue(String)}.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+public class StreamQueueBackend implements QueueBackend {
+
+    private static final String GROUP = "workers";
+
+    private static final long POLL_INTERVAL = 100L;
+
+    /**
+     * Appends every job in ARGV to the stream KEYS[1] and counts them as submitted in the
+     * stats hash KEYS[2].
+     */
+    private static final RedisScript ENQUEUE = new RedisScript(
+            "for i = 1, #ARGV do " +
+            "  redis.call('XADD', KEYS[1], '*', 'job', ARGV[i]) " +
+            "end " +
+            "redis.call('HINCRBY', KEYS[2], 'submitted', #ARGV) " +
+            "return #ARGV");
+
+    /**
+     * Creates the group ARGV[1] of the stream KEYS[1], and the stream unless it exists.
+     */
+    private static final RedisScript CREATE_GROUP = new RedisScript(
+            "return redis.call('XGROUP', 'CREATE', KEYS[1], ARGV[1], '0', 'MKSTREAM')");
+
+    /**
+     * Claims up to ARGV[3] entries of the stream KEYS[1] for the consumer ARGV[2] of the
+     * group ARGV[1]. Entries pending for longer than ARGV[4] millis are taken over first,
+     * the rest are read from the entries never delivered. Returns the ids and jobs of
+     * claimed entries interleaved. Claimed and taken over entries are counted in the
+     * stats hash KEYS[2].
+     */
+    private static final RedisScript CLAIM = new RedisScript(
+            "local claimed = {} " +
+            "local count = tonumber(ARGV[3]) " +
+            "local reclaimed = redis.call('XAUTOCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[4], '0-0', 'COUNT', count)[2] " +
+            "for i = 1, #reclaimed do " +
+            "  if reclaimed[i][2] then " +
+            "    claimed[#claimed + 1] = reclaimed[i][1] " +
+            "    claimed[#claimed + 1] = reclaimed[i][2][2] " +
+            "  end " +
+            "end " +
+            "local expired = #claimed / 2 " +
+            "if expired < count then " +
+            "  local read = redis.call('XREADGROUP', 'GROUP', ARGV[1], ARGV[2], 'COUNT', count - expired, " +
+            "      'STREAMS', KEYS[1], '>') " +
+            "  if read then " +
+            "    local entries = read[1][2] " +
+            "    for i = 1, #entries do " +
+            "      claimed[#claimed + 1] = entries[i][1] " +
+            "      claimed[#claimed + 1] = entries[i][2][2] " +
+            "    end " +
+            "  end " +
+            "end " +
+            "if expired > 0 then redis.call('HINCRBY', KEYS[2], 'expired', expired) end " +
+            "if #claimed > 0 then redis.call('HINCRBY', KEYS[2], 'claimed', #claimed / 2) end " +
+            "return claimed");
+
+    /**
+     * Resets the idle time of every entry in ARGV[3..] of the stream KEYS[1] which is
+     * still pending for the consumer ARGV[2] of the group ARGV[1].
+     */
+    private static final RedisScript EXTEND = new RedisScript(
+            "local extended = 0 " +
+            "for i = 3, #ARGV do " +
+            "  if #redis.call('XPENDING', KEYS[1], ARGV[1], ARGV[i], ARGV[i], 1, ARGV[2]) > 0 then " +
+            "    redis.call('XCLAIM', KEYS[1], ARGV[1], ARGV[2], 0, ARGV[i], 'JUSTID') " +
+            "    extended = extended + 1 " +
+            "  end " +
+            "end " +
+            "return extended");
+
+    /**
+     * Acknowledges and deletes every entry in ARGV[3..] of the stream KEYS[1] which is
+     * still pending for the consumer ARGV[2] of the group ARGV[1] and counts them as
+     * succeeded in the stats hash KEYS[2].
+     */
+    private static final RedisScript ACK = new RedisScript(
+            "local acked = 0 " +
+            "for i = 3, #ARGV do " +
+            "  if #redis.call('XPENDING', KEYS[1], ARGV[1], ARGV[i], ARGV[i], 1, ARGV[2]) > 0 then " +
+            "    acked = acked + redis.call('XACK', KEYS[1], ARGV[1], ARGV[i]) " +
+            "    redis.call('XDEL', KEYS[1], ARGV[i]) " +
+            "  end " +
+            "end " +
+            "if acked > 0 then redis.call('HINCRBY', KEYS[2], 'succeeded', acked) end " +
+            "return acked");
+
+    /**
+     * Moves the jobs of entries still pending for the consumer ARGV[2] of the group ARGV[1]
+     * from the stream KEYS[1] to the failed jobs queue KEYS[2]. ARGV[3..] holds pairs of
+     * entry id and job. Failed jobs are counted in the stats hash KEYS[3].
+     */
+    private static final RedisScript FAIL = new RedisScript(
+            "local failed = 0 " +
+            "for i = 3, #ARGV, 2 do " +
+            "  if #redis.call('XPENDING', KEYS[1], ARGV[1], ARGV[i], ARGV[i], 1, ARGV[2]) > 0 then " +
+            "    redis.call('XACK', KEYS[1], ARGV[1], ARGV[i]) " +
+            "    redis.call('XDEL', KEYS[1], ARGV[i]) " +
+            "    redis.call('LPUSH', KEYS[2], ARGV[i + 1]) " +
+            "    failed = failed + 1 " +
+            "  end " +
+            "end " +
+            "if failed > 0 then redis.call('HINCRBY', KEYS[3], 'failed', failed) end " +
+            "return failed");
+
+    /**
+     * Moves the jobs of entries still pending for the consumer ARGV[2] of the group ARGV[1]
+     * from the stream KEYS[1] to the delayed set KEYS[2]. ARGV[3..] holds triples of entry
+     * id, the job as it is to be retried and the epoch millis at which it becomes due.
+     * Retried jobs are counted in the stats hash KEYS[3].
+     */
+    private static final RedisScript RETRY = new RedisScript(
+            "local retried = 0 " +
+            "for i = 3, #ARGV, 3 do " +
+            "  if #redis.call('XPENDING', KEYS[1], ARGV[1], ARGV[i], ARGV[i], 1, ARGV[2]) > 0 then " +
+            "    redis.call('XACK', KEYS[1], ARGV[1], ARGV[i]) " +
+            "    redis.call('XDEL', KEYS[1], ARGV[i]) " +
+            "    redis.call('ZADD', KEYS[2], ARGV[i + 2], ARGV[i + 1]) " +
+            "    retried = retried + 1 " +
+            "  end " +
+            "end " +
+            "if retried > 0 then redis.call('HINCRBY', KEYS[3], 'retried', retried) end " +
+            "return retried");
+
+    /**
+     * Appends the jobs of entries still pending for the consumer ARGV[2] of the group
+     * ARGV[1] to the stream KEYS[1] again as new entries, in the order given, and deletes
+     * the pending ones. ARGV[3..] holds pairs of entry id and job. Nothing is counted.
+     */
+    private static final RedisScript REQUEUE = new RedisScript(
+            "local requeued = 0 " +
+            "for i = 3, #ARGV, 2 do " +
+            "  if #redis.call('XPENDING', KEYS[1], ARGV[1], ARGV[i], ARGV[i], 1, ARGV[2]) > 0 then " +
+            "    redis.call('XACK', KEYS[1], ARGV[1], ARGV[i]) " +
+            "    redis.call('XDEL', KEYS[1], ARGV[i]) " +
+            "    redis.call('XADD', KEYS[1], '*', 'job', ARGV[i + 1]) " +
+            "    requeued = requeued + 1 " +
+            "  end " +
+            "end " +
+            "return requeued");
+
+    /**
+     * Moves up to ARGV[2] jobs which are due at ARGV[1] from the delayed set KEYS[1] to
+     * the stream KEYS[2]. Returns the number of jobs moved and the due time of the
+     * earliest job still waiting, or -1 if none is.
+     */
+    private static final RedisScript PROMOTE_DUE = new RedisScript(
+            "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2])) " +
+            "for i = 1, #due do " +
+            "  redis.call('ZREM', KEYS[1], due[i]) " +
+            "  redis.call('XADD', KEYS[2], '*', 'job', due[i]) " +
+            "end " +
+            "local upcoming = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES') " +
+            "return {#due, upcoming[2] or '-1'}");
+
+    /**
+     * Reads the number of entries of the stream KEYS[1] and of the entries pending in
+     * its group ARGV[1], the number of delayed jobs in KEYS[2] and all counters of the
+     * stats hash KEYS[3] at once.
+     */
+    private static final RedisScript READ_STATS = new RedisScript(
+            "local pending = redis.pcall('XPENDING', KEYS[1], ARGV[1]) " +
+            "local inProcess = 0 " +
+            "if type(pending) == 'table' and not pending.err then inProcess = pending[1] end " +
+            "return {redis.call('XLEN', KEYS[1]) - inProcess, inProcess, " +
+            "redis.call('ZCARD', KEYS[2]), redis.call('HGETALL', KEYS[3])}");
+
+    private static final ConcurrentMap<String, StreamQueueBackend> backends = new ConcurrentHashMap<>();
+
+    private final String queue;
+
+    private final RedisQueueManager keys;
+
+    private final RedisConnectionPool pool;
+
+    // Entry id of every claimed job, by identity of the array handed to the worker
+    private final ConcurrentMap<byte[], byte[]> entryIds = new ConcurrentHashMap<>();
+
+    StreamQueueBackend(String queue) {
+        this.queue = queue;
+        this.keys = new RedisQueueManager(queue);
+        this.pool = RedisConnectionPool.forQueue(queue);
+    }
+
+    /**
+     * @return the backend of queue in this JVM, created on first use
+     */
+    public static StreamQueueBackend forQueue(String queue) {
+        return backends.computeIfAbsent(queue, StreamQueueBackend::new);
+    }
+
+    @Override
+    public void enqueue(Collection<byte[]> jobs) {
+        if(jobs.isEmpty()) {
+            return;
+        }
+        try(Jedis jedis = pool.getResource()) {
+            ENQUEUE.eval(jedis, Arrays.asList(getStreamName(), keys.getStatsName()), new ArrayList<>(jobs));
+        }
+    }
+
+    /**
+     * Claims up to batchSize jobs in a single round trip, jobs of consumers whose lease
+     * expired first. The lease of claimed jobs is the time left until leaseDeadline.
+     */
+    @Override
+    public List<byte[]> claim(String destination, int batchSize, int timeout, long leaseDeadline) {
+        long leaseTimeout = Math.max(1L, leaseDeadline - System.currentTimeMillis());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        try {
+            while(true) {
+                List<byte[]> claimed = claimNow(destination, Math.max(1, batchSize), leaseTimeout);
+                if(!claimed.isEmpty() || System.currentTimeMillis() >= deadline) {
+                    return claimed;
+                }
+                Thread.sleep(Math.min(POLL_INTERVAL, Math.max(1L, deadline - System.currentTimeMillis())));
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+    }
+
+    private List<byte[]> claimNow(String destination, int batchSize, long leaseTimeout) {
+        List<byte[]> args = Arrays.asList(RedisScript.arg(GROUP), RedisScript.arg(destination),
+                RedisScript.arg(batchSize), RedisScript.arg(leaseTimeout));
+        List<?> entries;
+        try(Jedis jedis = pool.getResource()) {
+            try {
+                entries = (List<?>) CLAIM.eval(jedis, Arrays.asList(getStreamName(), keys.getStatsName()), args);
+            } catch(JedisDataException jde) {
+                if(jde.getMessage() == null || !jde.getMessage().contains("NOGROUP")) {
+                    throw jde;
+                }
+                createGroup(jedis);
+                entries = (List<?>) CLAIM.eval(jedis, Arrays.asList(getStreamName(), keys.getStatsName()), args);
+            }
+        }
+
+        List<byte[]> claimed = new ArrayList<>(entries.size() / 2);
+        for(int i = 0; i + 1 < entries.size(); i += 2) {
+            byte[] job = (byte[]) entries.get(i + 1);
+            entryIds.put(job, (byte[]) entries.get(i));
+            claimed.add(job);
+        }
+        return claimed;
+    }
+
+    /**
+     * Creates the consumer group along with the stream, the group starts at the beginning
+     * of the stream so jobs submitted before the first worker started are delivered.
+     */
+    private void createGroup(Jedis jedis) {
+        try {
+            CREATE_GROUP.eval(jedis, Collections.singletonList(getStreamName()),
+                    Collections.singletonList(RedisScript.arg(GROUP)));
+        } catch(JedisDataException jde) {
+            // BUSYGROUP, another worker created it meanwhile
+            if(jde.getMessage() == null || !jde.getMessage().contains("BUSYGROUP")) {
+                throw jde;
+            }
+        }
+    }
+
+    /**
+     * Resets the idle time of the entries of jobs still pending for this consumer. Entries
+     * meanwhile taken over by another consumer are left alone.
+     */
+    @Override
+    public void extendLeases(String inProcessQueue, Collection<byte[]> jobs, long leaseDeadline) {
+        List<byte[]> args = consumerArgs(inProcessQueue);
+        for(byte[] job : jobs) {
+            byte[] id = entryIds.get(job);
+            if(id != null) {
+                args.add(id);
+            }
+        }
+        if(args.size() > 2) {
+            try(Jedis jedis = pool.getResource()) {
+                EXTEND.eval(jedis, Collections.singletonList(getStreamName()), args);
+            }
+        }
+    }
+
+    /**
+     * Expired leases are taken over by the next claim of any consumer, there is nothing
+     * to reap.
+     *
+     * @return always 0
+     */
+    @Override
+    public int reapExpiredLeases(long now, int limit) {
+        return 0;
+    }
+
+    @Override
+    public void ack(String inProcessQueue, Collection<byte[]> jobs) {
+        List<byte[]> args = consumerArgs(inProcessQueue);
+        for(byte[] job : jobs) {
+            byte[] id = entryIds.get(job);
+            if(id != null) {
+                args.add(id);
+            }
+        }
+        if(args.size() > 2) {
+            try(Jedis jedis = pool.getResource()) {
+                ACK.eval(jedis, Arrays.asList(getStreamName(), keys.getStatsName()), args);
+            }
+        }
+        forget(jobs);
+    }
+
+    @Override
+    public void fail(String inProcessQueue, Collection<byte[]> jobs) {
+        List<byte[]> args = consumerArgs(inProcessQueue);
+        for(byte[] job : jobs) {
+            byte[] id = entryIds.get(job);
+            if(id != null) {
+                args.add(id);
+                args.add(job);
+            }
+        }
+        if(args.size() > 2) {
+            try(Jedis jedis = pool.getResource()) {
+                FAIL.eval(jedis, Arrays.asList(getStreamName(), keys.getFailedQueueName(), keys.getStatsName()), args);
+            }
+        }
+        forget(jobs);
+    }
+
+    @Override
+    public void retry(String inProcessQueue, Collection<Retry> retries) {
+        List<byte[]> args = consumerArgs(inProcessQueue);
+        for(Retry retry : retries) {
+            byte[] id = entryIds.get(retry.getJob());
+            if(id != null) {
+                args.add(id);
+                args.add(retry.getNextAttempt());
+                args.add(RedisScript.arg(retry.getDueAt()));
+            }
+        }
+        if(args.size() > 2) {
+            try(Jedis jedis = pool.getResource()) {
+                RETRY.eval(jedis, Arrays.asList(getStreamName(), keys.getDelayedQueueName(), keys.getStatsName()),
+                        args);
+            }
+        }
+        for(Retry retry : retries) {
+            entryIds.remove(retry.getJob());
+        }
+    }
+
+    /**
+     * Returns unprocessed jobs to the stream. Unlike the list backend returned jobs are
+     * appended to the stream and delivered after the jobs already queued.
+     */
+    @Override
+    public int requeue(String inProcessQueue, Collection<byte[]> jobs) {
+        List<byte[]> args = consumerArgs(inProcessQueue);
+        for(byte[] job : jobs) {
+            byte[] id = entryIds.get(job);
+            if(id != null) {
+                args.add(id);
+                args.add(job);
+            }
+        }
+        int requeued = 0;
+        if(args.size() > 2) {
+            try(Jedis jedis = pool.getResource()) {
+                requeued = ((Long) REQUEUE.eval(jedis, Collections.singletonList(getStreamName()), args)).intValue();
+            }
+        }
+        forget(jobs);
+        return requeued;
+    }
+
+    /**
+     * Scheduled jobs wait in the same delayed set as the list backend uses.
+     */
+    @Override
+    public void schedule(Collection<byte[]> jobs, long dueAt) {
+        keys.schedule(jobs, dueAt);
+    }
+
+    /**
+     * Moves due jobs to the stream. Unlike the list backend promoted jobs are appended to
+     * the stream and delivered after the jobs already queued.
+     */
+    @Override
+    public long[] promoteDueJobs(long now, int limit) {
+        List<?> promoted;
+        try(Jedis jedis = pool.getResource()) {
+            promoted = (List<?>) PROMOTE_DUE.eval(jedis,
+                    Arrays.asList(keys.getDelayedQueueName(), getStreamName()),
+                    Arrays.asList(RedisScript.arg(now), RedisScript.arg(limit)));
+        }
+        return new long[] {
+                ((Long) promoted.get(0)).longValue(),
+                (long) Double.parseDouble(SafeEncoder.encode((byte[]) promoted.get(1)))
+        };
+    }
+
+    @Override
+    public QueueStats getStats() {
+        List<?> stats;
+        try(Jedis jedis = pool.getResource()) {
+            stats = (List<?>) READ_STATS.eval(jedis,
+                    Arrays.asList(getStreamName(), keys.getDelayedQueueName(), keys.getStatsName()),
+                    Collections.singletonList(RedisScript.arg(GROUP)));
+        }
+
+        Map<String, Long> counters = new HashMap<>();
+        List<?> hash = (List<?>) stats.get(3);
+        for(int i = 0; i + 1 < hash.size(); i += 2) {
+            counters.put(SafeEncoder.encode((byte[]) hash.get(i)),
+                    Long.parseLong(SafeEncoder.encode((byte[]) hash.get(i + 1))));
+        }
+        return new QueueStats(queue, (Long) stats.get(0), (Long) stats.get(1), (Long) stats.get(2), counters);
+    }
+
+    @Override
+    public void appendHistory(Collection<JobEvent> events, long bucketMillis, long retentionMillis, int bucketLimit) {
+        keys.appendHistory(events, bucketMillis, retentionMillis, bucketLimit);
+    }
+
+    @Override
+    public List<JobEvent> readHistory(long from, long to, int offset, int limit, long bucketMillis) {
+        return keys.readHistory(from, to, offset, limit, bucketMillis);
+    }
+
+    @Override
+    public long createWorkerId() {
+        return keys.createWorkerId();
+    }
+
+    /**
+     * @return name of the stream holding queued and in-process jobs
+     */
+    public String getStreamName() {
+        return format("%s:stream", queue);
+    }
+
+    /**
+     * State is shared by all components of the queue in this JVM, hence closing a
+     * backend leaves it intact.
+     */
+    @Override
+    public void close() {
+
+    }
+
+    /**
+     * Drops the entry ids of jobs once their outcome is written, a failed write is
+     * retried with the same jobs.
+     */
+    private void forget(Collection<byte[]> jobs) {
+        for(byte[] job : jobs) {
+            entryIds.remove(job);
+        }
+    }
+
+    private static List<byte[]> consumerArgs(String inProcessQueue) {
+        List<byte[]> args = new ArrayList<>();
+        args.add(RedisScript.arg(GROUP));
+        args.add(RedisScript.arg(inProcessQueue));
+        return args;
+    }
+}
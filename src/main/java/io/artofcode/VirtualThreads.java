@@ -0,0 +1,80 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static java.lang.String.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors which run every job on its own virtual thread. Virtual threads are
+ * only available on Java 21 and later while jeeves is compiled for Java 8, hence they
+ * are looked up reflectively. The executor has no upper bound on threads, the number of
+ * jobs in flight is bounded by the ConcurrencyLimiter of the QueueProcessor alone.
+ *
+ * @author Neeraj Shah
+ * @since 0.1
+ */
+final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+
+    private VirtualThreads() {
+
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return an executor starting a new virtual thread named jeeves-queue-N for each job
+     * @throws RuntimeException if the running JVM does not support virtual threads
+     */
+    static ExecutorService newExecutor(String queue) {
+        if(!isSupported()) {
+            throw new RuntimeException(format("Virtual threads require Java 21 or later, running on Java %s",
+                    System.getProperty("java.version")));
+        }
+
+        try {
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = ofVirtual.getMethod("name", String.class, long.class)
+                    .invoke(builder, format("jeeves-%s-", queue), 0L);
+            ThreadFactory factory = (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch(ReflectiveOperationException roe) {
+            throw new RuntimeException("Unable to create virtual thread executor", roe);
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch(NoSuchMethodException nsme) {
+            return null;
+        }
+    }
+}
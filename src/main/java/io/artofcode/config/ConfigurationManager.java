@@ -24,6 +24,9 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,9 +36,42 @@ public class ConfigurationManager {
        "NUM_RETRIES",
        "REDIS_HOST",
        "REDIS_PORT" , 
-       "HEART_BEAT"
+       "HEART_BEAT",
+       "BATCH_SIZE",
+       "ACK_BATCH_SIZE",
+       "ACK_FLUSH_INTERVAL",
+       "LEASE_TIMEOUT",
+       "RETRY_BACKOFF",
+       "RETRY_MAX_BACKOFF",
+       "CONCURRENCY",
+       "MIN_CONCURRENCY",
+       "MAX_CONCURRENCY",
+       "EXECUTION_MODE",
+       "POOL_SIZE",
+       "BLOCKING_POOL_SIZE",
+       "CODEC",
+       "COMPRESSION",
+       "COMPRESSION_THRESHOLD",
+       "BACKEND",
+       "HISTORY_RETENTION",
+       "HISTORY_BUCKET",
+       "HISTORY_BUCKET_LIMIT",
+       "SHARDS",
+       "SHARD_HOSTS",
+       "PRIORITY_WEIGHTS",
+       "SCHEDULE_POLL_INTERVAL",
+       "PREFETCH",
+       "RECOVERY_MODE",
+       "RECOVERY_BATCH",
+       "WORKER_TIMEOUT",
+       "RECLAIM_BATCH",
+       "JOURNAL",
+       "JOURNAL_COMMIT_INTERVAL",
+       "JOURNAL_SEGMENT_SIZE"
     };
 
+    private static final Pattern DURATION = Pattern.compile("(\\d+)\\s*(ms|s|m|h)?");
+
     private static ConfigurationManager instance;
 
     private static Map<String, Map<String, String>> properties;
@@ -69,6 +105,57 @@ public class ConfigurationManager {
         return new HashMap<>(properties.get("default"));
     }
 
+    /**
+     * Returns the integer value of key from the named configuration. If the key is
+     * not configured then defaultValue is returned.
+     *
+     * @throws RuntimeException if the configured value is not a valid integer
+     */
+    public int getInt(String configName, String key, int defaultValue) {
+        String value = get(configName).get(key);
+        if(value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch(NumberFormatException nfe) {
+            throw new RuntimeException(String.format("Invalid value %s for %s in configuration %s",
+                    value, key, configName), nfe);
+        }
+    }
+
+    /**
+     * Returns the duration configured for key in milliseconds. Durations are written as
+     * a number followed by an optional unit, one of ms, s, m or h (e.g. 5000s or 250ms).
+     * A number without a unit is taken as milliseconds. If the key is not configured
+     * then defaultMillis is returned.
+     *
+     * @throws RuntimeException if the configured value is not a valid duration
+     */
+    public long getDuration(String configName, String key, long defaultMillis) {
+        String value = get(configName).get(key);
+        if(value == null || value.trim().isEmpty()) {
+            return defaultMillis;
+        }
+
+        Matcher matcher = DURATION.matcher(value.trim());
+        if(!matcher.matches()) {
+            throw new RuntimeException(String.format("Invalid duration %s for %s in configuration %s",
+                    value, key, configName));
+        }
+
+        long amount = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2);
+        if(unit == null || unit.equals("ms")) {
+            return amount;
+        } else if(unit.equals("s")) {
+            return TimeUnit.SECONDS.toMillis(amount);
+        } else if(unit.equals("m")) {
+            return TimeUnit.MINUTES.toMillis(amount);
+        }
+        return TimeUnit.HOURS.toMillis(amount);
+    }
+
     private static Map<String, Map<String, String>> loadConfigProperties() {
         Map<String, Map<String, String>> allProperties = new HashMap<>();
         
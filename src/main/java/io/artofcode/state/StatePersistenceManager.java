@@ -21,6 +21,12 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.Map;
@@ -125,6 +131,49 @@ public class StatePersistenceManager {
 		}
 	}
 
+	/**
+	 * Locks the state of the queue against every other holder, in this JVM or any other
+	 * process sharing the state directory, until the lock is released or its holder dies.
+	 *
+	 * @return the lock, to be released by closing its channel, or null if it is held already
+	 */
+	public FileLock tryLock(String queue) {
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(Paths.get(getQueueStatePath(queue) + ".lock"),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock lock = channel.tryLock();
+			if(lock == null) {
+				channel.close();
+			}
+			return lock;
+		} catch(OverlappingFileLockException ofle) {
+			// Held by this JVM
+			closeQuietly(channel);
+			return null;
+		} catch(IOException ioe) {
+			closeQuietly(channel);
+			throw new RuntimeException(ioe);
+		}
+	}
+
+	private void closeQuietly(FileChannel channel) {
+		try {
+			if(channel != null)
+				channel.close();
+		} catch(IOException ioe) {
+			logger.log(Level.WARNING, "", ioe);
+		}
+	}
+
+	/**
+	 * @return path of the file name in the state directory, for state which is not kept
+	 * as properties
+	 */
+	public Path getStatePath(String name) {
+		return Paths.get(stateDirPath, name);
+	}
+
 	String getQueueStatePath(String queue) {
 		return stateDirPath + File.separator + queue;
 	}
@@ -16,21 +16,30 @@ limitations under the License.
 
 package io.artofcode.state;
 
-import io.artofcode.RedisQueueManager;
+import io.artofcode.QueueBackend;
 import io.artofcode.state.StatePersistenceManager;
 
 import static java.lang.String.*;
+import java.io.IOException;
+import java.nio.channels.FileLock;
 import java.util.Map;
 
 /**
  * Class to provide vital information for a job to execute and maintain consistent state
  * across JVM restarts.
  *
+ * <p>Several workers of one queue can run on a host, in one JVM or in many, each in a
+ * slot of its own acquired with {@link #acquire(String)}. A slot keeps its own state, so
+ * every worker has its own id and in-process queue, and is locked by its worker until
+ * released. Workers take the lowest free slot, hence a host restarting its workers gets
+ * the same slots, ids and in-process queues back. Slot 0 keeps the state of workers
+ * which predate slots.
+ *
  * @see     io.artofcode.state.StatePersistenceManager
  * @author  Neeraj Shah
  * @since   0.1
  */
-public class WorkerState {
+public class WorkerState implements AutoCloseable {
 
 	private final String queue;
 
@@ -40,9 +49,71 @@ public class WorkerState {
 
 	private static final String INPROCESS_QUEUE_SUFFIX = "processing";
 
+	private static final int MAX_SLOTS = 1024;
+
+	private final String stateName;
+
+	private final int slot;
+
+	private final FileLock lock;
+
+	/**
+	 * Reads the state of slot 0 without locking it, for a worker which is the only one of
+	 * its queue on the host.
+	 */
 	public WorkerState(String queue) {
+		this(queue, 0, null);
+	}
+
+	private WorkerState(String queue, int slot, FileLock lock) {
 		this.queue = queue;
-		this.state = StatePersistenceManager.getInstance().getState(queue);
+		this.slot = slot;
+		this.lock = lock;
+		this.stateName = getStateName(queue, slot);
+		this.state = StatePersistenceManager.getInstance().getState(stateName);
+	}
+
+	/**
+	 * Acquires the lowest slot of queue which no other worker holds.
+	 *
+	 * @return state of the slot, locked until it is closed
+	 */
+	public static WorkerState acquire(String queue) {
+		for(int slot = 0; slot < MAX_SLOTS; slot++) {
+			FileLock lock = StatePersistenceManager.getInstance().tryLock(getStateName(queue, slot));
+			if(lock != null) {
+				return new WorkerState(queue, slot, lock);
+			}
+		}
+		throw new RuntimeException(format("All %d worker slots of queue %s are taken", MAX_SLOTS, queue));
+	}
+
+	/**
+	 * Acquires the given slot of queue.
+	 *
+	 * @return state of the slot, locked until it is closed
+	 * @throws RuntimeException if another worker holds the slot
+	 */
+	public static WorkerState acquire(String queue, int slot) {
+		if(slot < 0 || slot >= MAX_SLOTS) {
+			throw new IllegalArgumentException(format("Worker slot must be between 0 and %d, got %d", MAX_SLOTS - 1, slot));
+		}
+		FileLock lock = StatePersistenceManager.getInstance().tryLock(getStateName(queue, slot));
+		if(lock == null) {
+			throw new RuntimeException(format("Worker slot %d of queue %s is taken by another worker", slot, queue));
+		}
+		return new WorkerState(queue, slot, lock);
+	}
+
+	private static String getStateName(String queue, int slot) {
+		return slot == 0 ? queue : format("%s@%d", queue, slot);
+	}
+
+	/**
+	 * @return slot of the worker on this host
+	 */
+	public int getSlot() {
+		return slot;
 	}
 
 	/**
@@ -63,8 +134,8 @@ public class WorkerState {
 	}
 
 	private long createWorkerId() {
-		try(RedisQueueManager qm = new RedisQueueManager(queue)) {
-			return qm.createWorkerId();
+		try(QueueBackend backend = QueueBackend.forQueue(queue)) {
+			return backend.createWorkerId();
 		}
 	}
 
@@ -73,7 +144,7 @@ public class WorkerState {
 	 */
 	private void saveState(String key, String value) {
 		state.put(key, value);
-		StatePersistenceManager.getInstance().saveState(state, queue);
+		StatePersistenceManager.getInstance().saveState(state, stateName);
 	}
 
 	/**
@@ -85,4 +156,18 @@ public class WorkerState {
 	public String getInprocessQueueName(long workerId) {
 		return format("%d:%s:%s", workerId, queue, INPROCESS_QUEUE_SUFFIX);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Releases the slot so that another worker may acquire it.
+	 */
+	@Override
+	public void close() {
+		if(lock == null)
+			return;
+		try {
+			lock.channel().close();
+		} catch(IOException ioe) {
+			throw new RuntimeException(ioe);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static io.artofcode.TestHelper.bytes;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+public class AcknowledgerTest extends TestCase {
+
+    private static final String QUEUE_NAME = "ack-test";
+
+    private static final String INPROCESS_QUEUE = "0:ack-test:processing";
+
+    public AcknowledgerTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(AcknowledgerTest.class);
+    }
+
+    public void testAckAndNack() {
+        try(Jedis jedis = new Jedis("localhost")) {
+            jedis.del(INPROCESS_QUEUE, QUEUE_NAME + ":failed");
+            jedis.lpush(INPROCESS_QUEUE, "job-1", "job-2", "job-3");
+
+            LeaseKeeper leases = new LeaseKeeper(QUEUE_NAME, INPROCESS_QUEUE);
+            Acknowledger acknowledger = new Acknowledger(QUEUE_NAME, INPROCESS_QUEUE, leases,
+                    new RetryPolicy(0, 1000L, 1000L));
+            acknowledger.acknowledgement(SafeEncoder.encode("job-1")).ack();
+            Acknowledgement failed = acknowledger.acknowledgement(SafeEncoder.encode("job-2"));
+            failed.nack();
+            failed.ack();
+            acknowledger.close();
+            leases.close();
+
+            assertEquals(1L, jedis.llen(INPROCESS_QUEUE).longValue());
+            assertEquals("job-3", jedis.lindex(INPROCESS_QUEUE, 0));
+            assertEquals("job-2", jedis.lindex(QUEUE_NAME + ":failed", 0));
+
+            jedis.del(INPROCESS_QUEUE, QUEUE_NAME + ":failed");
+        }
+    }
+
+    public void testCorruptAttemptIsFailed() {
+        InMemoryQueueBackend backend = InMemoryQueueBackend.forQueue("memory-test");
+        String inProcessQueue = "0:memory-test:corrupt";
+        backend.enqueue(Arrays.asList(bytes("\u0001id=1;attempt=x\n{}"),
+                bytes("\u0001id=2\n{}")));
+        QueueStats before = backend.getStats();
+
+        LeaseKeeper leases = new LeaseKeeper("memory-test", inProcessQueue);
+        List<byte[]> claimed = backend.claim(inProcessQueue, 2, 0, leases.nextDeadline());
+        leases.track(claimed);
+        Acknowledger acknowledger = new Acknowledger("memory-test", inProcessQueue, leases,
+                new RetryPolicy(1, 60000L, 60000L));
+        for(byte[] job : claimed) {
+            acknowledger.acknowledgement(job).nack();
+        }
+        acknowledger.close();
+        leases.close();
+
+        QueueStats after = backend.getStats();
+        assertEquals(1L, after.getFailed() - before.getFailed());
+        assertEquals(1L, after.getRetried() - before.getRetried());
+        assertEquals(before.getProcessing(), after.getProcessing());
+    }
+
+    public void testNackIsRetried() {
+        try(Jedis jedis = new Jedis("localhost")) {
+            jedis.del(INPROCESS_QUEUE, QUEUE_NAME + ":delayed", QUEUE_NAME + ":failed");
+            jedis.lpush(INPROCESS_QUEUE, "job-1");
+
+            LeaseKeeper leases = new LeaseKeeper(QUEUE_NAME, INPROCESS_QUEUE);
+            Acknowledger acknowledger = new Acknowledger(QUEUE_NAME, INPROCESS_QUEUE, leases,
+                    new RetryPolicy(1, 60000L, 60000L));
+            acknowledger.acknowledgement(SafeEncoder.encode("job-1")).nack();
+            acknowledger.close();
+            leases.close();
+
+            assertEquals(0L, jedis.llen(INPROCESS_QUEUE).longValue());
+            assertEquals(0L, jedis.llen(QUEUE_NAME + ":failed").longValue());
+
+            String retry = jedis.zrange(QUEUE_NAME + ":delayed", 0, 0).iterator().next();
+            JobEnvelope envelope = JobEnvelope.parse(SafeEncoder.encode(retry));
+            assertEquals(2, envelope.getAttempt());
+            assertEquals("job-1", SafeEncoder.encode(envelope.getPayload()));
+            assertTrue(jedis.zscore(QUEUE_NAME + ":delayed", retry) > System.currentTimeMillis());
+
+            jedis.del(QUEUE_NAME + ":delayed");
+        }
+    }
+}
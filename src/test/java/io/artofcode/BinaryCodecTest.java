@@ -0,0 +1,140 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class BinaryCodecTest extends TestCase {
+
+    public BinaryCodecTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(BinaryCodecTest.class);
+    }
+
+    public void testRoundTrip() {
+        Calendar createdOn = Calendar.getInstance(TimeZone.getTimeZone("Asia/Kolkata"));
+        ScrapJob job = new ScrapJob("https://google.com", 12, createdOn);
+
+        BinaryCodec<ScrapJob> codec = new BinaryCodec<>(ScrapJob.class);
+        ScrapJob decoded = codec.decode(codec.encode(job));
+
+        assertEquals(job.toString(), decoded.toString());
+    }
+
+    public void testIsSmallerThanJson() {
+        ScrapJob job = new ScrapJob("https://google.com", 12, Calendar.getInstance());
+
+        byte[] binary = new BinaryCodec<>(ScrapJob.class).encode(job);
+        byte[] json = new JsonCodec<>(ScrapJob.class).encode(job);
+
+        assertTrue(binary.length * 2 < json.length);
+    }
+
+    public void testNestedTypes() {
+        Crawl crawl = new Crawl();
+        crawl.state = State.RUNNING;
+        crawl.depth = -3L;
+        crawl.ratio = 0.25;
+        crawl.body = new byte[] { 0, 1, (byte) 0xff };
+        crawl.links = Arrays.asList("a", null, "\u00e9");
+        crawl.headers = new HashMap<>(Collections.singletonMap("host", 80));
+        crawl.parent = new Crawl();
+        crawl.parent.state = State.DONE;
+        crawl.ignored = "ignored";
+
+        BinaryCodec<Crawl> codec = new BinaryCodec<>(Crawl.class);
+        Crawl decoded = codec.decode(codec.encode(crawl));
+
+        assertEquals(State.RUNNING, decoded.state);
+        assertEquals(-3L, decoded.depth);
+        assertEquals(0.25, decoded.ratio);
+        assertTrue(Arrays.equals(crawl.body, decoded.body));
+        assertEquals(crawl.links, decoded.links);
+        assertEquals(crawl.headers, decoded.headers);
+        assertEquals(State.DONE, decoded.parent.state);
+        assertNull(decoded.parent.links);
+        assertNull(decoded.ignored);
+        assertNull(codec.decode(codec.encode(null)));
+    }
+
+    public void testOtherModelIsRejected() {
+        byte[] payload = new BinaryCodec<>(Crawl.class).encode(new Crawl());
+        try {
+            new BinaryCodec<>(ScrapJob.class).decode(payload);
+            fail("Payload of another model was decoded");
+        } catch(IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    public void testUnsupportedType() {
+        try {
+            new BinaryCodec<>(Unsupported.class);
+            fail("Codec created for a model it cannot encode");
+        } catch(IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    public void testJsonPayloadsStillDecode() {
+        String json = "{\"url\":\"https://google.com\",\"numHits\":12}";
+        PayloadCodec<ScrapJob> codec = PayloadCodecs.forName(JsonCodec.NAME, ScrapJob.class);
+
+        assertEquals("https://google.com", codec.decode(json.getBytes(StandardCharsets.UTF_8)).getUrl());
+        assertSame(codec, PayloadCodecs.forName(JsonCodec.NAME, ScrapJob.class));
+    }
+
+    private enum State { QUEUED, RUNNING, DONE }
+
+    private static class Crawl {
+
+        private State state;
+
+        private long depth;
+
+        private double ratio;
+
+        private byte[] body;
+
+        private List<String> links;
+
+        private Map<String, Integer> headers;
+
+        private Crawl parent;
+
+        private transient String ignored;
+    }
+
+    private static class Unsupported {
+
+        private Thread thread;
+    }
+}
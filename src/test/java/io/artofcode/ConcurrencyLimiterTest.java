@@ -0,0 +1,134 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static io.artofcode.TestHelper.bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ConcurrencyLimiterTest extends TestCase {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10L);
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    public ConcurrencyLimiterTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ConcurrencyLimiterTest.class);
+    }
+
+    public void testFixedLimit() throws InterruptedException {
+        ConcurrencyLimiter limiter = new FixedConcurrencyLimiter(64);
+        for(int i = 0; i < 64; i++) {
+            limiter.acquire();
+        }
+        assertEquals(64, limiter.getLimit());
+    }
+
+    public void testPermitIsHeldUntilTheOutcomeIsReported() throws IOException {
+        TestHelper.setupEnvironment();
+        List<Boolean> released = new CopyOnWriteArrayList<>();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter() {
+            @Override
+            public void acquire() {
+            }
+
+            @Override
+            public void release(long latencyNanos, boolean success) {
+                released.add(success);
+            }
+
+            @Override
+            public int getLimit() {
+                return 1;
+            }
+        };
+
+        String inProcessQueue = "0:memory-test:limiter";
+        List<Acknowledgement> acknowledgements = new ArrayList<>();
+        LeaseKeeper leases = new LeaseKeeper("memory-test", inProcessQueue);
+        Acknowledger acknowledger = new Acknowledger("memory-test", inProcessQueue, leases,
+                new RetryPolicy(0, 1000L, 1000L));
+        JobDispatcher<ScrapJob> dispatcher = new JobDispatcher<>("memory-test", ScrapJob.class,
+                PayloadCodecs.forQueue("memory-test", ScrapJob.class), (job, ack) -> acknowledgements.add(ack),
+                acknowledger, limiter);
+        byte[] job = bytes("{\"url\":\"https://google.com\"}");
+        dispatcher.dispatch(job);
+        dispatcher.dispatch(job);
+
+        // Consumers returned without reporting an outcome, both jobs are still in flight
+        assertTrue(released.isEmpty());
+        acknowledgements.get(0).nack();
+        acknowledgements.get(1).ack();
+        acknowledgements.get(0).ack();
+        assertEquals(Arrays.asList(false, true), released);
+
+        acknowledger.close();
+        leases.close();
+    }
+
+    public void testAdaptiveLimitGrowsWhileLatencyIsFlat() throws InterruptedException {
+        ConcurrencyLimiter limiter = new AimdConcurrencyLimiter(2, 16);
+        runRounds(limiter, 200, FAST, true);
+
+        assertEquals(16, limiter.getLimit());
+    }
+
+    public void testAdaptiveLimitShrinksOnErrors() throws InterruptedException {
+        ConcurrencyLimiter limiter = new AimdConcurrencyLimiter(2, 16);
+        runRounds(limiter, 200, FAST, true);
+        runRounds(limiter, 100, FAST, false);
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    public void testAdaptiveLimitShrinksWhenLatencyRises() throws InterruptedException {
+        ConcurrencyLimiter limiter = new AimdConcurrencyLimiter(2, 16);
+        runRounds(limiter, 200, FAST, true);
+        runRounds(limiter, 5, SLOW, true);
+
+        assertTrue(limiter.getLimit() < 16);
+    }
+
+    /**
+     * Fills every permit of the limiter and then completes all the jobs, once per round
+     */
+    private void runRounds(ConcurrencyLimiter limiter, int rounds, long latency, boolean success)
+            throws InterruptedException {
+        for(int round = 0; round < rounds; round++) {
+            int inFlight = limiter.getLimit();
+            for(int i = 0; i < inFlight; i++) {
+                limiter.acquire();
+            }
+            for(int i = 0; i < inFlight; i++) {
+                limiter.release(latency, success);
+            }
+        }
+    }
+}
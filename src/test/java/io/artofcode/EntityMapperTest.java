@@ -16,6 +16,7 @@ limitations under the License.
 
 package io.artofcode;
 
+import com.google.gson.JsonSyntaxException;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -47,6 +48,27 @@ public class EntityMapperTest extends TestCase {
         assertTrue(processor != null);
     }
 
+    public void testParse() {
+        String json = "{\"url\":\"https://google.com\",\"numHits\":12,\"createdOn\":{\"year\":2018,\"month\":0,\"dayOfMonth\":15,\"hourOfDay\":10,\"minute\":35,\"second\":21}}";
+        ScrapJob job = EntityMapper.forModel(ScrapJob.class).parse(json);
+
+        assertEquals("https://google.com", job.getUrl());
+        assertNull(EntityMapper.forModel(ScrapJob.class).parse(""));
+    }
+
+    public void testMapperIsCached() {
+        assertSame(EntityMapper.forModel(ScrapJob.class), EntityMapper.forModel(ScrapJob.class));
+    }
+
+    public void testMalformedPayload() {
+        try {
+            EntityMapper.forModel(ScrapJob.class).parse("{\"url\":\"https://google.com\"} trailing");
+            fail("Trailing content must be rejected");
+        } catch(JsonSyntaxException jse) {
+            // expected
+        }
+    }
+
     public void testModelRequired() {
         QueueProcessor processor;
         try {
@@ -0,0 +1,161 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static io.artofcode.TestHelper.bytes;
+import static io.artofcode.TestHelper.strings;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+
+public class InFlightJournalTest extends TestCase {
+
+    private static final String QUEUE_NAME = "journal-test";
+
+    public InFlightJournalTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(InFlightJournalTest.class);
+    }
+
+    public void testFinishedAndUnfinishedClaims() throws IOException, InterruptedException {
+        String inProcessQueue = System.nanoTime() + ":journal-test:processing";
+        QueueBackend backend = QueueBackend.forQueue(QUEUE_NAME);
+        InFlightJournal journal = new InFlightJournal(QUEUE_NAME, inProcessQueue, backend);
+        try {
+            List<byte[]> jobs = Arrays.asList(bytes("job-1"), bytes("job-2"), bytes("job-3"), bytes("job-4"));
+            journal.claimed(jobs);
+            journal.finished(jobs.get(0));
+            journal.forget(jobs.get(3));
+
+            // As found after a crash, once the records are committed
+            InFlightJournal.Claims claims = awaitCommitted(journal, 1, 3);
+            assertEquals(Arrays.asList("job-1"), strings(claims.finished));
+            assertEquals(Arrays.asList("job-2", "job-3", "job-4"), strings(claims.unfinished));
+
+            // Closing keeps the claims which are still in process only
+            journal.close();
+            claims = InFlightJournal.read(journal.getPath());
+            assertTrue(claims.finished.isEmpty());
+            assertEquals(Arrays.asList("job-2", "job-3"), strings(claims.unfinished));
+        } finally {
+            Files.deleteIfExists(journal.getPath());
+        }
+    }
+
+    public void testReconcileAcknowledgesFinishedAndRequeuesUnfinishedJobs() throws IOException, InterruptedException {
+        String inProcessQueue = System.nanoTime() + ":journal-test:processing";
+        Path crashed = Files.createTempFile("journal-test", null);
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager backend = new RedisQueueManager(QUEUE_NAME)) {
+            jedis.del(QUEUE_NAME, backend.getLeasesName(), backend.getStatsName());
+            jedis.lpush(QUEUE_NAME, "job-1", "job-2", "job-3", "job-4");
+            List<byte[]> claimed = backend.claim(inProcessQueue, 3, 0, System.currentTimeMillis() + 60000L);
+
+            InFlightJournal journal = new InFlightJournal(QUEUE_NAME, inProcessQueue, backend);
+            try {
+                journal.claimed(claimed);
+                journal.finished(claimed.get(0));
+                awaitCommitted(journal, 1, 2);
+                // The journal as a crash left it, before the acknowledgement of job-1 reached Redis
+                Files.copy(journal.getPath(), crashed, StandardCopyOption.REPLACE_EXISTING);
+                journal.close();
+                Files.copy(crashed, journal.getPath(), StandardCopyOption.REPLACE_EXISTING);
+
+                journal = new InFlightJournal(QUEUE_NAME, inProcessQueue, backend);
+                assertEquals(0L, jedis.llen(inProcessQueue).longValue());
+                assertEquals(0L, jedis.zcard(backend.getLeasesName()).longValue());
+                QueueStats stats = backend.getStats();
+                assertEquals(1L, stats.getSucceeded());
+                assertEquals(0L, stats.getRetried());
+                // Unfinished jobs are claimed again before the ones waiting in the queue
+                assertEquals(Arrays.asList("job-2", "job-3", "job-4"),
+                        strings(backend.claim(inProcessQueue, 3, 0, System.currentTimeMillis() + 60000L)));
+
+                journal.close();
+                assertTrue(InFlightJournal.read(journal.getPath()).unfinished.isEmpty());
+            } finally {
+                Files.deleteIfExists(journal.getPath());
+                jedis.del(inProcessQueue, backend.getLeasesName(), backend.getStatsName());
+            }
+        } finally {
+            Files.deleteIfExists(crashed);
+        }
+    }
+
+    public void testUnsupportingBackendsAreRefused() {
+        try {
+            new InFlightJournal(QUEUE_NAME, "0:journal-test:processing", StreamQueueBackend.forQueue("streams-test"));
+            fail("Jobs read back from the journal are unknown to the streams backend");
+        } catch(RuntimeException re) {
+            // expected
+        }
+        try {
+            new InFlightJournal(QUEUE_NAME, "0:journal-test:processing", InMemoryQueueBackend.forQueue("memory-test"));
+            fail("Jobs read back from the journal are unknown to the memory backend");
+        } catch(RuntimeException re) {
+            // expected
+        }
+    }
+
+    public void testTornRecordIsIgnored() throws IOException, InterruptedException {
+        String inProcessQueue = System.nanoTime() + ":journal-test:processing";
+        InFlightJournal journal = new InFlightJournal(QUEUE_NAME, inProcessQueue, QueueBackend.forQueue(QUEUE_NAME));
+        try {
+            List<byte[]> jobs = Arrays.asList(bytes("job-1"), bytes("job-2"));
+            journal.claimed(jobs);
+            awaitCommitted(journal, 0, 2);
+            journal.finished(jobs.get(0));
+            awaitCommitted(journal, 1, 1);
+
+            try(FileChannel channel = FileChannel.open(journal.getPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 3);
+            }
+            InFlightJournal.Claims claims = InFlightJournal.read(journal.getPath());
+            assertTrue(claims.finished.isEmpty());
+            assertEquals(Arrays.asList("job-1", "job-2"), strings(claims.unfinished));
+        } finally {
+            journal.close();
+            Files.deleteIfExists(journal.getPath());
+        }
+    }
+
+    private static InFlightJournal.Claims awaitCommitted(InFlightJournal journal, int numFinished, int numUnfinished)
+            throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        InFlightJournal.Claims claims = InFlightJournal.read(journal.getPath());
+        while((claims.finished.size() != numFinished || claims.unfinished.size() != numUnfinished)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+            claims = InFlightJournal.read(journal.getPath());
+        }
+        return claims;
+    }
+}
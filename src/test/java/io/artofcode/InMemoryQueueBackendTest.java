@@ -0,0 +1,234 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static io.artofcode.TestHelper.bytes;
+import static io.artofcode.TestHelper.jobs;
+import static io.artofcode.TestHelper.string;
+import static io.artofcode.TestHelper.strings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class InMemoryQueueBackendTest extends TestCase {
+
+    private static final String QUEUE_NAME = "memory-test";
+
+    private static final String INPROCESS_QUEUE = "1:memory-test:processing";
+
+    private static final long DEADLINE = System.currentTimeMillis() + 60000L;
+
+    public InMemoryQueueBackendTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(InMemoryQueueBackendTest.class);
+    }
+
+    public void testBatchClaim() {
+        InMemoryQueueBackend backend = new InMemoryQueueBackend("memory-test");
+        backend.enqueue(jobs("job-1", "job-2", "job-3", "job-4", "job-5"));
+
+        List<byte[]> first = backend.claim(INPROCESS_QUEUE, 3, 1, DEADLINE);
+        assertEquals(3, first.size());
+        assertEquals("job-1", string(first.get(0)));
+        assertEquals("job-3", string(first.get(2)));
+
+        List<byte[]> second = backend.claim(INPROCESS_QUEUE, 3, 1, DEADLINE);
+        assertEquals(2, second.size());
+        assertEquals("job-5", string(second.get(1)));
+        assertEquals(0, backend.getQueueLength());
+
+        backend.ack(INPROCESS_QUEUE, first);
+        backend.fail(INPROCESS_QUEUE, second.subList(0, 1));
+        assertEquals("job-4", string(backend.getFailedJobs().get(0)));
+        assertEquals(1, backend.reapExpiredLeases(Long.MAX_VALUE, 100));
+        assertSame(second.get(1), backend.claim(INPROCESS_QUEUE, 3, 0, DEADLINE).get(0));
+        assertTrue(backend.claim(INPROCESS_QUEUE, 3, 0, DEADLINE).isEmpty());
+    }
+
+    public void testExpiredLeasesAreReaped() {
+        InMemoryQueueBackend backend = new InMemoryQueueBackend("memory-test");
+        backend.enqueue(jobs("job-1", "job-2", "job-3"));
+
+        long now = System.currentTimeMillis();
+        List<byte[]> expiring = backend.claim(INPROCESS_QUEUE, 2, 1, now - 1000L);
+        List<byte[]> extended = backend.claim(INPROCESS_QUEUE, 1, 1, now - 1000L);
+        backend.extendLeases(INPROCESS_QUEUE, extended, now + 60000L);
+
+        assertEquals(2, backend.reapExpiredLeases(now, 100));
+        assertEquals(0, backend.reapExpiredLeases(now, 100));
+        assertEquals(2, backend.getQueueLength());
+
+        backend.enqueue(jobs("job-4"));
+        List<byte[]> reclaimed = backend.claim(INPROCESS_QUEUE, 3, 1, DEADLINE);
+        assertEquals(3, reclaimed.size());
+        assertTrue(expiring.contains(reclaimed.get(0)));
+        assertEquals("job-4", string(reclaimed.get(2)));
+    }
+
+    public void testRetry() {
+        InMemoryQueueBackend backend = new InMemoryQueueBackend("memory-test");
+        backend.enqueue(jobs("job-1"));
+
+        long now = System.currentTimeMillis();
+        byte[] job = backend.claim(INPROCESS_QUEUE, 1, 1, DEADLINE).get(0);
+        byte[] nextAttempt = "job-1 again".getBytes(StandardCharsets.UTF_8);
+        backend.retry(INPROCESS_QUEUE, Collections.singletonList(new QueueBackend.Retry(job, nextAttempt, now + 1000L)));
+
+        assertEquals(1, backend.getDelayedCount());
+        assertTrue(Arrays.equals(new long[] { 0L, now + 1000L }, backend.promoteDueJobs(now, 100)));
+        assertTrue(Arrays.equals(new long[] { 1L, -1L }, backend.promoteDueJobs(now + 1000L, 100)));
+        assertSame(nextAttempt, backend.claim(INPROCESS_QUEUE, 1, 1, DEADLINE).get(0));
+    }
+
+    public void testBlockingClaim() throws InterruptedException {
+        InMemoryQueueBackend backend = new InMemoryQueueBackend("memory-test");
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            backend.enqueue(jobs("job-1"));
+        });
+        producer.start();
+
+        List<byte[]> claimed = backend.claim(INPROCESS_QUEUE, 10, 5, DEADLINE);
+        producer.join();
+
+        assertEquals(1, claimed.size());
+        assertEquals(1L, backend.createWorkerId());
+        assertEquals(2L, backend.createWorkerId());
+    }
+
+    public void testStats() {
+        InMemoryQueueBackend backend = new InMemoryQueueBackend(QUEUE_NAME);
+        backend.enqueue(jobs("job-1", "job-2", "job-3", "job-4"));
+
+        long now = System.currentTimeMillis();
+        List<byte[]> claimed = backend.claim(INPROCESS_QUEUE, 3, 1, now - 1000L);
+        backend.ack(INPROCESS_QUEUE, claimed.subList(0, 1));
+        backend.fail(INPROCESS_QUEUE, claimed.subList(1, 2));
+        backend.reapExpiredLeases(now, 100);
+
+        QueueStats stats = backend.getStats();
+        assertEquals(2L, stats.getQueued());
+        assertEquals(0L, stats.getProcessing());
+        assertEquals(4L, stats.getSubmitted());
+        assertEquals(3L, stats.getClaimed());
+        assertEquals(1L, stats.getSucceeded());
+        assertEquals(1L, stats.getFailed());
+        assertEquals(1L, stats.getExpired());
+        assertEquals(0L, stats.getRetried());
+    }
+
+    public void testQueueProcessor() throws InterruptedException {
+        assertSame(InMemoryQueueBackend.forQueue(QUEUE_NAME), QueueBackend.forQueue(QUEUE_NAME));
+
+        int numJobs = 100;
+        CountDownLatch processed = new CountDownLatch(numJobs + 1);
+        Set<String> urls = ConcurrentHashMap.newKeySet();
+        QueueProcessor<ScrapJob> processor = new QueueProcessor.Builder<ScrapJob>(QUEUE_NAME)
+                .consumer((job) -> {
+                    ScrapJob scrapJob = (ScrapJob) job;
+                    processed.countDown();
+                    // The first attempt of one job fails, it is retried after RETRY_BACKOFF
+                    if(urls.add(scrapJob.getUrl()) && scrapJob.getUrl().endsWith("/42")) {
+                        throw new IllegalStateException("Failed on first attempt");
+                    }
+                })
+                .model(ScrapJob.class)
+                .build();
+        Thread worker = new Thread(processor::start);
+        worker.start();
+
+        try(JobSubmitter<ScrapJob> submitter = new JobSubmitter.Builder<ScrapJob>(QUEUE_NAME)
+                .codec(new BinaryCodec<>(ScrapJob.class))
+                .build()) {
+            for(int i = 0; i < numJobs; i++) {
+                submitter.submit(new ScrapJob("https://google.com/" + i, i, null));
+            }
+        }
+
+        assertTrue(processed.await(10L, TimeUnit.SECONDS));
+        processor.close();
+        worker.join(TimeUnit.SECONDS.toMillis(30L));
+        assertEquals(numJobs, urls.size());
+        assertTrue(InMemoryQueueBackend.forQueue(QUEUE_NAME).getFailedJobs().isEmpty());
+    }
+
+    public void testScheduledJobsArePromotedWhenDue() {
+        InMemoryQueueBackend backend = new InMemoryQueueBackend("memory-test");
+        long now = System.currentTimeMillis();
+        backend.schedule(jobs("later"), now + 60000L);
+        backend.schedule(jobs("soon-1", "soon-2"), now + 100L);
+
+        assertEquals(3, backend.getDelayedCount());
+        assertEquals(3L, backend.getStats().getSubmitted());
+        long[] notDue = backend.promoteDueJobs(now, 100);
+        assertEquals(0L, notDue[0]);
+        assertEquals(now + 100L, notDue[1]);
+
+        long[] due = backend.promoteDueJobs(now + 100L, 100);
+        assertEquals(2L, due[0]);
+        assertEquals(now + 60000L, due[1]);
+        List<byte[]> claimed = backend.claim(INPROCESS_QUEUE, 10, 0, DEADLINE);
+        assertEquals(2, claimed.size());
+        assertEquals(1, backend.getDelayedCount());
+    }
+
+    public void testPrefetchIsBoundedAndHandedBack() throws InterruptedException {
+        InMemoryQueueBackend backend = InMemoryQueueBackend.forQueue("prefetch-test");
+        backend.enqueue(jobs("job-1", "job-2", "job-3", "job-4", "job-5", "job-6", "job-7", "job-8", "job-9", "job-10"));
+
+        JobPoller poller = new JobPoller("prefetch-test", null, 3);
+        assertEquals("job-1", string(poller.iterator().next()));
+
+        // 3 jobs buffered, 1 waiting for room in the buffer and the rest of its batch of 2
+        long deadline = System.currentTimeMillis() + 5000L;
+        while(backend.getQueueLength() > 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Thread.sleep(200L);
+        assertEquals(4, backend.getQueueLength());
+
+        poller.stopPolling();
+        poller.handBack(null);
+        poller.close();
+        // Handed back jobs are requeued ahead of the queue in order, without counting a retry
+        assertEquals(0, backend.getDelayedCount());
+        assertEquals(9, backend.getQueueLength());
+        assertEquals(0L, backend.getStats().getRetried());
+        // Only the job which was handed out is still in process
+        assertEquals(1, backend.reapExpiredLeases(Long.MAX_VALUE, 100));
+        assertEquals(Arrays.asList("job-1", "job-2", "job-3", "job-4", "job-5", "job-6", "job-7", "job-8", "job-9",
+                "job-10"), strings(backend.claim(INPROCESS_QUEUE, 10, 0, DEADLINE)));
+    }
+}
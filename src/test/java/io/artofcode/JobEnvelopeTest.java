@@ -0,0 +1,103 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static io.artofcode.TestHelper.bytes;
+import static io.artofcode.TestHelper.string;
+
+import java.util.Arrays;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class JobEnvelopeTest extends TestCase {
+
+    private static final String JSON = "{\"url\":\"https://google.com\",\"numHits\":12}";
+
+    public JobEnvelopeTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(JobEnvelopeTest.class);
+    }
+
+    public void testPlainPayload() {
+        JobEnvelope envelope = JobEnvelope.parse(bytes(JSON));
+
+        assertNull(envelope.getId());
+        assertEquals(1, envelope.getAttempt());
+        assertEquals(JsonCodec.NAME, envelope.getCodec());
+        assertEquals(JSON, string(envelope.getPayload()));
+        assertEquals(JSON, string(envelope.encode()));
+    }
+
+    public void testNextAttempt() {
+        JobEnvelope second = JobEnvelope.parse(bytes(JSON)).nextAttempt();
+        JobEnvelope third = JobEnvelope.parse(second.encode()).nextAttempt();
+
+        assertNotNull(second.getId());
+        assertEquals(2, second.getAttempt());
+        assertEquals(second.getId(), third.getId());
+        assertEquals(3, third.getAttempt());
+        assertEquals(JSON, string(JobEnvelope.parse(third.encode()).getPayload()));
+    }
+
+    public void testUnknownHeadersArePreserved() {
+        String raw = "\u0001id=42;trace=abc\n" + JSON;
+        JobEnvelope next = JobEnvelope.parse(bytes(raw)).nextAttempt();
+
+        assertEquals("\u0001id=42;trace=abc;attempt=2\n" + JSON, string(next.encode()));
+    }
+
+    public void testBinaryPayload() {
+        byte[] payload = { 0x01, '\n', 0x00, (byte) 0xff, ';', '=' };
+        JobEnvelope envelope = JobEnvelope.of("42", BinaryCodec.NAME, null, payload);
+        JobEnvelope next = JobEnvelope.parse(envelope.encode()).nextAttempt();
+
+        assertEquals("42", next.getId());
+        assertEquals(2, next.getAttempt());
+        assertEquals(BinaryCodec.NAME, next.getCodec());
+        assertTrue(Arrays.equals(payload, JobEnvelope.parse(next.encode()).getPayload()));
+    }
+
+    public void testJsonCodecIsImplied() {
+        JobEnvelope envelope = JobEnvelope.of("42", JsonCodec.NAME, null, bytes(JSON));
+
+        assertEquals("\u0001id=42\n" + JSON, string(envelope.encode()));
+        assertEquals(JsonCodec.NAME, JobEnvelope.parse(envelope.encode()).getCodec());
+    }
+
+    public void testCompressionIsPreserved() {
+        JobEnvelope envelope = JobEnvelope.of("42", JsonCodec.NAME, PayloadCompression.DEFLATE, bytes(JSON));
+        JobEnvelope next = JobEnvelope.parse(envelope.encode()).nextAttempt();
+
+        assertEquals(PayloadCompression.DEFLATE, JobEnvelope.parse(next.encode()).getCompression());
+        assertNull(JobEnvelope.parse(bytes(JSON)).getCompression());
+    }
+
+    public void testPriorityIsPreserved() {
+        JobEnvelope envelope = JobEnvelope.of("42", JsonCodec.NAME, null, bytes(JSON)).withPriority(Priority.HIGH);
+        JobEnvelope next = JobEnvelope.parse(envelope.encode()).nextAttempt();
+
+        assertEquals("\u0001id=42;priority=high\n" + JSON, string(envelope.encode()));
+        assertEquals(Priority.HIGH, JobEnvelope.parse(next.encode()).getPriority());
+        assertEquals(Priority.NORMAL, JobEnvelope.parse(bytes(JSON)).getPriority());
+        assertEquals("\u0001id=42\n" + JSON,
+                string(JobEnvelope.of("42", JsonCodec.NAME, null, bytes(JSON)).withPriority(Priority.NORMAL).encode()));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static io.artofcode.TestHelper.bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class JobHistoryTest extends TestCase {
+
+    private static final String QUEUE_NAME = "history-test";
+
+    private static final long BUCKET = 1000L;
+
+    private static final long RETENTION = 3600000L;
+
+    public JobHistoryTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(JobHistoryTest.class);
+    }
+
+    public void testEventEncoding() {
+        JobEvent event = new JobEvent(JobEvent.Type.FAILED, 1234L, "a|b", 3, 42L);
+        JobEvent decoded = JobEvent.decode(event.encode());
+
+        assertEquals(event, decoded);
+        assertEquals(JobEvent.Type.FAILED, decoded.getType());
+        assertEquals(1234L, decoded.getTimestamp());
+        assertEquals("a|b", decoded.getJobId());
+        assertEquals(3, decoded.getAttempt());
+        assertEquals(42L, decoded.getDurationMillis());
+        assertEquals("", new JobEvent(JobEvent.Type.STARTED, 1L, null, 1, -1L).getJobId());
+    }
+
+    public void testBucketStart() {
+        assertEquals(2000L, JobHistory.bucketStart(2999L, BUCKET));
+        assertEquals(3000L, JobHistory.bucketStart(3000L, BUCKET));
+        assertEquals(-1000L, JobHistory.bucketStart(-1L, BUCKET));
+    }
+
+    public void testPagingAcrossBuckets() {
+        InMemoryQueueBackend backend = new InMemoryQueueBackend(QUEUE_NAME);
+        long start = JobHistory.bucketStart(System.currentTimeMillis(), BUCKET) - 3 * BUCKET;
+        List<JobEvent> events = new ArrayList<>();
+        for(int i = 0; i < 9; i++) {
+            events.add(new JobEvent(JobEvent.Type.SUBMITTED, start + i * 400L, "job-" + i, 1, -1L));
+        }
+        backend.appendHistory(events, BUCKET, RETENTION, 100);
+
+        List<JobEvent> read = new ArrayList<>();
+        for(int offset = 0; ; offset += 2) {
+            List<JobEvent> page = backend.readHistory(start, start + 8 * 400L, offset, 2, BUCKET);
+            if(page.isEmpty()) {
+                break;
+            }
+            read.addAll(page);
+        }
+        assertEquals(events, read);
+
+        List<JobEvent> range = backend.readHistory(start + 400L, start + 1200L, 1, 10, BUCKET);
+        assertEquals(Arrays.asList(events.get(2), events.get(3)), range);
+    }
+
+    public void testBucketsAreBounded() {
+        InMemoryQueueBackend backend = new InMemoryQueueBackend(QUEUE_NAME);
+        long now = System.currentTimeMillis();
+        long start = JobHistory.bucketStart(now, BUCKET);
+        List<JobEvent> events = new ArrayList<>();
+        for(int i = 0; i < 7; i++) {
+            events.add(new JobEvent(JobEvent.Type.STARTED, start + i, "job-" + i, 1, -1L));
+        }
+        events.add(new JobEvent(JobEvent.Type.SUBMITTED, now - RETENTION - 2 * BUCKET, "expired", 1, -1L));
+        backend.appendHistory(events, BUCKET, RETENTION, 5);
+
+        List<JobEvent> kept = backend.readHistory(0L, start + BUCKET, 0, 100, BUCKET);
+        assertEquals(events.subList(2, 7), kept);
+    }
+
+    public void testRecordedEventsAreRead() {
+        JobHistory history = JobHistory.forQueue(QUEUE_NAME);
+        assertTrue(history.isEnabled());
+        assertEquals(RETENTION, history.getRetentionMillis());
+
+        long from = System.currentTimeMillis();
+        byte[] job = JobEnvelope.of("job-1", JsonCodec.NAME, null, new byte[0]).nextAttempt().encode();
+        history.record(JobEvent.Type.STARTED, job, -1L);
+        history.record(JobEvent.Type.FINISHED, job, 15L);
+        history.flush();
+
+        List<JobEvent> read = history.read(from, System.currentTimeMillis(), 0, 10);
+        assertEquals(2, read.size());
+        for(JobEvent event : read) {
+            assertEquals("job-1", event.getJobId());
+            assertEquals(2, event.getAttempt());
+        }
+        assertEquals(JobEvent.Type.STARTED, read.get(0).getType());
+        assertEquals(JobEvent.Type.FINISHED, read.get(1).getType());
+        assertEquals(15L, read.get(1).getDurationMillis());
+        assertTrue(JobHistory.forQueue("memory-test").read(0L, Long.MAX_VALUE, 0, 10).isEmpty());
+    }
+
+    public void testOpenEndedRange() {
+        JobHistory history = JobHistory.forQueue(QUEUE_NAME);
+        byte[] job = JobEnvelope.of("job-2", JsonCodec.NAME, null, new byte[0]).encode();
+        history.record(JobEvent.Type.STARTED, job, -1L);
+        history.flush();
+
+        List<JobEvent> read = history.read(0L, Long.MAX_VALUE, 0, 1000);
+        assertFalse(read.isEmpty());
+        assertEquals("job-2", read.get(read.size() - 1).getJobId());
+        assertTrue(history.read(Long.MAX_VALUE - 1, Long.MAX_VALUE, 0, 10).isEmpty());
+        assertTrue(history.read(10L, 5L, 0, 10).isEmpty());
+    }
+
+    public void testCorruptAttemptIsRecorded() {
+        JobHistory history = JobHistory.forQueue(QUEUE_NAME);
+        InMemoryQueueBackend backend = InMemoryQueueBackend.forQueue(QUEUE_NAME);
+        String inProcessQueue = "0:" + QUEUE_NAME + ":corrupt";
+        backend.enqueue(Arrays.asList(bytes("\u0001id=corrupt;attempt=x\n{\"url\":\"https://google.com\"}")));
+        QueueStats before = backend.getStats();
+        long from = System.currentTimeMillis();
+
+        LeaseKeeper leases = new LeaseKeeper(QUEUE_NAME, inProcessQueue);
+        List<byte[]> claimed = backend.claim(inProcessQueue, 1, 0, leases.nextDeadline());
+        leases.track(claimed);
+        Acknowledger acknowledger = new Acknowledger(QUEUE_NAME, inProcessQueue, leases,
+                new RetryPolicy(0, 1000L, 1000L));
+        List<Boolean> released = new ArrayList<>();
+        JobDispatcher<ScrapJob> dispatcher = new JobDispatcher<>(QUEUE_NAME, ScrapJob.class,
+                PayloadCodecs.forQueue(QUEUE_NAME, ScrapJob.class), (job, ack) -> ack.ack(),
+                acknowledger, new ConcurrencyLimiter() {
+                    @Override
+                    public void acquire() {
+                    }
+
+                    @Override
+                    public void release(long latencyNanos, boolean success) {
+                        released.add(success);
+                    }
+
+                    @Override
+                    public int getLimit() {
+                        return 1;
+                    }
+                });
+        dispatcher.dispatch(claimed.get(0));
+        acknowledger.close();
+        leases.close();
+
+        assertEquals(Arrays.asList(true), released);
+        QueueStats after = backend.getStats();
+        assertEquals(1L, after.getSucceeded() - before.getSucceeded());
+        assertEquals(before.getProcessing(), after.getProcessing());
+
+        List<JobEvent> read = history.read(from, System.currentTimeMillis(), 0, 10);
+        assertEquals(2, read.size());
+        assertEquals(JobEvent.Type.STARTED, read.get(0).getType());
+        assertEquals(JobEvent.Type.FINISHED, read.get(1).getType());
+        for(JobEvent event : read) {
+            assertEquals("corrupt", event.getJobId());
+            assertEquals(-1, event.getAttempt());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class MultiQueueProcessorTest extends TestCase {
+
+    public MultiQueueProcessorTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(MultiQueueProcessorTest.class);
+    }
+
+    public void testProcessesAllQueues() throws InterruptedException {
+        int numJobs = 50;
+        CountDownLatch processed = new CountDownLatch(2 * numJobs);
+        Set<String> urls = ConcurrentHashMap.newKeySet();
+        MultiQueueProcessor processor = new MultiQueueProcessor.Builder()
+                .queue("multi-queue-a", ScrapJob.class, (job) -> {
+                    urls.add(job.getUrl());
+                    processed.countDown();
+                }, 3)
+                .acknowledgingQueue("multi-queue-b", ScrapJob.class, (job, ack) -> {
+                    urls.add(job.getUrl());
+                    processed.countDown();
+                    ack.ack();
+                }, 1)
+                .build();
+        Thread poller = new Thread(processor::start);
+        poller.start();
+
+        submit("multi-queue-a", "https://a.com/", numJobs);
+        submit("multi-queue-b", "https://b.com/", numJobs);
+
+        assertTrue(processed.await(10L, TimeUnit.SECONDS));
+        processor.close();
+        poller.join(TimeUnit.SECONDS.toMillis(30L));
+        assertFalse(poller.isAlive());
+        assertEquals(2 * numJobs, urls.size());
+        assertEquals(0, InMemoryQueueBackend.forQueue("multi-queue-a").getQueueLength());
+        assertEquals(0, InMemoryQueueBackend.forQueue("multi-queue-b").getQueueLength());
+    }
+
+    public void testWeightMustBePositive() {
+        try {
+            new MultiQueueProcessor.Builder().queue("multi-queue-a", ScrapJob.class, (job) -> { }, 0);
+            fail("A weight of 0 would starve the queue");
+        } catch(IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    private static void submit(String queue, String prefix, int numJobs) {
+        try(JobSubmitter<ScrapJob> submitter = new JobSubmitter.Builder<ScrapJob>(queue)
+                .model(ScrapJob.class)
+                .build()) {
+            for(int i = 0; i < numJobs; i++) {
+                submitter.submit(new ScrapJob(prefix + i, i, null));
+            }
+        }
+    }
+}
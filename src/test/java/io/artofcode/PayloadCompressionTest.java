@@ -0,0 +1,71 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class PayloadCompressionTest extends TestCase {
+
+    public PayloadCompressionTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(PayloadCompressionTest.class);
+    }
+
+    public void testRoundTrip() {
+        StringBuilder html = new StringBuilder();
+        for(int i = 0; i < 500; i++) {
+            html.append("<li><a href=\"https://google.com/search?q=").append(i).append("\">result</a></li>");
+        }
+        byte[] payload = html.toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = new PayloadCompression(1024).compress(payload);
+
+        assertTrue(compressed.length < payload.length / 4);
+        assertTrue(Arrays.equals(payload, PayloadCompression.decompress(PayloadCompression.DEFLATE, compressed)));
+    }
+
+    public void testSmallPayloadsAreUntouched() {
+        byte[] payload = "{\"url\":\"https://google.com\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertNull(new PayloadCompression(1024).compress(payload));
+        assertSame(payload, PayloadCompression.decompress(null, payload));
+    }
+
+    public void testIncompressiblePayloadsAreUntouched() {
+        byte[] payload = new byte[4096];
+        new Random(42).nextBytes(payload);
+
+        assertNull(new PayloadCompression(1024).compress(payload));
+    }
+
+    public void testCorruptPayload() {
+        try {
+            PayloadCompression.decompress(PayloadCompression.DEFLATE, new byte[] { 1, 2, 3, 4 });
+            fail("Corrupt payload was decompressed");
+        } catch(IllegalArgumentException iae) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class PriorityTest extends TestCase {
+
+    public PriorityTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(PriorityTest.class);
+    }
+
+    public void testConfiguredWeights() {
+        assertTrue(Arrays.equals(new int[] { 8, 4, 1 }, Priority.configuredWeights("priority-test")));
+        assertNull(Priority.configuredWeights("memory-test"));
+    }
+
+    public void testWeightsMustNotStarveALevel() {
+        try {
+            Priority.validate(8, 4, 0);
+            fail("A weight of 0 would starve LOW jobs");
+        } catch(IllegalArgumentException iae) {
+            // expected
+        }
+
+        try {
+            new QueueProcessor.Builder<ScrapJob>("priority-test").priorityWeights(0, 1, 1);
+            fail("A weight of 0 would starve HIGH jobs");
+        } catch(IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    public void testPrioritiesNeedConfiguredWeights() {
+        try(JobSubmitter<ScrapJob> submitter = new JobSubmitter.Builder<ScrapJob>("memory-test")
+                .model(ScrapJob.class)
+                .build()) {
+            submitter.submit(new ScrapJob("https://google.com", 12, null), Priority.HIGH);
+            fail("Workers of memory-test would never claim HIGH jobs");
+        } catch(IllegalArgumentException iae) {
+            // expected
+        }
+    }
+}
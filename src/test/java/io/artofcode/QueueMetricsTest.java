@@ -0,0 +1,72 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class QueueMetricsTest extends TestCase {
+
+    public QueueMetricsTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(QueueMetricsTest.class);
+    }
+
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.snapshot().getCount());
+
+        for(int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+
+        assertEquals(100L, snapshot.getCount());
+        assertEquals(50.5, snapshot.getMeanMillis(), 0.001);
+        assertEquals(100.0, snapshot.getMaxMillis(), 0.001);
+        assertTrue(snapshot.getP50Millis() >= 50.0 && snapshot.getP50Millis() < 100.0);
+        assertTrue(snapshot.getP99Millis() >= 99.0 && snapshot.getP99Millis() <= 100.0);
+    }
+
+    public void testMBean() throws Exception {
+        QueueMetrics metrics = QueueMetrics.forQueue("metrics-test");
+        assertSame(metrics, QueueMetrics.forQueue("metrics-test"));
+
+        metrics.onClaimed(10, TimeUnit.MILLISECONDS.toNanos(2L));
+        metrics.onSucceeded(7);
+        metrics.onRetried(2);
+        metrics.onFailed(1);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(10L, server.getAttribute(QueueMetrics.objectName("metrics-test"), "Claimed"));
+        assertEquals(7L, server.getAttribute(QueueMetrics.objectName("metrics-test"), "Succeeded"));
+        assertEquals(2L, server.getAttribute(QueueMetrics.objectName("metrics-test"), "Retried"));
+        assertEquals(1L, server.getAttribute(QueueMetrics.objectName("metrics-test"), "Failed"));
+
+        CompositeData pollLatency = (CompositeData) server.getAttribute(QueueMetrics.objectName("metrics-test"), "PollLatency");
+        assertEquals(1L, pollLatency.get("count"));
+        assertEquals(2.0, (Double) pollLatency.get("maxMillis"), 0.001);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class RedisConnectionPoolTest extends TestCase {
+
+    public RedisConnectionPoolTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(RedisConnectionPoolTest.class);
+    }
+
+    public void testPoolIsSharedPerServer() {
+        RedisConnectionPool first = RedisConnectionPool.forQueue("url-crawlers-test");
+        RedisConnectionPool second = RedisConnectionPool.forQueue("some-other-queue");
+        RedisConnectionPool remote = RedisConnectionPool.forQueue("url-crawlers");
+
+        assertSame(first, second);
+        assertNotSame(first, remote);
+        assertEquals("localhost", first.getHost());
+        assertEquals(6379, first.getPort());
+        assertTrue(RedisConnectionPool.all().contains(remote));
+    }
+
+    public void testPoolStats() {
+        RedisConnectionPool.Stats stats = RedisConnectionPool.forQueue("url-crawlers").getBlockingStats();
+
+        assertEquals(0, stats.getActive());
+        assertEquals(0, stats.getWaiters());
+    }
+}
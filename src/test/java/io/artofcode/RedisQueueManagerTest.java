@@ -0,0 +1,239 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import static io.artofcode.TestHelper.strings;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+public class RedisQueueManagerTest extends TestCase {
+
+    private static final String QUEUE_NAME = "batch-claim-test";
+
+    private static final String INPROCESS_QUEUE = "0:batch-claim-test:processing";
+
+    private static final long DEADLINE = System.currentTimeMillis() + 60000L;
+
+    public RedisQueueManagerTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(RedisQueueManagerTest.class);
+    }
+
+    public void testBatchClaim() {
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager rqm = new RedisQueueManager(QUEUE_NAME)) {
+            jedis.del(QUEUE_NAME, INPROCESS_QUEUE, rqm.getLeasesName());
+            jedis.lpush(QUEUE_NAME, "job-1", "job-2", "job-3", "job-4", "job-5");
+
+            List<String> first = strings(rqm.claim(INPROCESS_QUEUE, 3, 1, DEADLINE));
+            assertEquals(3, first.size());
+            assertEquals("job-1", first.get(0));
+            assertEquals("job-3", first.get(2));
+
+            List<String> second = strings(rqm.claim(INPROCESS_QUEUE, 3, 1, DEADLINE));
+            assertEquals(2, second.size());
+            assertEquals("job-5", second.get(1));
+
+            assertEquals(0L, jedis.llen(QUEUE_NAME).longValue());
+            assertEquals(5L, jedis.llen(INPROCESS_QUEUE).longValue());
+            assertTrue(rqm.claim(INPROCESS_QUEUE, 3, 1, DEADLINE).isEmpty());
+
+            assertEquals(5L, jedis.zcard(rqm.getLeasesName()).longValue());
+
+            jedis.del(INPROCESS_QUEUE, rqm.getLeasesName());
+        }
+    }
+
+    public void testExpiredLeasesAreReaped() {
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager rqm = new RedisQueueManager(QUEUE_NAME)) {
+            jedis.del(QUEUE_NAME, INPROCESS_QUEUE, rqm.getLeasesName());
+            jedis.lpush(QUEUE_NAME, "job-1", "job-2", "job-3");
+
+            long now = System.currentTimeMillis();
+            List<byte[]> expiring = rqm.claim(INPROCESS_QUEUE, 2, 1, now - 1000L);
+            List<byte[]> extended = rqm.claim(INPROCESS_QUEUE, 1, 1, now - 1000L);
+            rqm.extendLeases(INPROCESS_QUEUE, extended, now + 60000L);
+
+            assertEquals(2, rqm.reapExpiredLeases(now, 100));
+            assertEquals(0, rqm.reapExpiredLeases(now, 100));
+
+            assertEquals(2L, jedis.llen(QUEUE_NAME).longValue());
+            assertTrue(strings(expiring).contains(jedis.rpop(QUEUE_NAME)));
+            assertEquals(1L, jedis.llen(INPROCESS_QUEUE).longValue());
+            assertEquals(SafeEncoder.encode(extended.get(0)), jedis.lindex(INPROCESS_QUEUE, 0));
+
+            jedis.del(QUEUE_NAME, INPROCESS_QUEUE, rqm.getLeasesName());
+        }
+    }
+
+    public void testStats() {
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager rqm = new RedisQueueManager(QUEUE_NAME)) {
+            jedis.del(QUEUE_NAME, INPROCESS_QUEUE, rqm.getLeasesName(), rqm.getStatsName(), rqm.getFailedQueueName());
+            rqm.enqueue(Arrays.asList(SafeEncoder.encode("job-1"), SafeEncoder.encode("job-2"),
+                    SafeEncoder.encode("job-3")));
+
+            List<byte[]> claimed = rqm.claim(INPROCESS_QUEUE, 3, 1, DEADLINE);
+            rqm.ack(INPROCESS_QUEUE, claimed.subList(0, 2));
+            rqm.fail(INPROCESS_QUEUE, claimed.subList(2, 3));
+            rqm.ack(INPROCESS_QUEUE, claimed.subList(0, 1));
+
+            QueueStats stats = rqm.getStats();
+            assertEquals(0L, stats.getQueued());
+            assertEquals(0L, stats.getProcessing());
+            assertEquals(3L, stats.getSubmitted());
+            assertEquals(3L, stats.getClaimed());
+            assertEquals(2L, stats.getSucceeded());
+            assertEquals(1L, stats.getFailed());
+
+            jedis.del(rqm.getStatsName(), rqm.getFailedQueueName());
+        }
+    }
+
+    public void testWeightedPriorityClaim() {
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager rqm = new RedisQueueManager(QUEUE_NAME)) {
+            String high = rqm.getPriorityQueueName(Priority.HIGH);
+            String low = rqm.getPriorityQueueName(Priority.LOW);
+            jedis.del(QUEUE_NAME, high, low, INPROCESS_QUEUE, rqm.getLeasesName());
+            rqm.enqueue(Priority.LOW, Arrays.asList(SafeEncoder.encode("low-1")));
+            rqm.enqueue(Priority.HIGH, Arrays.asList(SafeEncoder.encode("high-1"), SafeEncoder.encode("high-2")));
+            rqm.enqueue(Priority.NORMAL, Arrays.asList(SafeEncoder.encode("normal-1")));
+            assertEquals(4L, rqm.getStats().getQueued());
+
+            List<String> claimed = strings(rqm.claim(INPROCESS_QUEUE, 10, 0, DEADLINE, new int[] { 8, 4, 1 }));
+            assertEquals(4, claimed.size());
+            assertTrue(claimed.indexOf("high-1") < claimed.indexOf("high-2"));
+            assertTrue(claimed.contains("low-1"));
+            assertEquals(4L, jedis.zcard(rqm.getLeasesName()).longValue());
+
+            jedis.del(INPROCESS_QUEUE, rqm.getLeasesName());
+        }
+    }
+
+    public void testRedeliveredJobsKeepTheirPriority() {
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager rqm = new RedisQueueManager(QUEUE_NAME)) {
+            String high = rqm.getPriorityQueueName(Priority.HIGH);
+            byte[] job = JobEnvelope.of("42", JsonCodec.NAME, null, SafeEncoder.encode("{}"))
+                    .withPriority(Priority.HIGH).encode();
+            jedis.del(QUEUE_NAME, high, INPROCESS_QUEUE, rqm.getLeasesName(), rqm.getDelayedQueueName());
+            rqm.enqueue(Priority.HIGH, Arrays.asList(job));
+
+            rqm.claim(INPROCESS_QUEUE, 1, 0, 0L, new int[] { 1, 1, 1 });
+            assertEquals(1, rqm.reapExpiredLeases(System.currentTimeMillis(), 10));
+            assertEquals(1L, jedis.llen(high).longValue());
+            assertEquals(0L, jedis.llen(QUEUE_NAME).longValue());
+
+            List<byte[]> claimed = rqm.claim(INPROCESS_QUEUE, 1, 0, DEADLINE, new int[] { 1, 1, 1 });
+            byte[] next = JobEnvelope.parse(claimed.get(0)).nextAttempt().encode();
+            rqm.retry(INPROCESS_QUEUE, Arrays.asList(new QueueBackend.Retry(claimed.get(0), next, 0L)));
+            assertEquals(1L, rqm.promoteDueJobs(System.currentTimeMillis(), 10)[0]);
+            assertEquals(1L, jedis.llen(high).longValue());
+            assertEquals(0L, jedis.llen(QUEUE_NAME).longValue());
+
+            jedis.del(high, rqm.getLeasesName());
+        }
+    }
+
+    public void testUnprocessedJobsAreRequeued() {
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager rqm = new RedisQueueManager(QUEUE_NAME)) {
+            jedis.del(QUEUE_NAME, INPROCESS_QUEUE, rqm.getLeasesName(), rqm.getStatsName());
+            jedis.lpush(QUEUE_NAME, "job-1", "job-2", "job-3", "job-4");
+            List<byte[]> claimed = rqm.claim(INPROCESS_QUEUE, 3, 0, DEADLINE);
+
+            assertEquals(2, rqm.requeue(INPROCESS_QUEUE, claimed.subList(1, 3)));
+            assertEquals(1L, jedis.llen(INPROCESS_QUEUE).longValue());
+            assertEquals(1L, jedis.zcard(rqm.getLeasesName()).longValue());
+            assertEquals(0L, rqm.getStats().getRetried());
+            assertEquals(Arrays.asList("job-2", "job-3", "job-4"), strings(rqm.claim(INPROCESS_QUEUE, 3, 0, DEADLINE)));
+
+            jedis.del(INPROCESS_QUEUE, rqm.getLeasesName(), rqm.getStatsName());
+        }
+    }
+
+    public void testInProcessJobsAreRecovered() {
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager rqm = new RedisQueueManager(QUEUE_NAME)) {
+            String recovery = rqm.getRecoveryName(INPROCESS_QUEUE);
+            jedis.del(QUEUE_NAME, INPROCESS_QUEUE, recovery, rqm.getLeasesName());
+            jedis.lpush(QUEUE_NAME, "job-1", "job-2", "job-3", "job-4", "job-5");
+            rqm.claim(INPROCESS_QUEUE, 3, 1, DEADLINE);
+
+            assertEquals(2, rqm.recoverInProcess(INPROCESS_QUEUE, 2));
+            assertEquals(1, rqm.recoverInProcess(INPROCESS_QUEUE, 2));
+            assertEquals(0L, jedis.llen(INPROCESS_QUEUE).longValue());
+            assertEquals(0L, jedis.zcard(rqm.getLeasesName()).longValue());
+            // The oldest claim is redelivered first
+            assertEquals("job-1", strings(rqm.claim(INPROCESS_QUEUE, 1, 1, DEADLINE)).get(0));
+
+            assertTrue(rqm.detachInProcess(INPROCESS_QUEUE));
+            assertFalse(rqm.detachInProcess(INPROCESS_QUEUE));
+            assertEquals(1L, jedis.llen(recovery).longValue());
+            assertEquals(1, rqm.recoverDetached(INPROCESS_QUEUE, 10));
+            assertEquals(0L, jedis.zcard(rqm.getLeasesName()).longValue());
+            assertEquals(5L, jedis.llen(QUEUE_NAME).longValue());
+
+            jedis.del(QUEUE_NAME);
+        }
+    }
+
+    public void testJobsOfDeadWorkersAreReclaimed() {
+        try(Jedis jedis = new Jedis("localhost");
+            RedisQueueManager rqm = new RedisQueueManager(QUEUE_NAME)) {
+            String lock = rqm.getReclaimLockName(INPROCESS_QUEUE);
+            jedis.del(QUEUE_NAME, INPROCESS_QUEUE, lock, rqm.getLeasesName(), rqm.getWorkersName());
+            jedis.lpush(QUEUE_NAME, "job-1", "job-2", "job-3");
+            rqm.claim(INPROCESS_QUEUE, 3, 1, DEADLINE);
+
+            long now = System.currentTimeMillis();
+            rqm.heartbeat(INPROCESS_QUEUE, now - 60000L);
+            rqm.heartbeat("1:batch-claim-test:processing", now);
+            assertEquals(Arrays.asList(INPROCESS_QUEUE), rqm.findDeadWorkers(now - 30000L, 10));
+
+            assertEquals(2, rqm.reclaim(INPROCESS_QUEUE, now - 30000L, "worker-a", 10000L, 2));
+            // Locked by the first reclaimer until its lock expires
+            assertEquals(-1, rqm.reclaim(INPROCESS_QUEUE, now - 30000L, "worker-b", 10000L, 2));
+            assertEquals(1, rqm.reclaim(INPROCESS_QUEUE, now - 30000L, "worker-a", 10000L, 2));
+
+            assertEquals(3L, jedis.llen(QUEUE_NAME).longValue());
+            assertEquals(0L, jedis.zcard(rqm.getLeasesName()).longValue());
+            assertFalse(jedis.exists(lock));
+            assertTrue(rqm.findDeadWorkers(now - 30000L, 10).isEmpty());
+
+            // A worker which is alive again is left alone
+            rqm.heartbeat(INPROCESS_QUEUE, now);
+            assertEquals(-1, rqm.reclaim(INPROCESS_QUEUE, now - 30000L, "worker-a", 10000L, 2));
+
+            jedis.del(QUEUE_NAME, rqm.getWorkersName());
+        }
+    }
+}
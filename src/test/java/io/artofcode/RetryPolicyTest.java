@@ -0,0 +1,56 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class RetryPolicyTest extends TestCase {
+
+    public RetryPolicyTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(RetryPolicyTest.class);
+    }
+
+    public void testRetriesAreBounded() {
+        RetryPolicy policy = new RetryPolicy(2, 100L, 1000L);
+
+        assertTrue(policy.canRetry(1));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+        assertFalse(new RetryPolicy(0, 100L, 1000L).canRetry(1));
+    }
+
+    public void testBackoffIsExponentialWithJitter() {
+        RetryPolicy policy = new RetryPolicy(10, 100L, 1000L);
+
+        for(int i = 0; i < 100; i++) {
+            long first = policy.backoff(1);
+            assertTrue(first >= 50L && first <= 100L);
+
+            long third = policy.backoff(3);
+            assertTrue(third >= 200L && third <= 400L);
+
+            long capped = policy.backoff(60);
+            assertTrue(capped >= 500L && capped <= 1000L);
+        }
+    }
+}
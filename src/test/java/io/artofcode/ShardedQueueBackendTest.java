@@ -0,0 +1,95 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static io.artofcode.TestHelper.jobs;
+import static io.artofcode.TestHelper.strings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+
+public class ShardedQueueBackendTest extends TestCase {
+
+    private static final String QUEUE_NAME = "sharded-test";
+
+    private static final String INPROCESS_QUEUE = "1:sharded-test:processing";
+
+    public ShardedQueueBackendTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(ShardedQueueBackendTest.class);
+    }
+
+    public void testShardsAreConfiguredPerQueue() {
+        ShardedQueueBackend backend = ShardedQueueBackend.forQueue(QUEUE_NAME);
+        assertSame(backend, QueueBackend.forQueue(QUEUE_NAME));
+        assertEquals(3, backend.getShardCount());
+        assertEquals("sharded-test:shard:2", backend.getShardName(2));
+        assertEquals("1:sharded-test:processing:shard:0", backend.getInprocessName(INPROCESS_QUEUE, 0));
+        assertFalse(QueueBackend.forQueue("memory-test") instanceof ShardedQueueBackend);
+    }
+
+    public void testStatsOfShardsAreAddedUp() {
+        QueueStats first = new QueueStats("a", 1L, 2L, 3L, Collections.singletonMap("claimed", 4L));
+        QueueStats second = new QueueStats("b", 10L, 20L, 30L, Collections.singletonMap("claimed", 40L));
+        QueueStats sum = QueueStats.sum(QUEUE_NAME, Arrays.asList(first, second));
+
+        assertEquals(QUEUE_NAME, sum.getQueue());
+        assertEquals(11L, sum.getQueued());
+        assertEquals(22L, sum.getProcessing());
+        assertEquals(33L, sum.getDelayed());
+        assertEquals(44L, sum.getClaimed());
+        assertEquals(0L, sum.getSucceeded());
+    }
+
+    public void testClaimRotatesOverShards() {
+        ShardedQueueBackend backend = ShardedQueueBackend.forQueue(QUEUE_NAME);
+        try(Jedis jedis = new Jedis("localhost")) {
+            for(int i = 0; i < backend.getShardCount(); i++) {
+                jedis.del(backend.getShardName(i), backend.getInprocessName(INPROCESS_QUEUE, i));
+            }
+            backend.enqueue("key", jobs("k-1", "k-2"));
+            backend.enqueue(jobs("r-1"));
+            backend.enqueue(jobs("r-2"));
+            backend.enqueue(jobs("r-3"));
+
+            long deadline = System.currentTimeMillis() + 60000L;
+            List<byte[]> claimed = new ArrayList<>();
+            for(int i = 0; i < 5; i++) {
+                claimed.addAll(backend.claim(INPROCESS_QUEUE, 1, 0, deadline));
+            }
+            List<String> names = strings(claimed);
+            assertEquals(5, names.size());
+            assertTrue(names.indexOf("k-1") < names.indexOf("k-2"));
+
+            backend.ack(INPROCESS_QUEUE, claimed);
+            for(int i = 0; i < backend.getShardCount(); i++) {
+                assertEquals(0L, (long) jedis.llen(backend.getInprocessName(INPROCESS_QUEUE, i)));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.artofcode;
+
+import static io.artofcode.TestHelper.bytes;
+import static io.artofcode.TestHelper.strings;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+
+public class StreamQueueBackendTest extends TestCase {
+
+    private static final String QUEUE_NAME = "streams-test";
+
+    private static final String CONSUMER = "1:streams-test:processing";
+
+    private static final String OTHER_CONSUMER = "2:streams-test:processing";
+
+    public StreamQueueBackendTest(String testName) throws IOException {
+        super(testName);
+        TestHelper.setupEnvironment();
+    }
+
+    public static Test suite() {
+        return new TestSuite(StreamQueueBackendTest.class);
+    }
+
+    public void testBackendIsConfiguredPerQueue() {
+        assertSame(StreamQueueBackend.forQueue(QUEUE_NAME), QueueBackend.forQueue(QUEUE_NAME));
+        assertEquals("streams-test:stream", StreamQueueBackend.forQueue(QUEUE_NAME).getStreamName());
+    }
+
+    public void testClaimAckAndTakeOver() throws InterruptedException {
+        StreamQueueBackend backend = StreamQueueBackend.forQueue(QUEUE_NAME);
+        try(Jedis jedis = new Jedis("localhost")) {
+            jedis.del(backend.getStreamName(), QUEUE_NAME + ":stats");
+            backend.enqueue(Arrays.asList(bytes("job-1"), bytes("job-2"), bytes("job-3")));
+
+            long deadline = System.currentTimeMillis() + 60000L;
+            List<byte[]> first = backend.claim(CONSUMER, 2, 1, deadline);
+            assertEquals(Arrays.asList("job-1", "job-2"), strings(first));
+
+            backend.ack(CONSUMER, first.subList(0, 1));
+            assertEquals(1L, backend.getStats().getQueued());
+            assertEquals(1L, backend.getStats().getProcessing());
+
+            List<byte[]> expiring = backend.claim(CONSUMER, 1, 1, System.currentTimeMillis() + 50L);
+            assertEquals(Arrays.asList("job-3"), strings(expiring));
+            Thread.sleep(100L);
+
+            List<byte[]> taken = backend.claim(OTHER_CONSUMER, 10, 0, deadline);
+            assertEquals(Arrays.asList("job-3"), strings(taken));
+            backend.ack(CONSUMER, expiring);
+            backend.ack(OTHER_CONSUMER, taken);
+            backend.ack(CONSUMER, first.subList(1, 2));
+
+            QueueStats stats = backend.getStats();
+            assertEquals(0L, stats.getQueued());
+            assertEquals(0L, stats.getProcessing());
+            assertEquals(3L, stats.getSucceeded());
+            assertEquals(1L, stats.getExpired());
+        }
+    }
+}
@@ -4,10 +4,13 @@ import junit.framework.Test;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,6 +31,16 @@ public class TestHelper {
             copyConfigFile(configDir, "default");
             copyConfigFile(configDir, "url-crawlers");
             copyConfigFile(configDir, "url-crawlers-test");
+            copyConfigFile(configDir, "memory-test");
+            copyConfigFile(configDir, "history-test");
+            copyConfigFile(configDir, "streams-test");
+            copyConfigFile(configDir, "sharded-test");
+            copyConfigFile(configDir, "priority-test");
+            copyConfigFile(configDir, "multi-queue-a");
+            copyConfigFile(configDir, "multi-queue-b");
+            copyConfigFile(configDir, "prefetch-test");
+            copyConfigFile(configDir, "slots-test");
+            copyConfigFile(configDir, "journal-test");
         }catch (IOException ioe) {
             logger.log(Level.SEVERE, "Unable to setup environment. Tests may not run correctly", ioe);
         }
@@ -43,6 +56,33 @@ public class TestHelper {
         // environment is setup no matter which test is executed first
     }
 
+    /**
+     * @return job encoded as it is stored in a queue
+     */
+    public static byte[] bytes(String job) {
+        return job.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String string(byte[] job) {
+        return new String(job, StandardCharsets.UTF_8);
+    }
+
+    public static List<byte[]> jobs(String... jobs) {
+        List<byte[]> encoded = new ArrayList<>(jobs.length);
+        for(String job : jobs) {
+            encoded.add(bytes(job));
+        }
+        return encoded;
+    }
+
+    public static List<String> strings(List<byte[]> jobs) {
+        List<String> strings = new ArrayList<>(jobs.size());
+        for(byte[] job : jobs) {
+            strings.add(string(job));
+        }
+        return strings;
+    }
+
     private static Path getConfigDir() throws IOException {
         Path configDir = Files.createTempDirectory(CONFIG_PATH, new FileAttribute[0]);
         return configDir;
@@ -0,0 +1,61 @@
+/*
+Copyright 2018 Neeraj Shah
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package io.artofcode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class VirtualThreadsTest extends TestCase {
+
+    public VirtualThreadsTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(VirtualThreadsTest.class);
+    }
+
+    public void testVirtualThreadExecutor() throws Exception {
+        if(!VirtualThreads.isSupported()) {
+            try {
+                VirtualThreads.newExecutor("virtual-test");
+                fail("Virtual threads are not supported on this JVM");
+            } catch(RuntimeException re) {
+                assertTrue(re.getMessage().contains("Java 21"));
+            }
+            return;
+        }
+
+        ExecutorService executor = VirtualThreads.newExecutor("virtual-test");
+        String[] threadName = new String[1];
+        boolean[] isVirtual = new boolean[1];
+        executor.submit(() -> {
+            threadName[0] = Thread.currentThread().getName();
+            isVirtual[0] = (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+            return null;
+        }).get();
+        executor.shutdown();
+
+        assertTrue(executor.awaitTermination(1L, TimeUnit.SECONDS));
+        assertTrue(isVirtual[0]);
+        assertEquals("jeeves-virtual-test-0", threadName[0]);
+    }
+}
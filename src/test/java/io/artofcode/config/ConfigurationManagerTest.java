@@ -59,4 +59,20 @@ public class ConfigurationManagerTest extends TestCase {
         assertTrue(defaultProps.get("HEART_BEAT").equals("2500s"));
     }
 
+    public void testIntConfig() {
+        ConfigurationManager configManager = ConfigurationManager.getInstance();
+
+        assertEquals(10, configManager.getInt("url-crawlers-test", "BATCH_SIZE", 1));
+        assertEquals(1, configManager.getInt("url-crawlers", "BATCH_SIZE", 1));
+        assertEquals(5, configManager.getInt("url-crawlers", "NUM_RETRIES", 0));
+    }
+
+    public void testDurationConfig() {
+        ConfigurationManager configManager = ConfigurationManager.getInstance();
+
+        assertEquals(5000000L, configManager.getDuration("default", "HEART_BEAT", 0L));
+        assertEquals(2500000L, configManager.getDuration("url-crawlers", "HEART_BEAT", 0L));
+        assertEquals(5L, configManager.getDuration("url-crawlers", "ACK_FLUSH_INTERVAL", 5L));
+    }
+
 }
@@ -56,4 +56,25 @@ public class WorkerStateTest extends TestCase {
     	));
     }
 
-}
\ No newline at end of file
+    public void testSlots() {
+    	try(WorkerState first = WorkerState.acquire("slots-test");
+    		WorkerState second = WorkerState.acquire("slots-test")) {
+    		assertEquals(first.getSlot() + 1, second.getSlot());
+    		assertFalse(first.getWorkerId() == second.getWorkerId());
+
+    		try {
+    			WorkerState.acquire("slots-test", second.getSlot());
+    			fail("Slot is held by the second worker");
+    		} catch(RuntimeException re) {
+    			// expected
+    		}
+
+    		long secondId = second.getWorkerId();
+    		second.close();
+    		try(WorkerState restarted = WorkerState.acquire("slots-test")) {
+    			assertEquals(second.getSlot(), restarted.getSlot());
+    			assertEquals(secondId, restarted.getWorkerId());
+    		}
+    	}
+    }
+}